@@ -0,0 +1,73 @@
+package com.example.websocketbroker.interceptors;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Measures {@link TenantInterceptor#preSend} on a CONNECT frame, which
+ * resolves the tenant, and on a SEND frame, which every inbound message
+ * passes through.
+ *
+ * @author Tobias Andraschko
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TenantInterceptorBenchmark {
+
+  private final TenantInterceptor interceptor = new TenantInterceptor();
+  private Message<byte[]> connect;
+  private Message<byte[]> send;
+
+  @Setup
+  public void setup() {
+    StompHeaderAccessor connectAccessor = StompHeaderAccessor.create(
+      StompCommand.CONNECT
+    );
+    connectAccessor.setNativeHeader("authorization", "Bearer tenant1");
+    connectAccessor.setSessionAttributes(new HashMap<>());
+    connectAccessor.setLeaveMutable(true);
+    connect =
+      MessageBuilder.createMessage(new byte[0], connectAccessor.getMessageHeaders());
+
+    StompHeaderAccessor sendAccessor = StompHeaderAccessor.create(
+      StompCommand.SEND
+    );
+    sendAccessor.setDestination("/app/send/chat");
+    sendAccessor.setNativeHeader("custom-user-id", "user-42");
+    sendAccessor.setSessionAttributes(new HashMap<>());
+    sendAccessor.setLeaveMutable(true);
+    send =
+      MessageBuilder.createMessage(
+        "hello world".getBytes(),
+        sendAccessor.getMessageHeaders()
+      );
+  }
+
+  @Benchmark
+  public Message<?> preSendConnect() {
+    return interceptor.preSend(connect, null);
+  }
+
+  @Benchmark
+  public Message<?> preSendSend() {
+    return interceptor.preSend(send, null);
+  }
+}
@@ -0,0 +1,67 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.codec.BinaryMessageCodec;
+import com.example.websocketbroker.codec.JsonMessageCodec;
+import com.example.websocketbroker.codec.MessageCodec;
+import com.example.websocketbroker.config.RedisConfig;
+import com.example.websocketbroker.model.MessageData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding {@link MessageData} as done by
+ * {@link RedisManager#storeMessage} before every Redis write, and decoding
+ * it as done by the retention sweep, for each codec. The JSON codec uses
+ * the application's configured {@link ObjectMapper}.
+ *
+ * @author Tobias Andraschko
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDataSerializationBenchmark {
+
+  private static final long ID = 1_700_000_000_123_007L;
+
+  @Param({ "JSON", "BINARY" })
+  private String format;
+
+  private MessageCodec codec;
+  private String message;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() {
+    codec = switch (format) {
+      case "JSON" -> new JsonMessageCodec(new RedisConfig().objectMapper());
+      default -> new BinaryMessageCodec();
+    };
+    message = "Hello from the benchmark, this is a typical chat message.";
+    encoded = codec.encode(ID, System.currentTimeMillis(), "user-42", message);
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return codec.encode(ID, System.currentTimeMillis(), "user-42", message);
+  }
+
+  @Benchmark
+  public MessageData deserialize() throws IOException {
+    return codec.decode(encoded);
+  }
+}
@@ -0,0 +1,62 @@
+package com.example.websocketbroker.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the parsing of frames received from the broker as done by the
+ * broker channel's read path: a read of several coalesced MESSAGE frames
+ * decoded into {@link StompFrame}s.
+ *
+ * @author Tobias Andraschko
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StompFrameDecoderBenchmark {
+
+  private static final int FRAMES_PER_READ = 16;
+
+  private final StompFrameDecoder decoder = new StompFrameDecoder(64 * 1024, 1024 * 1024);
+  private ByteBuffer read;
+  private Consumer<StompFrame> handler;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    handler = blackhole::consume;
+
+    StringBuilder frames = new StringBuilder();
+    for (int i = 0; i < FRAMES_PER_READ; i++) {
+      frames
+        .append("MESSAGE\ndestination:/topic/chat\nsubscription:sub-0\n")
+        .append("message-id:T_sub-0@@session-1@@")
+        .append(i)
+        .append("\ncustom-user-id:user-42\ncontent-length:11\n\nhello world\u0000\n");
+    }
+    byte[] bytes = frames.toString().getBytes(StandardCharsets.UTF_8);
+    read = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES_PER_READ)
+  public void decodeMessages() throws StompDecodingException {
+    decoder.decode(read.duplicate(), handler);
+  }
+}
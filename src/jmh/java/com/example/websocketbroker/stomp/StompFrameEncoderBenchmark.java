@@ -0,0 +1,59 @@
+package com.example.websocketbroker.stomp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the construction of SEND frames as done by the broker channel's
+ * writer: a cached destination header plus the user id, persisted id and
+ * body encoded into the reusable buffer.
+ *
+ * @author Tobias Andraschko
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StompFrameEncoderBenchmark {
+
+  private static final long ID = 1_700_000_000_123_007L;
+
+  @Param({ "16", "1024" })
+  private int bodyLength;
+
+  private final StompFrameEncoder encoder = new StompFrameEncoder();
+  private byte[] headers;
+  private String body;
+
+  @Setup
+  public void setup() {
+    headers = StompFrameEncoder.sendHeaders("/topic/chat");
+    body = "x".repeat(bodyLength);
+  }
+
+  @Benchmark
+  public int encodeSend() {
+    encoder.clear();
+    encoder.encodeSend(headers, "user-42", ID, body);
+    return encoder.size();
+  }
+
+  @Benchmark
+  public int encodeSendWithoutUserId() {
+    encoder.clear();
+    encoder.encodeSend(headers, null, ID, body);
+    return encoder.size();
+  }
+}
@@ -0,0 +1,247 @@
+package com.example.websocketbroker.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * A minimal in-process Redis stand-in speaking RESP2. It implements just
+ * the commands the application issues (list pushes, trims, ranges, TTLs
+ * and key scans) plus the connection handshake of the Lettuce client.
+ * Pipelined commands are answered with a single flush.
+ *
+ * @author Tobias Andraschko
+ */
+public class FakeRedisServer implements Closeable {
+
+  private final ServerSocket serverSocket;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, List<byte[]>> lists = new HashMap<>();
+  private final AtomicLong pushedValues = new AtomicLong();
+
+  /**
+   * Starts the server on a free local port.
+   *
+   * @throws IOException if the port can't be opened
+   */
+  public FakeRedisServer() throws IOException {
+    this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+    Thread.ofVirtual().name("fake-redis-accept").start(this::accept);
+  }
+
+  /**
+   * Returns the port the server listens on.
+   *
+   * @return the local port
+   */
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the number of values pushed to lists.
+   *
+   * @return the number of pushed values
+   */
+  public long pushedValues() {
+    return pushedValues.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        Thread.ofVirtual().name("fake-redis-connection").start(() -> serve(socket));
+      } catch (IOException e) {
+        // Closed.
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (
+      socket;
+      InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024)
+    ) {
+      while (true) {
+        List<byte[]> command = readCommand(in);
+        if (command == null) break;
+        execute(command, out);
+        if (in.available() == 0) out.flush();
+      }
+    } catch (IOException e) {
+      // Connection lost.
+    }
+  }
+
+  private void execute(List<byte[]> command, OutputStream out) throws IOException {
+    String name = string(command.get(0)).toUpperCase();
+    switch (name) {
+      case "HELLO" -> error(out, "NOPROTO unsupported protocol version");
+      case "AUTH", "SELECT", "CLIENT", "QUIT" -> simple(out, "OK");
+      case "PING" -> simple(out, "PONG");
+      case "RPUSH" -> integer(out, rPush(command));
+      case "LTRIM" -> {
+        lTrim(string(command.get(1)), integerArg(command, 2), integerArg(command, 3));
+        simple(out, "OK");
+      }
+      case "LRANGE" -> array(
+        out,
+        lRange(string(command.get(1)), integerArg(command, 2), integerArg(command, 3))
+      );
+      case "LLEN" -> integer(out, withList(string(command.get(1)), List::size));
+      case "EXPIRE" -> integer(out, 1);
+      case "SCAN" -> {
+        out.write("*2\r\n$1\r\n0\r\n".getBytes(StandardCharsets.US_ASCII));
+        array(out, keys());
+      }
+      default -> error(out, "ERR unknown command '" + name + "'");
+    }
+  }
+
+  private long rPush(List<byte[]> command) {
+    String key = string(command.get(1));
+    lock.lock();
+    try {
+      List<byte[]> list = lists.computeIfAbsent(key, k -> new ArrayList<>());
+      list.addAll(command.subList(2, command.size()));
+      pushedValues.addAndGet(command.size() - 2);
+      return list.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void lTrim(String key, long start, long stop) {
+    lock.lock();
+    try {
+      List<byte[]> list = lists.get(key);
+      if (list == null) return;
+      int from = index(start, list.size());
+      int to = Math.min(index(stop, list.size()), list.size() - 1);
+      List<byte[]> kept = from <= to ? new ArrayList<>(list.subList(from, to + 1)) : new ArrayList<>();
+      lists.put(key, kept);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private List<byte[]> lRange(String key, long start, long stop) {
+    lock.lock();
+    try {
+      List<byte[]> list = lists.getOrDefault(key, List.of());
+      int from = index(start, list.size());
+      int to = Math.min(index(stop, list.size()), list.size() - 1);
+      return from <= to ? new ArrayList<>(list.subList(from, to + 1)) : List.of();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private List<byte[]> keys() {
+    lock.lock();
+    try {
+      return lists.keySet().stream().map(FakeRedisServer::bytes).toList();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long withList(String key, ToIntFunction<List<byte[]>> function) {
+    lock.lock();
+    try {
+      return function.applyAsInt(lists.getOrDefault(key, List.of()));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static int index(long index, int size) {
+    long resolved = index < 0 ? size + index : index;
+    return (int) Math.max(0, resolved);
+  }
+
+  private static List<byte[]> readCommand(InputStream in) throws IOException {
+    int type = in.read();
+    if (type == -1) return null;
+    if (type != '*') throw new IOException("Expected array, got " + (char) type);
+
+    int count = (int) readNumber(in);
+    List<byte[]> command = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      if (in.read() != '$') throw new IOException("Expected bulk string");
+      int length = (int) readNumber(in);
+      command.add(in.readNBytes(length));
+      in.skipNBytes(2);
+    }
+    return command;
+  }
+
+  private static long readNumber(InputStream in) throws IOException {
+    long value = 0;
+    boolean negative = false;
+    int b;
+    while ((b = in.read()) != '\r') {
+      if (b == -1) throw new IOException("Connection closed");
+      if (b == '-') negative = true;
+      else value = value * 10 + (b - '0');
+    }
+    in.read();
+    return negative ? -value : value;
+  }
+
+  private static long integerArg(List<byte[]> command, int index) {
+    return Long.parseLong(string(command.get(index)));
+  }
+
+  private static void simple(OutputStream out, String value) throws IOException {
+    out.write(("+" + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void error(OutputStream out, String message) throws IOException {
+    out.write(("-" + message + "\r\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void integer(OutputStream out, long value) throws IOException {
+    out.write((":" + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void array(OutputStream out, List<byte[]> values) throws IOException {
+    out.write(("*" + values.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    for (byte[] value : values) {
+      out.write(("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+      out.write(value);
+      out.write('\r');
+      out.write('\n');
+    }
+  }
+
+  private static String string(byte[] value) {
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
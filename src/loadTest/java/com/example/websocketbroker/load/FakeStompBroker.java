@@ -0,0 +1,258 @@
+package com.example.websocketbroker.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A minimal in-process STOMP 1.2 broker standing in for RabbitMQ. It
+ * accepts the connections of both the application's broker channels and
+ * Spring's broker relay, and routes every SEND to the subscribers of the
+ * same destination on the same virtual host (the CONNECT frame's host
+ * header). Heart-beats are declined and there are no acknowledgements or
+ * transactions.
+ *
+ * @author Tobias Andraschko
+ */
+public class FakeStompBroker implements Closeable {
+
+  private record Subscription(Connection connection, String id) {}
+
+  private final ServerSocket serverSocket;
+  private final Map<String, List<Subscription>> subscriptions = new ConcurrentHashMap<>();
+  private final AtomicLong messageIds = new AtomicLong();
+  private final AtomicLong sends = new AtomicLong();
+
+  /**
+   * Starts the broker on a free local port.
+   *
+   * @throws IOException if the port can't be opened
+   */
+  public FakeStompBroker() throws IOException {
+    this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+    Thread.ofVirtual().name("fake-stomp-accept").start(this::accept);
+  }
+
+  /**
+   * Returns the port the broker listens on.
+   *
+   * @return the local port
+   */
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the number of SEND frames received.
+   *
+   * @return the number of SEND frames
+   */
+  public long sends() {
+    return sends.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        Connection connection = new Connection(socket);
+        Thread.ofVirtual().name("fake-stomp-connection").start(connection::run);
+      } catch (IOException e) {
+        // Closed.
+      }
+    }
+  }
+
+  private final class Connection {
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, String> destinationsById = new ConcurrentHashMap<>();
+    private String vhost = "/";
+
+    private Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+      this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+    }
+
+    private void run() {
+      try {
+        while (true) {
+          Frame frame = readFrame();
+          if (frame == null) break;
+          handle(frame);
+        }
+      } catch (IOException e) {
+        // Connection lost.
+      } finally {
+        destinationsById.forEach((id, destination) -> unsubscribe(id));
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Ignored.
+        }
+      }
+    }
+
+    private void handle(Frame frame) throws IOException {
+      switch (frame.command()) {
+        case "CONNECT", "STOMP" -> {
+          vhost = frame.headers().getOrDefault("host", "/");
+          write("CONNECTED", Map.of("version", "1.2", "heart-beat", "0,0"), null);
+        }
+        case "SUBSCRIBE" -> {
+          String id = frame.headers().get("id");
+          String destination = frame.headers().get("destination");
+          destinationsById.put(id, destination);
+          subscriptions
+            .computeIfAbsent(vhost + "|" + destination, key -> new CopyOnWriteArrayList<>())
+            .add(new Subscription(this, id));
+        }
+        case "UNSUBSCRIBE" -> unsubscribe(frame.headers().get("id"));
+        case "SEND" -> {
+          sends.incrementAndGet();
+          deliver(frame);
+        }
+        case "DISCONNECT" -> {
+          receipt(frame);
+          socket.close();
+          return;
+        }
+        default -> {}
+      }
+      receipt(frame);
+    }
+
+    private void deliver(Frame frame) throws IOException {
+      String destination = frame.headers().get("destination");
+      List<Subscription> subscribers = subscriptions.get(vhost + "|" + destination);
+      if (subscribers == null) return;
+
+      for (Subscription subscription : subscribers) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("destination", destination);
+        headers.put("subscription", subscription.id());
+        headers.put("message-id", String.valueOf(messageIds.incrementAndGet()));
+        String contentType = frame.headers().get("content-type");
+        if (contentType != null) headers.put("content-type", contentType);
+        String userId = frame.headers().get("custom-user-id");
+        if (userId != null) headers.put("custom-user-id", userId);
+        String contentEncoding = frame.headers().get("content-encoding");
+        if (contentEncoding != null) headers.put("content-encoding", contentEncoding);
+        String persistedId = frame.headers().get("persisted-id");
+        if (persistedId != null) headers.put("persisted-id", persistedId);
+        try {
+          subscription.connection().write("MESSAGE", headers, frame.body());
+        } catch (IOException e) {
+          // The subscriber's own thread cleans up.
+        }
+      }
+    }
+
+    private void unsubscribe(String id) {
+      String destination = destinationsById.remove(id);
+      if (destination == null) return;
+      List<Subscription> subscribers = subscriptions.get(vhost + "|" + destination);
+      if (subscribers != null) {
+        subscribers.removeIf(s -> s.connection() == this && s.id().equals(id));
+      }
+    }
+
+    private void receipt(Frame frame) throws IOException {
+      String receipt = frame.headers().get("receipt");
+      if (receipt != null) {
+        write("RECEIPT", Map.of("receipt-id", receipt), null);
+      }
+    }
+
+    private void write(String command, Map<String, String> headers, byte[] body)
+      throws IOException {
+      StringBuilder head = new StringBuilder(command).append('\n');
+      headers.forEach((name, value) -> head.append(name).append(':').append(value).append('\n'));
+      if (body != null) {
+        head.append("content-length:").append(body.length).append('\n');
+      }
+      head.append('\n');
+
+      writeLock.lock();
+      try {
+        out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        if (body != null) out.write(body);
+        out.write(0);
+        out.flush();
+      } finally {
+        writeLock.unlock();
+      }
+    }
+
+    private Frame readFrame() throws IOException {
+      int b;
+      do {
+        b = in.read();
+        if (b == -1) return null;
+      } while (b == '\n' || b == '\r');
+
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      line.write(b);
+      String command = readLine(line);
+      Map<String, String> headers = new LinkedHashMap<>();
+      while (true) {
+        String header = readLine(new ByteArrayOutputStream());
+        if (header.isEmpty()) break;
+        int colon = header.indexOf(':');
+        if (colon > 0) {
+          headers.putIfAbsent(header.substring(0, colon), header.substring(colon + 1));
+        }
+      }
+
+      byte[] body;
+      String contentLength = headers.get("content-length");
+      if (contentLength != null) {
+        body = in.readNBytes(Integer.parseInt(contentLength));
+        if (in.read() != 0) throw new IOException("Missing frame terminator");
+      } else {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        while ((b = in.read()) > 0) bytes.write(b);
+        if (b == -1) return null;
+        body = bytes.toByteArray();
+      }
+      return new Frame(command, headers, body);
+    }
+
+    private String readLine(ByteArrayOutputStream line) throws IOException {
+      int b;
+      while ((b = in.read()) != '\n') {
+        if (b == -1) throw new IOException("Connection closed");
+        line.write(b);
+      }
+      String value = line.toString(StandardCharsets.UTF_8);
+      return value.endsWith("\r") ? value.substring(0, value.length() - 1) : value;
+    }
+  }
+
+  private record Frame(String command, Map<String, String> headers, byte[] body) {}
+}
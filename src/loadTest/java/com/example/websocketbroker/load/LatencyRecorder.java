@@ -0,0 +1,75 @@
+package com.example.websocketbroker.load;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects latency samples from many threads and computes percentiles
+ * over all of them. Every sample is kept, which is fine for the few
+ * million messages of a load test run.
+ *
+ * @author Tobias Andraschko
+ */
+public class LatencyRecorder {
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private long[] samples = new long[1 << 16];
+  private int count;
+
+  /**
+   * Records a sample.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    lock.lock();
+    try {
+      if (count == samples.length) {
+        samples = Arrays.copyOf(samples, samples.length * 2);
+      }
+      samples[count++] = nanos;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of recorded samples.
+   *
+   * @return the sample count
+   */
+  public int count() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Computes the given percentiles of all recorded samples.
+   *
+   * @param percentiles the percentiles, between 0 and 100
+   * @return the latency in nanoseconds at each percentile, zero if there
+   *         are no samples
+   */
+  public long[] percentiles(double... percentiles) {
+    long[] sorted;
+    lock.lock();
+    try {
+      sorted = Arrays.copyOf(samples, count);
+    } finally {
+      lock.unlock();
+    }
+    Arrays.sort(sorted);
+
+    long[] values = new long[percentiles.length];
+    if (sorted.length == 0) return values;
+    for (int i = 0; i < percentiles.length; i++) {
+      int rank = (int) Math.ceil(percentiles[i] / 100 * sorted.length) - 1;
+      values[i] = sorted[Math.clamp(rank, 0, sorted.length - 1)];
+    }
+    return values;
+  }
+}
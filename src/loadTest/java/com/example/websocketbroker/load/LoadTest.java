@@ -0,0 +1,327 @@
+package com.example.websocketbroker.load;
+
+import com.example.websocketbroker.WebSocketBrokerApplication;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+/**
+ * End-to-end load test of the message pipeline, from the STOMP client
+ * through {@code WebSocketController}, Redis and the broker connection
+ * back to the subscribed clients. It runs fully offline: the application
+ * is booted in-process against a {@link FakeStompBroker} and a
+ * {@link FakeRedisServer}.
+ * <p>
+ * N tenants with M clients each subscribe to a topic and together send
+ * messages at a fixed rate. Every message carries its intended send
+ * time, and its latency is measured when it comes back to the sender
+ * through the broker. Measuring from the intended rather than the actual
+ * send time keeps a stalled sender from hiding latency.
+ * <p>
+ * Options, all in {@code --name=value} form:
+ * <ul>
+ *   <li>{@code tenants} (2), {@code clients} per tenant (10)</li>
+ *   <li>{@code rate} in messages per second over all clients (1000)</li>
+ *   <li>{@code warmup} and {@code duration} in seconds (5, 30)</li>
+ *   <li>{@code message-size} in bytes (64), {@code topic} (chat)</li>
+ *   <li>{@code redis-nodes} (1), more than one spreads the tenants across
+ *       as many Redis stand-ins</li>
+ * </ul>
+ * Any other option is passed to the application as a property, e.g.
+ * {@code --redis.persistence.mode=BATCHED}.
+ *
+ * @author Tobias Andraschko
+ */
+public final class LoadTest {
+
+  private static final long DRAIN_MILLIS = 2000;
+
+  private final int tenants;
+  private final int clientsPerTenant;
+  private final int rate;
+  private final long warmupNanos;
+  private final long durationNanos;
+  private final int messageSize;
+  private final String topic;
+  private final int redisNodes;
+
+  private final LatencyRecorder latencies = new LatencyRecorder();
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder received = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private volatile long measureStart = Long.MAX_VALUE;
+  private volatile long measureEnd = Long.MAX_VALUE;
+
+  private LoadTest(Map<String, String> options) {
+    this.tenants = Integer.parseInt(options.getOrDefault("tenants", "2"));
+    this.clientsPerTenant = Integer.parseInt(options.getOrDefault("clients", "10"));
+    this.rate = Integer.parseInt(options.getOrDefault("rate", "1000"));
+    this.warmupNanos =
+      TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "5")));
+    this.durationNanos =
+      TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+    this.messageSize = Integer.parseInt(options.getOrDefault("message-size", "64"));
+    this.topic = options.getOrDefault("topic", "chat");
+    this.redisNodes = Integer.parseInt(options.getOrDefault("redis-nodes", "1"));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Expected --name=value, got " + arg);
+      }
+      int separator = arg.indexOf('=');
+      options.put(arg.substring(2, separator), arg.substring(separator + 1));
+    }
+
+    LoadTest loadTest = new LoadTest(options);
+    options
+      .keySet()
+      .removeAll(
+        List.of(
+          "tenants",
+          "clients",
+          "rate",
+          "warmup",
+          "duration",
+          "message-size",
+          "topic",
+          "redis-nodes"
+        )
+      );
+
+    List<FakeRedisServer> redis = new ArrayList<>();
+    try (FakeStompBroker broker = new FakeStompBroker()) {
+      for (int i = 0; i < loadTest.redisNodes; i++) {
+        redis.add(new FakeRedisServer());
+      }
+      ConfigurableApplicationContext application = loadTest.startApplication(
+        broker,
+        redis,
+        options
+      );
+      try {
+        loadTest.run(application.getEnvironment().getProperty("local.server.port"));
+        System.out.printf(
+          "Broker SEND frames: %d, Redis values pushed: %s%n",
+          broker.sends(),
+          redis.stream().map(node -> String.valueOf(node.pushedValues())).toList()
+        );
+      } finally {
+        application.close();
+      }
+    } finally {
+      for (FakeRedisServer node : redis) {
+        node.close();
+      }
+    }
+    System.exit(0);
+  }
+
+  private ConfigurableApplicationContext startApplication(
+    FakeStompBroker broker,
+    List<FakeRedisServer> redis,
+    Map<String, String> overrides
+  ) {
+    Map<String, Object> properties = new LinkedHashMap<>();
+    properties.put("server.port", 0);
+    properties.put("spring.redis.host", "127.0.0.1");
+    properties.put("spring.redis.port", redis.get(0).port());
+    if (redis.size() > 1) {
+      for (int i = 0; i < redis.size(); i++) {
+        properties.put("redis.shards.nodes.node" + i + ".host", "127.0.0.1");
+        properties.put("redis.shards.nodes.node" + i + ".port", redis.get(i).port());
+      }
+    }
+    properties.put("websocket.relay.host", "127.0.0.1");
+    properties.put("websocket.relay.port", broker.port());
+    properties.put("websocket.allowed.origins", "*");
+    properties.put("tenants.in-memory", String.join(",", tenantNames()));
+    properties.put("logging.level.com.example.websocketbroker", "WARN");
+    properties.put("logging.level.org.springframework.web.socket", "WARN");
+    properties.putAll(overrides);
+
+    return new SpringApplicationBuilder(WebSocketBrokerApplication.class)
+      .properties(properties)
+      .run();
+  }
+
+  private void run(String port) throws Exception {
+    ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    scheduler.setThreadNamePrefix("load-client-");
+    scheduler.initialize();
+    WebSocketStompClient stompClient = new WebSocketStompClient(
+      new StandardWebSocketClient()
+    );
+    stompClient.setMessageConverter(new StringMessageConverter());
+    stompClient.setTaskScheduler(scheduler);
+    stompClient.setDefaultHeartbeat(new long[] { 0, 0 });
+
+    String url = "ws://127.0.0.1:" + port + "/ws/websocket";
+    List<String> tenantNames = tenantNames();
+    List<StompSession> sessions = new ArrayList<>();
+    for (int t = 0; t < tenants; t++) {
+      List<CompletableFuture<StompSession>> connecting = new ArrayList<>();
+      for (int c = 0; c < clientsPerTenant; c++) {
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("authorization", "Bearer " + tenantNames.get(t));
+        connecting.add(
+          stompClient.connectAsync(
+            url,
+            new WebSocketHttpHeaders(),
+            connectHeaders,
+            new StompSessionHandlerAdapter() {}
+          )
+        );
+      }
+      for (CompletableFuture<StompSession> session : connecting) {
+        sessions.add(session.get(30, TimeUnit.SECONDS));
+      }
+    }
+
+    CountDownLatch subscribed = new CountDownLatch(sessions.size());
+    for (int i = 0; i < sessions.size(); i++) {
+      StompSession session = sessions.get(i);
+      session.setAutoReceipt(true);
+      session
+        .subscribe("/topic/" + topic, new EchoHandler(i))
+        .addReceiptTask(subscribed::countDown);
+    }
+    if (!subscribed.await(30, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("Subscriptions weren't confirmed");
+    }
+    System.out.printf(
+      "Connected %d tenants x %d clients, sending %d msg/s to /topic/%s%n",
+      tenants,
+      clientsPerTenant,
+      rate,
+      topic
+    );
+
+    long start = System.nanoTime();
+    measureStart = start + warmupNanos;
+    measureEnd = measureStart + durationNanos;
+    long intervalNanos = TimeUnit.SECONDS.toNanos(1) * sessions.size() / rate;
+
+    List<Thread> senders = new ArrayList<>();
+    for (int i = 0; i < sessions.size(); i++) {
+      int client = i;
+      StompSession session = sessions.get(i);
+      // Spread the clients' first sends across one interval.
+      long first = start + intervalNanos * i / sessions.size();
+      senders.add(
+        Thread.ofVirtual().start(() -> send(session, client, first, intervalNanos))
+      );
+    }
+    for (Thread sender : senders) {
+      sender.join();
+    }
+    Thread.sleep(DRAIN_MILLIS);
+
+    report();
+    sessions.forEach(StompSession::disconnect);
+    stompClient.stop();
+    scheduler.shutdown();
+  }
+
+  private void send(StompSession session, int client, long first, long intervalNanos) {
+    String padding = "x".repeat(Math.max(0, messageSize - 24));
+    StompHeaders headers = new StompHeaders();
+    headers.setDestination("/app/send/" + topic);
+    headers.add("custom-user-id", "load-user-" + client);
+
+    for (long intended = first; intended < measureEnd; intended += intervalNanos) {
+      long wait = intended - System.nanoTime();
+      if (wait > 0) LockSupport.parkNanos(wait);
+      try {
+        session.send(headers, client + ":" + intended + ":" + padding);
+        if (intended >= measureStart) sent.increment();
+      } catch (RuntimeException e) {
+        rejected.increment();
+      }
+    }
+  }
+
+  private void report() {
+    double seconds = durationNanos / 1e9;
+    long[] percentiles = latencies.percentiles(50, 99, 99.9, 100);
+    long sentCount = sent.sum();
+    long receivedCount = received.sum();
+
+    System.out.printf(
+      "Sent: %d (%.0f msg/s), received: %d (%.0f msg/s), missing: %d, send errors: %d%n",
+      sentCount,
+      sentCount / seconds,
+      receivedCount,
+      receivedCount / seconds,
+      Math.max(0, sentCount - receivedCount),
+      rejected.sum()
+    );
+    System.out.printf(
+      "Latency ms: p50 %.3f, p99 %.3f, p999 %.3f, max %.3f%n",
+      percentiles[0] / 1e6,
+      percentiles[1] / 1e6,
+      percentiles[2] / 1e6,
+      percentiles[3] / 1e6
+    );
+  }
+
+  private List<String> tenantNames() {
+    return IntStream
+      .rangeClosed(1, tenants)
+      .mapToObj(i -> "load-tenant-" + i)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Measures the latency of the client's own messages coming back.
+   */
+  private final class EchoHandler implements StompFrameHandler {
+
+    private final String prefix;
+
+    private EchoHandler(int client) {
+      this.prefix = client + ":";
+    }
+
+    @Override
+    public Type getPayloadType(StompHeaders headers) {
+      return String.class;
+    }
+
+    @Override
+    public void handleFrame(StompHeaders headers, Object payload) {
+      long now = System.nanoTime();
+      String body = (String) payload;
+      if (!body.startsWith(prefix)) return;
+
+      int end = body.indexOf(':', prefix.length());
+      long intended = Long.parseLong(body.substring(prefix.length(), end));
+      if (intended >= measureStart && intended < measureEnd) {
+        received.increment();
+        latencies.record(now - intended);
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.example.websocketbroker.codec;
+
+import com.example.websocketbroker.model.MessageData;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Stores messages in a compact binary format:
+ * <pre>
+ * marker     1 byte   0x00, which never starts a JSON entry
+ * version    1 byte   currently 2
+ * id         8 bytes  the message id, big endian
+ * timestamp  8 bytes  epoch milliseconds, big endian
+ * user id    varint length + 1 (0 for none), then UTF-8 bytes
+ * body       varint length, then UTF-8 bytes
+ * </pre>
+ * Compared to JSON this drops the repeated field names and the ISO
+ * timestamp, and avoids the object mapping. Timestamps are stored with
+ * millisecond precision. Messages of version 1, which had no id, are
+ * still read.
+ *
+ * @author Tobias Andraschko
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+  static final byte MARKER = 0x00;
+  static final byte VERSION = 2;
+  static final byte VERSION_WITHOUT_ID = 1;
+
+  private static final int FIXED_LENGTH = 2 + 2 * Long.BYTES;
+
+  /**
+   * Checks whether a stored value was written by this codec.
+   *
+   * @param value the stored value
+   * @return true if the value is in the binary format
+   */
+  public static boolean isBinary(byte[] value) {
+    return value.length > 0 && value[0] == MARKER;
+  }
+
+  @Override
+  public MessageFormat format() {
+    return MessageFormat.BINARY;
+  }
+
+  @Override
+  public byte[] encode(
+    long id,
+    long timestampMillis,
+    String customUserId,
+    String message
+  ) {
+    byte[] userId = customUserId != null
+      ? customUserId.getBytes(StandardCharsets.UTF_8)
+      : null;
+    byte[] body = message.getBytes(StandardCharsets.UTF_8);
+    int userIdPrefix = userId != null ? userId.length + 1 : 0;
+
+    ByteBuffer out = ByteBuffer.allocate(
+      FIXED_LENGTH +
+      varIntLength(userIdPrefix) +
+      (userId != null ? userId.length : 0) +
+      varIntLength(body.length) +
+      body.length
+    );
+    out.put(MARKER).put(VERSION).putLong(id).putLong(timestampMillis);
+    putVarInt(out, userIdPrefix);
+    if (userId != null) out.put(userId);
+    putVarInt(out, body.length);
+    out.put(body);
+    return out.array();
+  }
+
+  @Override
+  public MessageData decode(byte[] value) throws IOException {
+    if (!isBinary(value) || value.length < 2) {
+      throw new IOException("Not a binary message");
+    }
+    if (value[1] != VERSION && value[1] != VERSION_WITHOUT_ID) {
+      throw new IOException("Unsupported binary message version " + value[1]);
+    }
+
+    try {
+      ByteBuffer in = ByteBuffer.wrap(value, 2, value.length - 2);
+      Long id = value[1] == VERSION ? in.getLong() : null;
+      long timestampMillis = in.getLong();
+      int userIdPrefix = getVarInt(in);
+      String customUserId = userIdPrefix > 0 ? getString(in, userIdPrefix - 1) : null;
+      String message = getString(in, getVarInt(in));
+
+      MessageData messageData = new MessageData();
+      messageData.setId(id);
+      messageData.setTimestamp(
+        LocalDateTime.ofInstant(
+          Instant.ofEpochMilli(timestampMillis),
+          ZoneId.systemDefault()
+        )
+      );
+      messageData.setCustomUserId(customUserId);
+      messageData.setMessage(message);
+      return messageData;
+    } catch (RuntimeException e) {
+      throw new IOException("Truncated binary message", e);
+    }
+  }
+
+  private static String getString(ByteBuffer in, int length) {
+    String value = new String(
+      in.array(),
+      in.arrayOffset() + in.position(),
+      length,
+      StandardCharsets.UTF_8
+    );
+    in.position(in.position() + length);
+    return value;
+  }
+
+  private static int varIntLength(int value) {
+    int length = 1;
+    while ((value >>>= 7) != 0) length++;
+    return length;
+  }
+
+  private static void putVarInt(ByteBuffer out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  private static int getVarInt(ByteBuffer in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) return value;
+    }
+    throw new IOException("Malformed length in binary message");
+  }
+}
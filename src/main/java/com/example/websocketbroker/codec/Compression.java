@@ -0,0 +1,147 @@
+package com.example.websocketbroker.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The algorithms payloads can be compressed with. Each has an id stored
+ * in front of compressed Redis values and a name used as the
+ * {@code content-encoding} header of compressed STOMP bodies, so readers
+ * can tell how to decompress them.
+ *
+ * @author Tobias Andraschko
+ */
+public enum Compression {
+  /**
+   * Payloads are left as they are.
+   */
+  NONE((byte) 0, null),
+  /**
+   * Deflate in the zlib format, as the JDK implements it.
+   */
+  DEFLATE((byte) 1, "deflate");
+
+  private final byte id;
+  private final String contentEncoding;
+
+  Compression(byte id, String contentEncoding) {
+    this.id = id;
+    this.contentEncoding = contentEncoding;
+  }
+
+  /**
+   * Returns the id stored in front of compressed values.
+   *
+   * @return the id
+   */
+  public byte id() {
+    return id;
+  }
+
+  /**
+   * Returns the content encoding of compressed STOMP bodies.
+   *
+   * @return the content encoding, or null for {@link #NONE}
+   */
+  public String contentEncoding() {
+    return contentEncoding;
+  }
+
+  /**
+   * Compresses data.
+   *
+   * @param data the data to compress
+   * @param level the compression level, from 1 (fastest) to 9 (smallest)
+   * @return the compressed data
+   */
+  public byte[] compress(byte[] data, int level) {
+    if (this == NONE) return data;
+
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+      byte[] chunk = new byte[Math.min(data.length + 16, 8192)];
+      while (!deflater.finished()) {
+        out.write(chunk, 0, deflater.deflate(chunk));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Decompresses data.
+   *
+   * @param data the array holding the compressed data
+   * @param offset the start of the compressed data
+   * @param length the length of the compressed data
+   * @param maxLength the maximum decompressed length
+   * @return the decompressed data
+   * @throws IOException if the data is corrupt or decompresses to more
+   *         than the maximum length
+   */
+  public byte[] decompress(byte[] data, int offset, int length, int maxLength)
+    throws IOException {
+    if (this == NONE) return Arrays.copyOfRange(data, offset, offset + length);
+
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data, offset, length);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+      byte[] chunk = new byte[8192];
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(chunk);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated " + name().toLowerCase() + " data");
+        }
+        if (out.size() + inflated > maxLength) {
+          throw new IOException("Decompressed data exceeds " + maxLength + " bytes");
+        }
+        out.write(chunk, 0, inflated);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt " + name().toLowerCase() + " data", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Looks up an algorithm by the id stored in front of a value.
+   *
+   * @param id the stored id
+   * @return the algorithm
+   * @throws IOException if the id is unknown
+   */
+  public static Compression byId(byte id) throws IOException {
+    for (Compression compression : values()) {
+      if (compression.id == id) return compression;
+    }
+    throw new IOException("Unknown compression " + id);
+  }
+
+  /**
+   * Looks up an algorithm by the content encoding of a STOMP body.
+   *
+   * @param contentEncoding the content-encoding header
+   * @return the algorithm
+   * @throws IOException if the content encoding is unknown
+   */
+  public static Compression forContentEncoding(String contentEncoding)
+    throws IOException {
+    for (Compression compression : values()) {
+      if (contentEncoding.equalsIgnoreCase(compression.contentEncoding)) {
+        return compression;
+      }
+    }
+    throw new IOException("Unknown content encoding " + contentEncoding);
+  }
+}
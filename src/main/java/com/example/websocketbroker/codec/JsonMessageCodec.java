@@ -0,0 +1,63 @@
+package com.example.websocketbroker.codec;
+
+import com.example.websocketbroker.model.MessageData;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Stores messages as the JSON representation of {@link MessageData},
+ * the format used before the codecs were introduced.
+ *
+ * @author Tobias Andraschko
+ */
+public class JsonMessageCodec implements MessageCodec {
+
+  private final ObjectMapper objectMapper;
+
+  /**
+   * Creates the codec.
+   *
+   * @param objectMapper the mapper configured for {@link LocalDateTime}s
+   */
+  public JsonMessageCodec(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  public MessageFormat format() {
+    return MessageFormat.JSON;
+  }
+
+  @Override
+  public byte[] encode(
+    long id,
+    long timestampMillis,
+    String customUserId,
+    String message
+  ) {
+    MessageData messageData = new MessageData();
+    messageData.setId(id);
+    messageData.setTimestamp(
+      LocalDateTime.ofInstant(
+        Instant.ofEpochMilli(timestampMillis),
+        ZoneId.systemDefault()
+      )
+    );
+    messageData.setMessage(message);
+    messageData.setCustomUserId(customUserId);
+    try {
+      return objectMapper.writeValueAsBytes(messageData);
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException("Error serializing message data", e);
+    }
+  }
+
+  @Override
+  public MessageData decode(byte[] value) throws IOException {
+    return objectMapper.readValue(value, MessageData.class);
+  }
+}
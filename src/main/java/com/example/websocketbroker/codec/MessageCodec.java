@@ -0,0 +1,39 @@
+package com.example.websocketbroker.codec;
+
+import com.example.websocketbroker.model.MessageData;
+import java.io.IOException;
+
+/**
+ * Converts persisted messages to and from the bytes stored in Redis.
+ *
+ * @author Tobias Andraschko
+ */
+public interface MessageCodec {
+  /**
+   * Returns the format this codec writes.
+   *
+   * @return the format
+   */
+  MessageFormat format();
+
+  /**
+   * Encodes a message.
+   *
+   * @param id the id of the message
+   * @param timestampMillis the time the message was received, in epoch
+   *        milliseconds
+   * @param customUserId the custom user identifier, may be null
+   * @param message the message content
+   * @return the encoded message
+   */
+  byte[] encode(long id, long timestampMillis, String customUserId, String message);
+
+  /**
+   * Decodes a message written by this codec.
+   *
+   * @param value the encoded message
+   * @return the decoded message
+   * @throws IOException if the value can't be decoded
+   */
+  MessageData decode(byte[] value) throws IOException;
+}
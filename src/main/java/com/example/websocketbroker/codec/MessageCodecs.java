@@ -0,0 +1,115 @@
+package com.example.websocketbroker.codec;
+
+import com.example.websocketbroker.config.CodecProperties;
+import com.example.websocketbroker.config.CompressionProperties;
+import com.example.websocketbroker.model.MessageData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * Selects the codec persisted messages are written with, per tenant as
+ * configured in {@link CodecProperties}, and decodes stored messages of
+ * any format. Values are told apart by their first byte, so lists mixing
+ * JSON and binary entries (e.g. after switching a tenant's format) stay
+ * readable.
+ * <p>
+ * Values reaching the tenant's compression threshold are compressed by
+ * its {@link PayloadCompressor} after encoding. Compressed values are
+ * recognized by their first byte as well and decompressed before
+ * decoding.
+ *
+ * @author Tobias Andraschko
+ */
+@Component
+public class MessageCodecs {
+
+  private record CompressingCodec(MessageCodec codec, PayloadCompressor compressor)
+    implements MessageCodec {
+    @Override
+    public MessageFormat format() {
+      return codec.format();
+    }
+
+    @Override
+    public byte[] encode(
+      long id,
+      long timestampMillis,
+      String customUserId,
+      String message
+    ) {
+      return compressor.compressValue(codec.encode(id, timestampMillis, customUserId, message));
+    }
+
+    @Override
+    public MessageData decode(byte[] value) throws IOException {
+      return codec.decode(PayloadCompressor.decompressValue(value));
+    }
+  }
+
+  private final CodecProperties properties;
+  private final CompressionProperties compressionProperties;
+  private final JsonMessageCodec jsonCodec;
+  private final BinaryMessageCodec binaryCodec = new BinaryMessageCodec();
+  private final Map<String, MessageCodec> codecByTenant = new ConcurrentHashMap<>();
+
+  /**
+   * Creates the codecs.
+   *
+   * @param properties the configured formats
+   * @param compressionProperties the configured compression
+   * @param objectMapper the mapper of the JSON codec
+   */
+  public MessageCodecs(
+    CodecProperties properties,
+    CompressionProperties compressionProperties,
+    ObjectMapper objectMapper
+  ) {
+    this.properties = properties;
+    this.compressionProperties = compressionProperties;
+    this.jsonCodec = new JsonMessageCodec(objectMapper);
+  }
+
+  /**
+   * Returns the codec new messages of a tenant are written with.
+   *
+   * @param tenant the tenant identifier
+   * @return the tenant's codec
+   */
+  public MessageCodec forTenant(String tenant) {
+    return codecByTenant.computeIfAbsent(
+      tenant,
+      t -> {
+        MessageCodec codec = codec(
+          properties.getTenants().getOrDefault(t, properties.getDefaultFormat())
+        );
+        PayloadCompressor compressor = compressionProperties.compressorFor(t);
+        return compressor.isEnabled() ? new CompressingCodec(codec, compressor) : codec;
+      }
+    );
+  }
+
+  /**
+   * Decodes a stored message, whichever format it was written in and
+   * whether or not it has been compressed.
+   *
+   * @param value the stored value
+   * @return the decoded message
+   * @throws IOException if the value can't be decoded
+   */
+  public MessageData decode(byte[] value) throws IOException {
+    value = PayloadCompressor.decompressValue(value);
+    return BinaryMessageCodec.isBinary(value)
+      ? binaryCodec.decode(value)
+      : jsonCodec.decode(value);
+  }
+
+  private MessageCodec codec(MessageFormat format) {
+    return switch (format) {
+      case JSON -> jsonCodec;
+      case BINARY -> binaryCodec;
+    };
+  }
+}
@@ -0,0 +1,17 @@
+package com.example.websocketbroker.codec;
+
+/**
+ * The formats persisted messages can be stored in.
+ *
+ * @author Tobias Andraschko
+ */
+public enum MessageFormat {
+  /**
+   * The original JSON representation of {@code MessageData}.
+   */
+  JSON,
+  /**
+   * The compact binary format of {@link BinaryMessageCodec}.
+   */
+  BINARY,
+}
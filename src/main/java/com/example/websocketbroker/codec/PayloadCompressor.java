@@ -0,0 +1,129 @@
+package com.example.websocketbroker.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compresses the payloads of one tenant above a size threshold, both the
+ * values persisted in Redis and the bodies of STOMP SEND frames. A payload
+ * is only replaced by its compressed form if that is actually smaller.
+ * <p>
+ * Compressed Redis values are framed as:
+ * <pre>
+ * marker     1 byte   0x01, which starts neither a JSON nor a binary entry
+ * algorithm  1 byte   the {@link Compression} id
+ * data       the compressed value of any {@link MessageFormat}
+ * </pre>
+ * Compressed STOMP bodies carry the algorithm in the {@code content-encoding}
+ * header instead. Decompression doesn't depend on the configuration, so
+ * data written with any setting stays readable.
+ *
+ * @param compression the algorithm, {@link Compression#NONE} to disable
+ * @param threshold the payload size in bytes from which it is compressed
+ * @param level the compression level, from 1 (fastest) to 9 (smallest)
+ * @author Tobias Andraschko
+ */
+public record PayloadCompressor(Compression compression, int threshold, int level) {
+  /**
+   * Leaves all payloads uncompressed.
+   */
+  public static final PayloadCompressor NONE = new PayloadCompressor(
+    Compression.NONE,
+    Integer.MAX_VALUE,
+    0
+  );
+
+  static final byte MARKER = 0x01;
+
+  /**
+   * The maximum size payloads are decompressed to.
+   */
+  public static final int MAX_DECOMPRESSED_LENGTH = 16 * 1024 * 1024;
+
+  /**
+   * Checks whether this compressor compresses anything.
+   *
+   * @return true unless the algorithm is {@link Compression#NONE}
+   */
+  public boolean isEnabled() {
+    return compression != Compression.NONE;
+  }
+
+  /**
+   * Compresses an encoded Redis value if it reaches the threshold.
+   *
+   * @param value the encoded value
+   * @return the framed compressed value, or the value itself
+   */
+  public byte[] compressValue(byte[] value) {
+    if (!isEnabled() || value.length < threshold) return value;
+
+    byte[] compressed = compression.compress(value, level);
+    if (compressed.length + 2 >= value.length) return value;
+
+    byte[] framed = new byte[compressed.length + 2];
+    framed[0] = MARKER;
+    framed[1] = compression.id();
+    System.arraycopy(compressed, 0, framed, 2, compressed.length);
+    return framed;
+  }
+
+  /**
+   * Compresses a STOMP body if it reaches the threshold.
+   *
+   * @param body the message body
+   * @return the compressed UTF-8 body, or null if it stays uncompressed
+   */
+  public byte[] compressBody(String body) {
+    // A string has at least as many UTF-8 bytes as chars.
+    if (!isEnabled() || body.length() < threshold) return null;
+
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    byte[] compressed = compression.compress(bytes, level);
+    return compressed.length < bytes.length ? compressed : null;
+  }
+
+  /**
+   * Checks whether a stored value has been compressed.
+   *
+   * @param value the stored value
+   * @return true if the value is compressed
+   */
+  public static boolean isCompressed(byte[] value) {
+    return value.length > 1 && value[0] == MARKER;
+  }
+
+  /**
+   * Decompresses a stored value if it has been compressed.
+   *
+   * @param value the stored value
+   * @return the encoded value
+   * @throws IOException if the value can't be decompressed
+   */
+  public static byte[] decompressValue(byte[] value) throws IOException {
+    if (!isCompressed(value)) return value;
+    return Compression
+      .byId(value[1])
+      .decompress(value, 2, value.length - 2, MAX_DECOMPRESSED_LENGTH);
+  }
+
+  /**
+   * Decompresses a STOMP body.
+   *
+   * @param contentEncoding the body's content-encoding header
+   * @param body the compressed body
+   * @return the decompressed body
+   * @throws IOException if the body can't be decompressed
+   */
+  public static ByteBuffer decompressBody(String contentEncoding, ByteBuffer body)
+    throws IOException {
+    byte[] bytes = new byte[body.remaining()];
+    body.duplicate().get(bytes);
+    return ByteBuffer.wrap(
+      Compression
+        .forContentEncoding(contentEncoding)
+        .decompress(bytes, 0, bytes.length, MAX_DECOMPRESSED_LENGTH)
+    );
+  }
+}
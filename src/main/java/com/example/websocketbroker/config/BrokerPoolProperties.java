@@ -0,0 +1,32 @@
+package com.example.websocketbroker.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Sizes of the per-tenant broker connection pools. Every tenant gets
+ * {@code connectionsPerTenant} connections unless it has its own size
+ * under {@code tenants}, which lets large tenants use more sockets than
+ * small ones.
+ *
+ * @author Tobias Andraschko
+ */
+@Data
+@ConfigurationProperties(prefix = "websocket.relay.pool")
+public class BrokerPoolProperties {
+
+  private int connectionsPerTenant = 1;
+  private Map<String, Integer> tenants = new HashMap<>();
+
+  /**
+   * Returns the number of broker connections for a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the pool size of the tenant
+   */
+  public int poolSizeFor(String tenant) {
+    return tenants.getOrDefault(tenant, connectionsPerTenant);
+  }
+}
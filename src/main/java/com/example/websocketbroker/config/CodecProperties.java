@@ -0,0 +1,22 @@
+package com.example.websocketbroker.config;
+
+import com.example.websocketbroker.codec.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The format persisted messages are written in, by default and per
+ * tenant. Changing it only affects new messages; stored messages of
+ * either format stay readable.
+ *
+ * @author Tobias Andraschko
+ */
+@Data
+@ConfigurationProperties(prefix = "redis.codec")
+public class CodecProperties {
+
+  private MessageFormat defaultFormat = MessageFormat.JSON;
+  private Map<String, MessageFormat> tenants = new HashMap<>();
+}
@@ -0,0 +1,40 @@
+package com.example.websocketbroker.config;
+
+import com.example.websocketbroker.codec.Compression;
+import com.example.websocketbroker.codec.PayloadCompressor;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Compression of large payloads, by default and per tenant. It always
+ * applies to the values persisted in Redis, and with {@code broker} set
+ * also to the bodies of the SEND frames to the broker. Changing it only
+ * affects new payloads; compressed and uncompressed ones stay readable.
+ *
+ * @author Tobias Andraschko
+ */
+@Data
+@ConfigurationProperties(prefix = "compression")
+public class CompressionProperties {
+
+  private Compression algorithm = Compression.NONE;
+  private Map<String, Compression> tenants = new HashMap<>();
+  private int threshold = 1024;
+  private int level = 6;
+  private boolean broker;
+
+  /**
+   * Returns the compressor of a tenant's payloads.
+   *
+   * @param tenant the tenant identifier
+   * @return the tenant's compressor
+   */
+  public PayloadCompressor compressorFor(String tenant) {
+    Compression compression = tenants.getOrDefault(tenant, algorithm);
+    return compression == Compression.NONE
+      ? PayloadCompressor.NONE
+      : new PayloadCompressor(compression, threshold, level);
+  }
+}
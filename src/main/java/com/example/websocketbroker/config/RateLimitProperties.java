@@ -0,0 +1,77 @@
+package com.example.websocketbroker.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Rate limits of the messages clients send. Every tenant has a limit for
+ * all of its messages and one for the messages of each of its users. A
+ * tenant can override either of the defaults under {@code tenants}; an
+ * unset limit is inherited from the defaults.
+ *
+ * @author Tobias Andraschko
+ */
+@Data
+@ConfigurationProperties(prefix = "rate-limit")
+public class RateLimitProperties {
+
+  private Limits defaults = new Limits();
+  private Map<String, Limits> tenants = new HashMap<>();
+
+  /**
+   * The limits of a tenant and of each of its users.
+   */
+  @Data
+  public static class Limits {
+
+    private Limit tenant;
+    private Limit user;
+  }
+
+  /**
+   * A token bucket limit. A rate of zero means unlimited.
+   */
+  @Data
+  public static class Limit {
+
+    private double rate;
+    private int burst;
+
+    /**
+     * Checks if the limit restricts anything.
+     *
+     * @return true if the rate is above zero
+     */
+    public boolean isLimited() {
+      return rate > 0;
+    }
+  }
+
+  /**
+   * Returns the limit of all messages of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the limit, or null if there is none
+   */
+  public Limit tenantLimitFor(String tenant) {
+    Limits limits = tenants.get(tenant);
+    return limits != null && limits.getTenant() != null
+      ? limits.getTenant()
+      : defaults.getTenant();
+  }
+
+  /**
+   * Returns the limit of the messages of each user of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the limit, or null if there is none
+   */
+  public Limit userLimitFor(String tenant) {
+    Limits limits = tenants.get(tenant);
+    return limits != null && limits.getUser() != null
+      ? limits.getUser()
+      : defaults.getUser();
+  }
+}
@@ -3,6 +3,7 @@ package com.example.websocketbroker.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
@@ -18,6 +19,14 @@ import org.springframework.data.redis.serializer.StringRedisSerializer;
  * @author Tobias Andraschko
  */
 @Configuration
+@EnableConfigurationProperties(
+  {
+    RetentionProperties.class,
+    CodecProperties.class,
+    CompressionProperties.class,
+    RedisShardProperties.class
+  }
+)
 public class RedisConfig {
 
   /**
@@ -0,0 +1,37 @@
+package com.example.websocketbroker.config;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The Redis nodes the tenants' message lists are spread across. Tenants
+ * are assigned to the nodes by consistent hashing over the node names,
+ * unless they are pinned to a node under {@code pins}, which lets large
+ * tenants have a node of their own. Without nodes, all tenants use the
+ * {@code spring.redis} connection.
+ *
+ * @author Tobias Andraschko
+ */
+@Data
+@ConfigurationProperties(prefix = "redis.shards")
+public class RedisShardProperties {
+
+  private Map<String, Node> nodes = new LinkedHashMap<>();
+  private Map<String, String> pins = new HashMap<>();
+  private int virtualNodes = 160;
+
+  /**
+   * The address of a Redis node. Without a password, the
+   * {@code spring.redis} password is used.
+   */
+  @Data
+  public static class Node {
+
+    private String host = "localhost";
+    private int port = 6379;
+    private String password;
+  }
+}
@@ -0,0 +1,40 @@
+package com.example.websocketbroker.config;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Retention limits for the message lists stored in Redis. Limits can be
+ * overridden per tenant, either for all of its topics (under the topic
+ * name {@code default}) or for a single topic. Unset limits are inherited
+ * field by field from the next broader level.
+ *
+ * @author Tobias Andraschko
+ */
+@Data
+@ConfigurationProperties(prefix = "redis.retention")
+public class RetentionProperties {
+
+  /**
+   * The topic name under which limits for all topics of a tenant are set.
+   */
+  public static final String TENANT_DEFAULT = "default";
+
+  private Limits defaults = new Limits();
+  private Map<String, Map<String, Limits>> tenants = new HashMap<>();
+  private boolean migrateExisting;
+
+  /**
+   * Retention limits of a message list. A count or age of zero means
+   * unlimited, null means inherited.
+   */
+  @Data
+  public static class Limits {
+
+    private Long maxCount;
+    private Duration maxAge;
+  }
+}
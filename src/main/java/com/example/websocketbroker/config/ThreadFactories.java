@@ -0,0 +1,38 @@
+package com.example.websocketbroker.config;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the thread factories of the application's own threads. With
+ * virtual threads, blocking calls such as Redis round trips no longer tie
+ * up one of a few pooled platform threads.
+ *
+ * @author Tobias Andraschko
+ */
+public final class ThreadFactories {
+
+  private ThreadFactories() {}
+
+  /**
+   * Creates a factory for threads named {@code prefix-0}, {@code prefix-1}
+   * and so on. Platform threads are created as daemon threads; virtual
+   * threads always are.
+   *
+   * @param prefix the thread name prefix
+   * @param virtual whether to create virtual threads
+   * @return the thread factory
+   */
+  public static ThreadFactory named(String prefix, boolean virtual) {
+    if (virtual) {
+      return Thread.ofVirtual().name(prefix + "-", 0).factory();
+    }
+
+    AtomicInteger index = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + index.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
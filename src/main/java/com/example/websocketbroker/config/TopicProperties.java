@@ -0,0 +1,34 @@
+package com.example.websocketbroker.config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The topics tenants can send to and receive from on startup. Every tenant
+ * gets the {@code defaults} unless it has its own list under
+ * {@code tenants}. The topics can be changed at runtime through the
+ * {@code TopicRegistry}.
+ *
+ * @author Tobias Andraschko
+ */
+@Data
+@ConfigurationProperties(prefix = "topics")
+public class TopicProperties {
+
+  private List<String> defaults = new ArrayList<>(List.of("news", "alert", "chat"));
+  private Map<String, List<String>> tenants = new HashMap<>();
+
+  /**
+   * Returns the configured topics of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the topics of the tenant
+   */
+  public List<String> topicsFor(String tenant) {
+    return tenants.getOrDefault(tenant, defaults);
+  }
+}
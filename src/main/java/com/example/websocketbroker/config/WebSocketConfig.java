@@ -1,9 +1,15 @@
 package com.example.websocketbroker.config;
 
+import com.example.websocketbroker.interceptors.RateLimitInterceptor;
+import com.example.websocketbroker.interceptors.SessionLimitInterceptor;
 import com.example.websocketbroker.interceptors.TenantInterceptor;
+import com.example.websocketbroker.service.LocalFanOut;
+import com.example.websocketbroker.service.LocalFanOut.FanOutMode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
@@ -14,14 +20,33 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
  * Configuration class for setting up WebSocket message broker in the Spring context.
  * This class enables WebSocket message handling, configures the message broker,
  * and registers STOMP endpoints for client communication.
+ * <p>
+ * With {@code spring.threads.virtual.enabled} the client inbound and
+ * outbound channels dispatch every message on its own virtual thread
+ * instead of the default bounded thread pools, so a blocking Redis write
+ * in a message handler no longer limits how many messages are processed
+ * concurrently.
+ * <p>
+ * With {@code websocket.fan-out} set to {@code LOCAL}, the STOMP broker
+ * relay is replaced by the {@link LocalFanOut}, which serves all sessions
+ * of a tenant through the tenant's single broker connection.
  *
  * @author Tobias Andraschko
  */
 @Configuration
 @EnableWebSocketMessageBroker
+@EnableConfigurationProperties(
+  {
+    BrokerPoolProperties.class,
+    TopicProperties.class,
+    RateLimitProperties.class
+  }
+)
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
   private final TenantInterceptor tenantInterceptor;
+  private final SessionLimitInterceptor sessionLimitInterceptor;
+  private final RateLimitInterceptor rateLimitInterceptor;
 
   @Value("${websocket.relay.host}")
   private String relayHost;
@@ -50,21 +75,40 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
   @Value("${websocket.allowed.origins}")
   private String allowedOrigins;
 
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  @Value("${websocket.fan-out}")
+  private FanOutMode fanOutMode;
+
   @Autowired
-  public WebSocketConfig(TenantInterceptor tenantInterceptor) {
+  public WebSocketConfig(
+    TenantInterceptor tenantInterceptor,
+    SessionLimitInterceptor sessionLimitInterceptor,
+    RateLimitInterceptor rateLimitInterceptor
+  ) {
     this.tenantInterceptor = tenantInterceptor;
+    this.sessionLimitInterceptor = sessionLimitInterceptor;
+    this.rateLimitInterceptor = rateLimitInterceptor;
   }
 
   /**
    * Configures the message broker settings for the WebSocket application.
    * This includes setting the application destination prefixes and enabling
    * the STOMP broker relay with the specified host, port, and credentials.
+   * In local fan-out mode a simple broker takes the relay's place, but only
+   * to answer CONNECT frames (whose destination the TenantInterceptor sets
+   * to /queue/); /topic subscriptions are served by the LocalFanOut.
    *
    * @param config the MessageBrokerRegistry to configure
    */
   @Override
   public void configureMessageBroker(MessageBrokerRegistry config) {
     config.setApplicationDestinationPrefixes("/app");
+    if (fanOutMode == FanOutMode.LOCAL) {
+      config.enableSimpleBroker("/queue");
+      return;
+    }
     config
       .enableStompBrokerRelay("/topic")
       .setRelayHost(relayHost)
@@ -94,12 +138,37 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
   /**
    * Configures the client inbound channel by adding the TenantInterceptor.
    * This interceptor can be used to handle tenant-specific logic for
-   * incoming messages.
+   * incoming messages. The SessionLimitInterceptor and the
+   * RateLimitInterceptor follow it, so they see the tenant of the session.
    *
    * @param registration the ChannelRegistration to configure
    */
   @Override
   public void configureClientInboundChannel(ChannelRegistration registration) {
-    registration.interceptors(tenantInterceptor);
+    registration.interceptors(
+      tenantInterceptor,
+      sessionLimitInterceptor,
+      rateLimitInterceptor
+    );
+    if (virtualThreads) {
+      registration.executor(virtualThreadExecutor("ws-inbound"));
+    }
+  }
+
+  /**
+   * Configures the client outbound channel to use virtual threads if they
+   * are enabled.
+   *
+   * @param registration the ChannelRegistration to configure
+   */
+  @Override
+  public void configureClientOutboundChannel(ChannelRegistration registration) {
+    if (virtualThreads) {
+      registration.executor(virtualThreadExecutor("ws-outbound"));
+    }
+  }
+
+  private SimpleAsyncTaskExecutor virtualThreadExecutor(String name) {
+    return new SimpleAsyncTaskExecutor(ThreadFactories.named(name, true));
   }
 }
@@ -0,0 +1,35 @@
+package com.example.websocketbroker.controller;
+
+import com.example.websocketbroker.service.SubscriptionIndex;
+import com.example.websocketbroker.service.SubscriptionIndex.Presence;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint for reading how many sessions of a tenant are
+ * connected to this instance and how many subscriptions each of its
+ * topics has, e.g. {@code GET /actuator/presence/tenant1}.
+ *
+ * @author Tobias Andraschko
+ */
+@Component
+@Endpoint(id = "presence")
+@RequiredArgsConstructor
+public class PresenceEndpoint {
+
+  private final SubscriptionIndex subscriptionIndex;
+
+  /**
+   * Returns the presence of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the tenant's sessions and subscriptions by topic
+   */
+  @ReadOperation
+  public Presence presence(@Selector String tenant) {
+    return subscriptionIndex.presence(tenant);
+  }
+}
@@ -0,0 +1,50 @@
+package com.example.websocketbroker.controller;
+
+import com.example.websocketbroker.service.RedisManager;
+import com.example.websocketbroker.service.RedisShards;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint for reading the Redis node of a tenant and moving the
+ * tenant to another node at runtime, e.g.
+ * {@code POST /actuator/shards/tenant1} with the body
+ * {@code {"node": "node2"}}.
+ *
+ * @author Tobias Andraschko
+ */
+@Component
+@Endpoint(id = "shards")
+@RequiredArgsConstructor
+public class ShardsEndpoint {
+
+  private final RedisShards redisShards;
+  private final RedisManager redisManager;
+
+  /**
+   * Returns the Redis node of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the node name
+   */
+  @ReadOperation
+  public String node(@Selector String tenant) {
+    return redisShards.nodeFor(tenant);
+  }
+
+  /**
+   * Moves a tenant's message lists to another Redis node.
+   *
+   * @param tenant the tenant identifier
+   * @param node the name of the node to move to
+   * @return the number of messages moved
+   */
+  @WriteOperation
+  public long rebalance(@Selector String tenant, String node) {
+    return redisManager.rebalance(tenant, node);
+  }
+}
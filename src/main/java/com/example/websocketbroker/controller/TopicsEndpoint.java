@@ -0,0 +1,71 @@
+package com.example.websocketbroker.controller;
+
+import com.example.websocketbroker.model.Destination;
+import com.example.websocketbroker.repository.TenantRepository;
+import com.example.websocketbroker.service.TopicRegistry;
+import java.util.Arrays;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint for reading and changing the topics of a tenant at
+ * runtime, e.g. {@code POST /actuator/topics/tenant1} with the body
+ * {@code {"topics": "news,chat"}}. Only the topics of known tenants can
+ * be changed.
+ *
+ * @author Tobias Andraschko
+ */
+@Component
+@Endpoint(id = "topics")
+@RequiredArgsConstructor
+public class TopicsEndpoint {
+
+  private final TopicRegistry topicRegistry;
+  private final TenantRepository tenantRepository;
+
+  /**
+   * Returns the topics of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the topic names
+   */
+  @ReadOperation
+  public List<String> topics(@Selector String tenant) {
+    return topicRegistry
+      .destinations(tenant)
+      .stream()
+      .map(Destination::topic)
+      .toList();
+  }
+
+  /**
+   * Replaces the topics of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @param topics the comma separated topic names
+   * @throws InvalidEndpointRequestException if the tenant is unknown
+   */
+  @WriteOperation
+  public void setTopics(@Selector String tenant, String topics) {
+    if (!tenantRepository.exists(tenant)) {
+      throw new InvalidEndpointRequestException(
+        "Unknown tenant: " + tenant,
+        "Unknown tenant"
+      );
+    }
+    topicRegistry.setTopics(
+      tenant,
+      Arrays
+        .stream(topics.split(","))
+        .map(String::trim)
+        .filter(topic -> !topic.isEmpty())
+        .toList()
+    );
+  }
+}
@@ -1,9 +1,11 @@
 package com.example.websocketbroker.controller;
 
-import com.example.websocketbroker.model.BrokerConnection;
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import com.example.websocketbroker.model.Destination;
 import com.example.websocketbroker.service.BrokerConnectionManager;
 import com.example.websocketbroker.service.RedisManager;
-import java.util.Set;
+import com.example.websocketbroker.service.TopicRegistry;
+import java.util.concurrent.TimeUnit;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
@@ -26,19 +28,15 @@ public class WebSocketController {
 
   private final RedisManager redisManager;
   private final BrokerConnectionManager brokerConnectionManager;
-
-  // Set of valid topics that can be subscribed to or sent messages.
-  private static final Set<String> VALID_TOPICS = Set.of(
-    "news",
-    "alert",
-    "chat"
-  );
+  private final MessagingMetrics messagingMetrics;
+  private final TopicRegistry topicRegistry;
 
   /**
    * Handles incoming messages sent to the specified topic. This method
-   * checks if the topic is valid, retrieves the tenant and user ID from
-   * the message headers, logs the received message, stores it in Redis,
-   * and attempts to send it to the appropriate broker connection if active.
+   * retrieves the tenant and user ID from the message headers, checks if
+   * the topic is one of the tenant's topics, logs the received message,
+   * stores it in Redis, and sends it with its id to the tenant's broker
+   * connection, whose outbox keeps it while the connection is down.
    *
    * @param message the message payload received from the client
    * @param headerAccessor the header accessor to retrieve message headers
@@ -50,26 +48,28 @@ public class WebSocketController {
     SimpMessageHeaderAccessor headerAccessor,
     @DestinationVariable String topic
   ) {
-    if (!VALID_TOPICS.contains(topic)) {
-      return;
-    }
-
+    long start = System.nanoTime();
     String tenant = (String) headerAccessor
       .getSessionAttributes()
       .get("tenant");
+    Destination destination = topicRegistry.resolve(tenant, topic);
+    if (destination == null) {
+      return;
+    }
     String userId = headerAccessor.getFirstNativeHeader("custom-user-id");
 
-    log.info("Received message for tenant: {}, topic: {}", tenant, topic);
+    log.debug("Received message for tenant: {}, topic: {}", tenant, topic);
 
-    redisManager.storeMessage(tenant, topic, userId, message);
+    long id = redisManager.storeMessage(tenant, topic, userId, message);
 
-    BrokerConnection brokerConnection = brokerConnectionManager.getBrokerConnection(
-      tenant
-    );
-    if (brokerConnection != null && brokerConnection.isConnected()) {
-      brokerConnection.sendMessage(topic, message, userId);
-    } else {
-      log.error("No active broker connection for tenant: {}", tenant);
+    if (!brokerConnectionManager.sendMessage(tenant, destination, message, userId, id)) {
+      log.error(
+        "Unknown tenant, or outbound queue or outbox full, dropped message for tenant: {}",
+        tenant
+      );
     }
+    messagingMetrics
+      .handleTimer(tenant, topic)
+      .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
   }
 }
@@ -0,0 +1,108 @@
+package com.example.websocketbroker.interceptors;
+
+import com.example.websocketbroker.service.RateLimiter;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Interceptor enforcing the {@link RateLimiter} on the SEND frames of the
+ * clients. It runs when a frame is handed to the client inbound channel,
+ * still on the WebSocket session's thread, so a rejected message never
+ * reaches the inbound thread pool, Redis or the broker.
+ * <p>
+ * Rejected messages are dropped. With {@code rate-limit.action} set to
+ * {@code ERROR} the client is also sent an ERROR frame, which ends its
+ * session as the STOMP spec requires.
+ *
+ * @author Tobias Andraschko
+ */
+@Component
+public class RateLimitInterceptor implements ChannelInterceptor {
+
+  /**
+   * What happens to a client sending over the limit.
+   */
+  public enum RejectAction {
+    DROP,
+    ERROR,
+  }
+
+  private final RateLimiter rateLimiter;
+  private final MessageChannel clientOutboundChannel;
+  private final RejectAction action;
+
+  /**
+   * Creates the interceptor.
+   *
+   * @param rateLimiter the rate limiter
+   * @param clientOutboundChannel the channel to the WebSocket sessions,
+   *                              resolved lazily as it is configured by the
+   *                              same configuration this interceptor is
+   *                              registered with
+   * @param action the configured reject action
+   */
+  public RateLimitInterceptor(
+    RateLimiter rateLimiter,
+    @Lazy @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+    @Value("${rate-limit.action}") RejectAction action
+  ) {
+    this.rateLimiter = rateLimiter;
+    this.clientOutboundChannel = clientOutboundChannel;
+    this.action = action;
+  }
+
+  /**
+   * Lets a SEND frame pass if neither its tenant nor its user is over
+   * their limit. Users are identified by the custom-user-id header, or by
+   * the session if it is missing. Other frames always pass.
+   *
+   * @param message the message to be sent
+   * @param channel the channel to which the message is being sent
+   * @return the message, or null to drop it
+   */
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(
+      message,
+      StompHeaderAccessor.class
+    );
+    if (accessor == null || !StompCommand.SEND.equals(accessor.getCommand())) {
+      return message;
+    }
+    Map<String, Object> sessionAttributes = accessor.getSessionAttributes();
+    String tenant = sessionAttributes != null
+      ? (String) sessionAttributes.get("tenant")
+      : null;
+    if (tenant == null) {
+      return message;
+    }
+
+    String userId = accessor.getFirstNativeHeader("custom-user-id");
+    if (rateLimiter.tryAcquire(tenant, userId != null ? userId : accessor.getSessionId())) {
+      return message;
+    }
+    if (action == RejectAction.ERROR) {
+      sendError(accessor.getSessionId());
+    }
+    return null;
+  }
+
+  private void sendError(String sessionId) {
+    StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.ERROR);
+    accessor.setSessionId(sessionId);
+    accessor.setMessage("Rate limit exceeded");
+    clientOutboundChannel.send(
+      MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders())
+    );
+  }
+}
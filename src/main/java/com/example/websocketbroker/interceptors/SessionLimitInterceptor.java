@@ -0,0 +1,98 @@
+package com.example.websocketbroker.interceptors;
+
+import com.example.websocketbroker.service.SubscriptionIndex;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Interceptor admitting at most {@code websocket.sessions.max-per-tenant}
+ * sessions per tenant on this instance. It checks the count kept by the
+ * {@link SubscriptionIndex} when a CONNECT frame arrives, which costs a map
+ * lookup. A rejected client is sent an ERROR frame, which ends its session.
+ * <p>
+ * Sessions are only counted once their CONNECT frame has passed, so
+ * clients connecting at the same moment may exceed the limit by a few.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+@Component
+public class SessionLimitInterceptor implements ChannelInterceptor {
+
+  private final SubscriptionIndex subscriptionIndex;
+  private final MessageChannel clientOutboundChannel;
+  private final int maxSessionsPerTenant;
+
+  /**
+   * Creates the interceptor.
+   *
+   * @param subscriptionIndex the index of the local sessions
+   * @param clientOutboundChannel the channel to the WebSocket sessions,
+   *                              resolved lazily as it is configured by the
+   *                              same configuration this interceptor is
+   *                              registered with
+   * @param maxSessionsPerTenant the sessions admitted per tenant, zero for
+   *                             unlimited
+   */
+  public SessionLimitInterceptor(
+    SubscriptionIndex subscriptionIndex,
+    @Lazy @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+    @Value("${websocket.sessions.max-per-tenant}") int maxSessionsPerTenant
+  ) {
+    this.subscriptionIndex = subscriptionIndex;
+    this.clientOutboundChannel = clientOutboundChannel;
+    this.maxSessionsPerTenant = maxSessionsPerTenant;
+  }
+
+  /**
+   * Lets a CONNECT frame pass if its tenant is below the session limit.
+   * Other frames always pass.
+   *
+   * @param message the message to be sent
+   * @param channel the channel to which the message is being sent
+   * @return the message, or null to reject it
+   */
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    if (maxSessionsPerTenant <= 0) return message;
+
+    StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(
+      message,
+      StompHeaderAccessor.class
+    );
+    if (accessor == null || !StompCommand.CONNECT.equals(accessor.getCommand())) {
+      return message;
+    }
+    Map<String, Object> sessionAttributes = accessor.getSessionAttributes();
+    String tenant = sessionAttributes != null
+      ? (String) sessionAttributes.get("tenant")
+      : null;
+    if (tenant == null || subscriptionIndex.sessionCount(tenant) < maxSessionsPerTenant) {
+      return message;
+    }
+
+    log.warn("Rejected session of tenant {}: session limit reached", tenant);
+    sendError(accessor.getSessionId());
+    return null;
+  }
+
+  private void sendError(String sessionId) {
+    StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.ERROR);
+    accessor.setSessionId(sessionId);
+    accessor.setMessage("Session limit exceeded");
+    clientOutboundChannel.send(
+      MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders())
+    );
+  }
+}
@@ -0,0 +1,284 @@
+package com.example.websocketbroker.metrics;
+
+import com.example.websocketbroker.codec.MessageFormat;
+import com.example.websocketbroker.service.RateLimiter.Scope;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Micrometer meters of the messaging hot paths, exposed through the
+ * Actuator metrics endpoint.
+ * <p>
+ * Meters are tagged by tenant and topic. To keep the number of time
+ * series bounded with thousands of tenants, only the first
+ * {@code metrics.max-tenant-tags} tenants seen get a tag of their own;
+ * all others are tagged {@value #OTHER_TENANTS}. Meters are cached per tag,
+ * so recording doesn't look them up in the registry.
+ *
+ * @author Tobias Andraschko
+ */
+@Component
+public class MessagingMetrics {
+
+  /**
+   * The tenant tag shared by the tenants beyond the limit.
+   */
+  public static final String OTHER_TENANTS = "other";
+
+  private final MeterRegistry registry;
+  private final int maxTenantTags;
+
+  private final Set<String> taggedTenants = ConcurrentHashMap.newKeySet();
+  private final ReentrantLock tagLock = new ReentrantLock();
+  private final Map<String, Map<String, Timer>> handleTimers = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Timer>> storeTimers = new ConcurrentHashMap<>();
+  private final Map<String, Map<MessageFormat, Counter>> storedBytes = new ConcurrentHashMap<>();
+  private final Map<String, Map<Scope, Counter>> rateLimited = new ConcurrentHashMap<>();
+  private final Map<String, Counter> replayedMessages = new ConcurrentHashMap<>();
+  private final Map<String, TenantMetrics> tenantMetrics = new ConcurrentHashMap<>();
+  private final Timer redisBatchTimer;
+  private final Timer broadcastCycleTimer;
+  private final Counter broadcastsSkipped;
+  private final Counter cacheHits;
+  private final Counter cacheMisses;
+
+  /**
+   * Creates the metrics.
+   *
+   * @param registry the registry to register the meters with
+   * @param maxTenantTags the number of tenants with a tag of their own
+   */
+  public MessagingMetrics(
+    MeterRegistry registry,
+    @Value("${metrics.max-tenant-tags}") int maxTenantTags
+  ) {
+    this.registry = registry;
+    this.maxTenantTags = maxTenantTags;
+    this.redisBatchTimer =
+      Timer
+        .builder("messaging.redis.batch")
+        .description("Time to write a batch of buffered messages")
+        .register(registry);
+    this.broadcastCycleTimer =
+      Timer
+        .builder("messaging.broadcast.cycle")
+        .description("Time from the start of a broadcast until the last tenant is sent to")
+        .publishPercentileHistogram()
+        .register(registry);
+    this.broadcastsSkipped =
+      Counter
+        .builder("messaging.broadcast.skipped")
+        .description("Broadcasts skipped because the previous one was still running")
+        .register(registry);
+    this.cacheHits = cacheRequestCounter("hit");
+    this.cacheMisses = cacheRequestCounter("miss");
+  }
+
+  /**
+   * Returns the timer of the message handling of a tenant's topic.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic
+   * @return the timer
+   */
+  public Timer handleTimer(String tenant, String topic) {
+    return timer(handleTimers, "messaging.handle", tenantTag(tenant), topic);
+  }
+
+  /**
+   * Returns the timer of storing the messages of a tenant's topic.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic
+   * @return the timer
+   */
+  public Timer storeTimer(String tenant, String topic) {
+    return timer(storeTimers, "messaging.redis.store", tenantTag(tenant), topic);
+  }
+
+  /**
+   * Returns the counter of the encoded message bytes stored for a tenant
+   * in a format, to compare the formats' memory use.
+   *
+   * @param tenant the tenant identifier
+   * @param format the format the messages are stored in
+   * @return the counter
+   */
+  public Counter storedBytes(String tenant, MessageFormat format) {
+    String tenantTag = tenantTag(tenant);
+    return storedBytes
+      .computeIfAbsent(tenantTag, tag -> new ConcurrentHashMap<>())
+      .computeIfAbsent(
+        format,
+        f ->
+          Counter
+            .builder("messaging.redis.stored.bytes")
+            .baseUnit("bytes")
+            .tag("tenant", tenantTag)
+            .tag("format", f.name().toLowerCase())
+            .register(registry)
+      );
+  }
+
+  /**
+   * Returns the counter of a tenant's messages rejected for exceeding a
+   * rate limit.
+   *
+   * @param tenant the tenant identifier
+   * @param scope the limit that was exceeded
+   * @return the counter
+   */
+  public Counter rateLimited(String tenant, Scope scope) {
+    String tenantTag = tenantTag(tenant);
+    return rateLimited
+      .computeIfAbsent(tenantTag, tag -> new ConcurrentHashMap<>())
+      .computeIfAbsent(
+        scope,
+        s ->
+          Counter
+            .builder("messaging.rate.limited")
+            .description("Messages rejected for exceeding a rate limit")
+            .tag("tenant", tenantTag)
+            .tag("scope", s.name().toLowerCase())
+            .register(registry)
+      );
+  }
+
+  /**
+   * Returns the counter of the messages replayed to a tenant's resuming
+   * clients.
+   *
+   * @param tenant the tenant identifier
+   * @return the counter
+   */
+  public Counter replayedMessages(String tenant) {
+    return replayedMessages.computeIfAbsent(
+      tenantTag(tenant),
+      tag ->
+        Counter
+          .builder("messaging.replay.messages")
+          .description("Messages replayed to resuming clients")
+          .tag("tenant", tag)
+          .register(registry)
+    );
+  }
+
+  /**
+   * Returns the timer of writing a batch in batched persistence mode.
+   *
+   * @return the timer
+   */
+  public Timer redisBatchTimer() {
+    return redisBatchTimer;
+  }
+
+  /**
+   * Returns the timer of full broadcast cycles, including the stagger.
+   *
+   * @return the timer
+   */
+  public Timer broadcastCycleTimer() {
+    return broadcastCycleTimer;
+  }
+
+  /**
+   * Returns the counter of broadcasts skipped because the previous cycle
+   * was still running.
+   *
+   * @return the counter
+   */
+  public Counter broadcastsSkipped() {
+    return broadcastsSkipped;
+  }
+
+  /**
+   * Returns the counter of reads served by the recent message cache, or
+   * of those that had to go to Redis.
+   *
+   * @param hit whether the cache held the messages
+   * @return the counter
+   */
+  public Counter cacheRequests(boolean hit) {
+    return hit ? cacheHits : cacheMisses;
+  }
+
+  /**
+   * Registers the gauge of the heap taken by the recent message cache.
+   *
+   * @param bytes the size of the cached messages in bytes
+   */
+  public void cacheBytes(AtomicLong bytes) {
+    Gauge
+      .builder("messaging.cache.bytes", bytes, AtomicLong::get)
+      .description("Heap taken by the cached recent messages")
+      .baseUnit("bytes")
+      .register(registry);
+  }
+
+  /**
+   * Returns the broker connection and client session meters of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the meters of the tenant's tag
+   */
+  public TenantMetrics forTenant(String tenant) {
+    return tenantMetrics.computeIfAbsent(
+      tenantTag(tenant),
+      tag -> new TenantMetrics(registry, tag)
+    );
+  }
+
+  private String tenantTag(String tenant) {
+    if (tenant == null) return OTHER_TENANTS;
+    if (taggedTenants.contains(tenant)) return tenant;
+    if (taggedTenants.size() >= maxTenantTags) return OTHER_TENANTS;
+
+    tagLock.lock();
+    try {
+      if (taggedTenants.size() < maxTenantTags) {
+        taggedTenants.add(tenant);
+        return tenant;
+      }
+      return taggedTenants.contains(tenant) ? tenant : OTHER_TENANTS;
+    } finally {
+      tagLock.unlock();
+    }
+  }
+
+  private Counter cacheRequestCounter(String result) {
+    return Counter
+      .builder("messaging.cache.requests")
+      .description("Recent message reads by whether the cache held the messages")
+      .tag("result", result)
+      .register(registry);
+  }
+
+  private Timer timer(
+    Map<String, Map<String, Timer>> timers,
+    String name,
+    String tenantTag,
+    String topic
+  ) {
+    return timers
+      .computeIfAbsent(tenantTag, tag -> new ConcurrentHashMap<>())
+      .computeIfAbsent(
+        topic,
+        t ->
+          Timer
+            .builder(name)
+            .tag("tenant", tenantTag)
+            .tag("topic", t)
+            .publishPercentileHistogram()
+            .register(registry)
+      );
+  }
+}
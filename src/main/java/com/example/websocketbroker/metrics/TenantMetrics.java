@@ -0,0 +1,244 @@
+package com.example.websocketbroker.metrics;
+
+import com.example.websocketbroker.model.BrokerConnection;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The broker connection and client session meters of one tenant tag. The
+ * meters are created once and then updated without any lookup, so they
+ * can be used on the event loop's hot path. Tenants sharing the
+ * {@code other} tag share one instance, whose gauges add up all of their
+ * connections and sessions.
+ *
+ * @author Tobias Andraschko
+ */
+public class TenantMetrics {
+
+  private final MeterRegistry registry;
+  private final String tenantTag;
+  private final Set<BrokerConnection> connections = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger sessions = new AtomicInteger();
+  private final Map<String, AtomicInteger> subscriptions = new ConcurrentHashMap<>();
+  private final Timer sendLatency;
+  private final Counter bytesWritten;
+  private final Counter framesWritten;
+  private final Counter reconnects;
+  private final Counter errorFrames;
+  private final Counter outboxRetries;
+  private final Counter outboxDropped;
+
+  /**
+   * Registers the meters of a tenant tag.
+   *
+   * @param registry the registry to register the meters with
+   * @param tenantTag the tenant tag
+   */
+  public TenantMetrics(MeterRegistry registry, String tenantTag) {
+    this.registry = registry;
+    this.tenantTag = tenantTag;
+    this.sendLatency =
+      Timer
+        .builder("messaging.broker.send")
+        .description("Time SEND frames wait in the outbound queue")
+        .tag("tenant", tenantTag)
+        .publishPercentileHistogram()
+        .register(registry);
+    this.bytesWritten =
+      Counter
+        .builder("messaging.broker.bytes.written")
+        .baseUnit("bytes")
+        .tag("tenant", tenantTag)
+        .register(registry);
+    this.framesWritten =
+      Counter
+        .builder("messaging.broker.frames.written")
+        .tag("tenant", tenantTag)
+        .register(registry);
+    this.reconnects =
+      Counter
+        .builder("messaging.broker.reconnects")
+        .tag("tenant", tenantTag)
+        .register(registry);
+    this.errorFrames =
+      Counter
+        .builder("messaging.broker.error.frames")
+        .tag("tenant", tenantTag)
+        .register(registry);
+    this.outboxRetries =
+      Counter
+        .builder("messaging.broker.outbox.retries")
+        .description("Replayed messages rejected by a full outbound queue and retried")
+        .tag("tenant", tenantTag)
+        .register(registry);
+    this.outboxDropped =
+      Counter
+        .builder("messaging.broker.outbox.dropped")
+        .description("Messages left in the outbox of a closed connection")
+        .tag("tenant", tenantTag)
+        .register(registry);
+
+    Gauge
+      .builder(
+        "messaging.broker.queue.depth",
+        connections,
+        tracked -> tracked.stream().mapToInt(BrokerConnection::queuedMessages).sum()
+      )
+      .description("SEND frames waiting in the outbound queues")
+      .tag("tenant", tenantTag)
+      .register(registry);
+    Gauge
+      .builder(
+        "messaging.broker.outbox.depth",
+        connections,
+        tracked -> tracked.stream().mapToInt(BrokerConnection::outboxSize).sum()
+      )
+      .description("Messages kept while disconnected, waiting for replay")
+      .tag("tenant", tenantTag)
+      .register(registry);
+    Gauge
+      .builder(
+        "messaging.broker.circuits.open",
+        connections,
+        tracked -> tracked.stream().filter(c -> !c.isAvailable()).count()
+      )
+      .description("Connections whose circuit breaker isn't closed")
+      .tag("tenant", tenantTag)
+      .register(registry);
+    Gauge
+      .builder("messaging.sessions", sessions, AtomicInteger::get)
+      .description("WebSocket sessions connected to this instance")
+      .tag("tenant", tenantTag)
+      .register(registry);
+    Gauge
+      .builder("messaging.broker.connections.open", connections, Set::size)
+      .tag("tenant", tenantTag)
+      .register(registry);
+    Gauge
+      .builder(
+        "messaging.broker.connections.connected",
+        connections,
+        tracked -> tracked.stream().filter(BrokerConnection::isConnected).count()
+      )
+      .tag("tenant", tenantTag)
+      .register(registry);
+  }
+
+  /**
+   * Includes a connection in the gauges until it is untracked.
+   *
+   * @param connection the opened connection
+   */
+  public void track(BrokerConnection connection) {
+    connections.add(connection);
+  }
+
+  /**
+   * Removes a closed connection from the gauges.
+   *
+   * @param connection the closed connection
+   */
+  public void untrack(BrokerConnection connection) {
+    connections.remove(connection);
+  }
+
+  /**
+   * Records sessions connecting or disconnecting.
+   *
+   * @param delta the change of the number of sessions
+   */
+  public void recordSessions(int delta) {
+    sessions.addAndGet(delta);
+  }
+
+  /**
+   * Records subscriptions to a topic being added or removed. The gauge of
+   * a topic is registered with its first subscription.
+   *
+   * @param topic the topic
+   * @param delta the change of the number of subscriptions
+   */
+  public void recordSubscriptions(String topic, int delta) {
+    subscriptions
+      .computeIfAbsent(
+        topic,
+        t -> {
+          AtomicInteger count = new AtomicInteger();
+          Gauge
+            .builder("messaging.subscriptions", count, AtomicInteger::get)
+            .description("Subscriptions of the sessions connected to this instance")
+            .tag("tenant", tenantTag)
+            .tag("topic", t)
+            .register(registry);
+          return count;
+        }
+      )
+      .addAndGet(delta);
+  }
+
+  /**
+   * Records how long a SEND frame waited before being encoded.
+   *
+   * @param nanos the time between queueing and encoding
+   */
+  public void recordSendLatency(long nanos) {
+    sendLatency.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records frames encoded for writing.
+   *
+   * @param frames the number of frames
+   */
+  public void recordFrames(int frames) {
+    framesWritten.increment(frames);
+  }
+
+  /**
+   * Records a socket write.
+   *
+   * @param bytes the number of bytes written
+   */
+  public void recordBytesWritten(int bytes) {
+    bytesWritten.increment(bytes);
+  }
+
+  /**
+   * Records a reconnect of a channel.
+   */
+  public void recordReconnect() {
+    reconnects.increment();
+  }
+
+  /**
+   * Records an ERROR frame received from the broker.
+   */
+  public void recordErrorFrame() {
+    errorFrames.increment();
+  }
+
+  /**
+   * Records a replayed message the outbound queue rejected, which is
+   * retried.
+   */
+  public void recordOutboxRetry() {
+    outboxRetries.increment();
+  }
+
+  /**
+   * Records messages dropped from the outbox because their connection was
+   * closed.
+   *
+   * @param messages the number of messages
+   */
+  public void recordOutboxDropped(int messages) {
+    outboxDropped.increment(messages);
+  }
+}
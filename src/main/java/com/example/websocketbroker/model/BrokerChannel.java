@@ -0,0 +1,663 @@
+package com.example.websocketbroker.model;
+
+import com.example.websocketbroker.codec.PayloadCompressor;
+import com.example.websocketbroker.metrics.TenantMetrics;
+import com.example.websocketbroker.stomp.StompFrame;
+import com.example.websocketbroker.stomp.StompFrameDecoder;
+import com.example.websocketbroker.stomp.StompFrameEncoder;
+import com.example.websocketbroker.transport.CircuitBreaker;
+import com.example.websocketbroker.transport.ConnectAdmission;
+import com.example.websocketbroker.transport.EventLoop;
+import com.example.websocketbroker.transport.OutboundQueue;
+import com.example.websocketbroker.transport.ScheduledTask;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A single STOMP connection to the broker for a specific virtual host,
+ * one of the pooled channels of a {@link BrokerConnection}. This class
+ * manages the socket lifecycle, including connecting, disconnecting,
+ * sending messages, and subscribing to topics.
+ * <p>
+ * The channel uses a non-blocking {@link SocketChannel} driven by a
+ * shared {@link EventLoop}, so it doesn't own any threads itself. All
+ * channel state is confined to the event loop thread; other threads only
+ * hand over frames through the write queues, and the event loop encodes
+ * them into a single reusable buffer right before writing.
+ * <p>
+ * SEND frames go through a bounded {@link OutboundQueue} whose overflow
+ * policy decides what happens under back pressure. The event loop drains
+ * it in batches, so a burst of messages costs one write per batch rather
+ * than one per message. Control frames use a separate unbounded queue and
+ * are always written first. SEND frames are only written once the broker
+ * has answered the CONNECT frame with CONNECTED.
+ * <p>
+ * When the socket closes, the SEND frames still queued or not completely
+ * written are handed back to the {@link BrokerConnection}, which sends
+ * them again once a channel is connected. A frame the broker received
+ * right before the socket closed may thus be sent twice.
+ * <p>
+ * Every connection attempt, including reconnects, is started through the
+ * shared {@link ConnectAdmission} and holds one of its slots until the
+ * broker has answered the CONNECT frame or the attempt has failed.
+ * Reconnects are delayed by an exponential backoff with jitter, and are
+ * held back while the tenant's {@link CircuitBreaker} is open.
+ * <p>
+ * Heart-beats are negotiated with the broker in the CONNECT frame. A
+ * heart-beat is only written when nothing else has been written for the
+ * negotiated interval, and a broker that has sent nothing for three of
+ * its intervals is considered dead and the channel reconnects, so a
+ * half-open socket doesn't go unnoticed.
+ * <p>
+ * A subscribing channel reads its topics from its {@link BrokerSubscriber}
+ * whenever it connects or is asked to refresh them, and only sends the
+ * SUBSCRIBE and UNSUBSCRIBE frames needed to get from its current
+ * subscriptions there. Messages delivered for a current subscription are
+ * handed to the subscriber.
+ * <p>
+ * Message bodies reaching the tenant's compression threshold are
+ * compressed by the sending thread and sent with a
+ * {@code content-encoding} header. Received bodies with that header are
+ * decompressed before they are handed to the subscriber.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+public class BrokerChannel {
+
+  private record QueuedSend(PendingMessage message, Consumer<StompFrameEncoder> frame) {}
+
+  private static final long CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final int READ_TIMEOUT_HEARTBEATS = 3;
+
+  private final String vhost;
+  private final BrokerConnectionSettings settings;
+  private final EventLoop eventLoop;
+  private final ConnectAdmission admission;
+  private final CircuitBreaker circuitBreaker;
+  private final TenantMetrics metrics;
+  private final PayloadCompressor compressor;
+  private final BrokerSubscriber subscriber;
+  private final Runnable onConnected;
+  private final Consumer<List<PendingMessage>> onUndelivered;
+
+  private final Queue<Consumer<StompFrameEncoder>> controlQueue = new ConcurrentLinkedQueue<>();
+  private final OutboundQueue<QueuedSend> sendQueue;
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private volatile boolean connected;
+  private volatile boolean closed;
+
+  // Only accessed from the event loop thread.
+  private SocketChannel channel;
+  private SelectionKey selectionKey;
+  private ScheduledTask heartbeatTask;
+  private ScheduledTask readTimeoutTask;
+  private ScheduledTask connectTimeoutTask;
+  private long lastReadNanos;
+  private long lastWriteNanos;
+  private boolean connecting;
+  private int failedAttempts;
+  private final StompFrameDecoder decoder = new StompFrameDecoder();
+  private final StompFrameEncoder encoder = new StompFrameEncoder();
+  private ByteBuffer writeBuffer = ByteBuffer.allocate(0);
+  // The messages of the SEND frames in the write buffer.
+  private final List<PendingMessage> unwritten = new ArrayList<>();
+  // Current broker subscriptions by subscription id.
+  private final Map<String, Destination> subscriptions = new HashMap<>();
+
+  /**
+   * Creates a channel which isn't connected yet.
+   *
+   * @param vhost the virtual host of the tenant
+   * @param settings the broker address and outbound queue settings
+   * @param eventLoop the event loop driving the channel
+   * @param admission the admission control for connection attempts
+   * @param circuitBreaker the circuit breaker of the tenant
+   * @param metrics the meters of the tenant
+   * @param compressor the compressor of the tenant's message bodies
+   * @param subscriber the receiving side, or null if the channel doesn't
+   *                   subscribe
+   * @param onConnected called whenever the broker has accepted the CONNECT
+   * @param onUndelivered called with the messages which haven't been
+   *                      written when the socket closes
+   */
+  public BrokerChannel(
+    String vhost,
+    BrokerConnectionSettings settings,
+    EventLoop eventLoop,
+    ConnectAdmission admission,
+    CircuitBreaker circuitBreaker,
+    TenantMetrics metrics,
+    PayloadCompressor compressor,
+    BrokerSubscriber subscriber,
+    Runnable onConnected,
+    Consumer<List<PendingMessage>> onUndelivered
+  ) {
+    this.vhost = vhost;
+    this.settings = settings;
+    this.eventLoop = eventLoop;
+    this.admission = admission;
+    this.circuitBreaker = circuitBreaker;
+    this.metrics = metrics;
+    this.compressor = compressor;
+    this.subscriber = subscriber;
+    this.onConnected = onConnected;
+    this.onUndelivered = onUndelivered;
+    this.sendQueue =
+      new OutboundQueue<>(
+        settings.outboundQueueCapacity(),
+        settings.overflowPolicy(),
+        settings.blockTimeoutMillis()
+      );
+  }
+
+  /**
+   * Establishes a connection to the STOMP broker. The socket is opened
+   * asynchronously on the event loop as soon as the admission control
+   * lets the attempt start; once the broker answers the CONNECT
+   * frame the channel is marked as connected and, if it is the
+   * subscriber, subscribes to its topics.
+   */
+  public void connect() {
+    closed = false;
+    requestOpen();
+  }
+
+  private void requestOpen() {
+    if (closed) return;
+    long delay = circuitBreaker.attemptDelayMillis();
+    if (delay > 0) {
+      eventLoop.schedule(this::requestOpen, delay);
+      return;
+    }
+    admission.submit(() -> eventLoop.execute(this::openChannel));
+  }
+
+  private void openChannel() {
+    if (closed || channel != null) {
+      admission.release();
+      return;
+    }
+
+    connecting = true;
+    connectTimeoutTask =
+      eventLoop.schedule(
+        () -> {
+          log.error("Timed out connecting STOMP broker for vhost {}", vhost);
+          reconnect();
+        },
+        CONNECT_TIMEOUT_MILLIS
+      );
+    try {
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      if (channel.connect(settings.brokerAddress())) {
+        selectionKey = eventLoop.register(channel, 0, this::onSelected);
+        onChannelConnected();
+      } else {
+        selectionKey =
+          eventLoop.register(channel, SelectionKey.OP_CONNECT, this::onSelected);
+      }
+    } catch (IOException e) {
+      log.error(
+        "Failed to connect STOMP broker for vhost {}: {}",
+        vhost,
+        e.getMessage()
+      );
+      reconnect();
+    }
+  }
+
+  private void onSelected(SelectionKey key) {
+    try {
+      if (key.isConnectable()) {
+        // Stays registered for OP_CONNECT until the connect has finished.
+        if (!channel.finishConnect()) return;
+        onChannelConnected();
+      }
+      if (key.isValid() && key.isReadable()) {
+        read();
+      }
+      if (key.isValid() && key.isWritable()) {
+        flush();
+      }
+    } catch (IOException e) {
+      log.error("Error on connection to broker {}: {}", vhost, e.getMessage());
+      reconnect();
+    }
+  }
+
+  private void onChannelConnected() throws IOException {
+    selectionKey.interestOps(SelectionKey.OP_READ);
+
+    controlQueue.add(frameEncoder ->
+      frameEncoder.encodeConnect(
+        vhost,
+        "guest",
+        "guest",
+        settings.heartbeatSendMillis(),
+        settings.heartbeatReceiveMillis()
+      )
+    );
+    flush();
+  }
+
+  private void read() throws IOException {
+    int bytesRead = channel.read(decoder.readBuffer());
+    if (bytesRead == -1) {
+      throw new IOException("Connection closed by broker");
+    }
+    if (bytesRead > 0) {
+      lastReadNanos = System.nanoTime();
+    }
+
+    decoder.decode(this::processFrame);
+  }
+
+  private void processFrame(StompFrame frame) {
+    switch (frame) {
+      case StompFrame.ConnectedFrame connectedFrame -> {
+        endConnectAttempt();
+        failedAttempts = 0;
+        circuitBreaker.recordSuccess();
+        connected = true;
+        startHeartbeats(connectedFrame);
+        log.info("Established STOMP connection for vhost: {}", vhost);
+        if (subscriber != null) {
+          syncSubscriptions();
+        }
+        // Writes the SEND frames held back until now.
+        scheduleFlush();
+        onConnected.run();
+      }
+      case StompFrame.MessageFrame messageFrame -> {
+        Destination destination = subscriptions.get(messageFrame.subscription());
+        if (destination != null) {
+          deliver(destination, messageFrame);
+        }
+      }
+      case StompFrame.ErrorFrame errorFrame -> {
+        metrics.recordErrorFrame();
+        log.error(
+          "Received ERROR frame from broker {}: {} {}",
+          vhost,
+          errorFrame.message(),
+          errorFrame.bodyAsString()
+        );
+        reconnect();
+      }
+      default -> {}
+    }
+  }
+
+  private void startHeartbeats(StompFrame.ConnectedFrame connectedFrame) {
+    long sendInterval = negotiate(
+      settings.heartbeatSendMillis(),
+      connectedFrame.heartbeatReceiveMillis()
+    );
+    long receiveInterval = negotiate(
+      settings.heartbeatReceiveMillis(),
+      connectedFrame.heartbeatSendMillis()
+    );
+    if (sendInterval > 0) {
+      scheduleHeartbeat(sendInterval, sendInterval);
+    }
+    if (receiveInterval > 0) {
+      long timeout = receiveInterval * READ_TIMEOUT_HEARTBEATS;
+      scheduleReadTimeout(timeout, timeout);
+    }
+    log.debug(
+      "Negotiated heart-beats with broker {}: send {} ms, receive {} ms",
+      vhost,
+      sendInterval,
+      receiveInterval
+    );
+  }
+
+  private static long negotiate(long ours, long theirs) {
+    return ours == 0 || theirs == 0 ? 0 : Math.max(ours, theirs);
+  }
+
+  private void scheduleHeartbeat(long intervalMillis, long delayMillis) {
+    heartbeatTask =
+      eventLoop.schedule(
+        () -> {
+          if (channel == null) return;
+          long idleMillis = millisSince(lastWriteNanos);
+          if (idleMillis >= intervalMillis) {
+            writeControl(StompFrameEncoder::encodeHeartbeat);
+            scheduleHeartbeat(intervalMillis, intervalMillis);
+          } else {
+            // Data went out recently, which counts as a heart-beat.
+            scheduleHeartbeat(intervalMillis, intervalMillis - idleMillis);
+          }
+        },
+        delayMillis
+      );
+  }
+
+  private void scheduleReadTimeout(long timeoutMillis, long delayMillis) {
+    readTimeoutTask =
+      eventLoop.schedule(
+        () -> {
+          if (channel == null) return;
+          long idleMillis = millisSince(lastReadNanos);
+          if (idleMillis >= timeoutMillis) {
+            log.error(
+              "Nothing received from broker {} for {} ms, reconnecting",
+              vhost,
+              idleMillis
+            );
+            reconnect();
+          } else {
+            scheduleReadTimeout(timeoutMillis, timeoutMillis - idleMillis);
+          }
+        },
+        delayMillis
+      );
+  }
+
+  private static long millisSince(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanos);
+  }
+
+  /**
+   * Brings the broker subscriptions in line with the current topics, if
+   * the channel subscribes and is connected. Otherwise the topics are
+   * picked up on the next connect.
+   */
+  public void refreshSubscriptions() {
+    if (subscriber == null) return;
+    eventLoop.execute(() -> {
+      if (connected) {
+        syncSubscriptions();
+      }
+    });
+  }
+
+  private void syncSubscriptions() {
+    Map<String, Destination> wanted = new HashMap<>();
+    for (Destination destination : subscriber.topics()) {
+      wanted.put(destination.subscriptionId(), destination);
+    }
+
+    Iterator<Destination> subscribed = subscriptions.values().iterator();
+    while (subscribed.hasNext()) {
+      Destination destination = subscribed.next();
+      if (!wanted.containsKey(destination.subscriptionId())) {
+        subscribed.remove();
+        writeControl(frameEncoder ->
+          frameEncoder.encodeUnsubscribe(destination.subscriptionId())
+        );
+        log.info("Unsubscribed from {} on vhost {}", destination.destination(), vhost);
+      }
+    }
+    for (Destination destination : wanted.values()) {
+      if (subscriptions.putIfAbsent(destination.subscriptionId(), destination) == null) {
+        writeControl(frameEncoder ->
+          frameEncoder.encodeSubscribe(
+            destination.subscriptionId(),
+            destination.destination()
+          )
+        );
+        log.info("Subscribed to {} on vhost {}", destination.destination(), vhost);
+      }
+    }
+  }
+
+  private void writeControl(Consumer<StompFrameEncoder> frame) {
+    controlQueue.add(frame);
+    scheduleFlush();
+  }
+
+  private void scheduleFlush() {
+    if (flushScheduled.compareAndSet(false, true)) {
+      eventLoop.execute(() -> {
+        try {
+          flush();
+        } catch (IOException e) {
+          log.error(
+            "Error writing to broker {}: {}",
+            vhost,
+            e.getMessage()
+          );
+          reconnect();
+        }
+      });
+    }
+  }
+
+  private void flush() throws IOException {
+    flushScheduled.set(false);
+    if (channel == null || !channel.isConnected()) return;
+
+    while (true) {
+      if (!writeBuffer.hasRemaining()) {
+        Consumer<StompFrameEncoder> frame = nextFrame();
+        if (frame == null) break;
+        encodeBatch(frame);
+        writeBuffer = encoder.flip();
+      }
+      int bytesWritten = channel.write(writeBuffer);
+      if (bytesWritten > 0) {
+        lastWriteNanos = System.nanoTime();
+      }
+      metrics.recordBytesWritten(bytesWritten);
+      if (writeBuffer.hasRemaining()) {
+        selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return;
+      }
+      unwritten.clear();
+    }
+    selectionKey.interestOps(SelectionKey.OP_READ);
+  }
+
+  private void encodeBatch(Consumer<StompFrameEncoder> first) {
+    encoder.clear();
+    Consumer<StompFrameEncoder> frame = first;
+    int frames = 0;
+    do {
+      frame.accept(encoder);
+      frames++;
+    } while (
+      encoder.size() < settings.maxBatchBytes() && (frame = nextFrame()) != null
+    );
+    metrics.recordFrames(frames);
+  }
+
+  private Consumer<StompFrameEncoder> nextFrame() {
+    Consumer<StompFrameEncoder> frame = controlQueue.poll();
+    if (frame != null || !connected) return frame;
+    QueuedSend send = sendQueue.poll();
+    if (send == null) return null;
+    unwritten.add(send.message());
+    return send.frame();
+  }
+
+  private void endConnectAttempt() {
+    if (!connecting) return;
+    connecting = false;
+    connectTimeoutTask.cancel();
+    connectTimeoutTask = null;
+    admission.release();
+  }
+
+  private void reconnect() {
+    if (channel == null && !connecting) return;
+    closeChannel();
+    if (closed) return;
+
+    circuitBreaker.recordFailure();
+    long delay = settings.reconnectBackoff().delayMillis(failedAttempts++);
+    log.info("Attempting to reconnect broker {} in {} ms", vhost, delay);
+    metrics.recordReconnect();
+    eventLoop.schedule(this::requestOpen, delay);
+  }
+
+  private void closeChannel() {
+    endConnectAttempt();
+    connected = false;
+    if (heartbeatTask != null) {
+      heartbeatTask.cancel();
+      heartbeatTask = null;
+    }
+    if (readTimeoutTask != null) {
+      readTimeoutTask.cancel();
+      readTimeoutTask = null;
+    }
+    controlQueue.clear();
+    handBackUndelivered();
+    subscriptions.clear();
+    writeBuffer = ByteBuffer.allocate(0);
+    decoder.reset();
+    if (channel == null) return;
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.error(
+        "Error closing socket for broker {}: {}",
+        vhost,
+        e.getMessage()
+      );
+    }
+    channel = null;
+    selectionKey = null;
+  }
+
+  private void handBackUndelivered() {
+    List<PendingMessage> undelivered = new ArrayList<>(unwritten);
+    unwritten.clear();
+    QueuedSend send;
+    while ((send = sendQueue.poll()) != null) {
+      undelivered.add(send.message());
+    }
+    if (!undelivered.isEmpty()) {
+      onUndelivered.accept(undelivered);
+    }
+  }
+
+  /**
+   * Disconnects from the STOMP broker. This method sends a DISCONNECT
+   * frame and closes the socket connection.
+   */
+  public void disconnect() {
+    closed = true;
+    eventLoop.execute(() -> {
+      if (channel == null) return;
+      try {
+        if (connected) {
+          controlQueue.add(StompFrameEncoder::encodeDisconnect);
+          flush();
+        }
+      } catch (IOException e) {
+        log.error(
+          "Error disconnecting from broker {}: {}",
+          vhost,
+          e.getMessage()
+        );
+      }
+      closeChannel();
+    });
+  }
+
+  /**
+   * Checks if the connection to the broker is currently established.
+   *
+   * @return true if connected, false otherwise
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  private void deliver(Destination destination, StompFrame.MessageFrame frame) {
+    if (frame.contentEncoding() == null) {
+      subscriber.onMessage(destination, frame);
+      return;
+    }
+    try {
+      subscriber.onMessage(
+        destination,
+        new StompFrame.MessageFrame(
+          frame.destination(),
+          frame.subscription(),
+          frame.messageId(),
+          frame.customUserId(),
+          frame.persistedId(),
+          null,
+          PayloadCompressor.decompressBody(frame.contentEncoding(), frame.body())
+        )
+      );
+    } catch (IOException e) {
+      log.warn(
+        "Dropping message {} from broker {} which can't be decompressed: {}",
+        frame.messageId(),
+        vhost,
+        e.getMessage()
+      );
+    }
+  }
+
+  /**
+   * Returns the number of SEND frames waiting to be written.
+   *
+   * @return the outbound queue depth
+   */
+  public int queuedMessages() {
+    return sendQueue.size();
+  }
+
+  /**
+   * Sends a message to the specified destination on the STOMP broker. This
+   * method queues a SEND frame which the event loop encodes and writes. If
+   * the outbound queue is full, the configured overflow policy applies.
+   * Large messages are compressed here, on the caller's thread, rather
+   * than on the event loop.
+   *
+   * @param destination the destination to send the message to
+   * @param message the message content
+   * @param userId the ID of the user sending the message
+   * @param persistedId the id the message was persisted with, 0 for none
+   * @return true if the message was queued, false if it was rejected
+   */
+  public boolean sendMessage(
+    Destination destination,
+    String message,
+    String userId,
+    long persistedId
+  ) {
+    byte[] headers = destination.sendHeaders();
+    byte[] compressed = compressor.compressBody(message);
+    String contentEncoding = compressor.compression().contentEncoding();
+    long queuedAt = System.nanoTime();
+    Consumer<StompFrameEncoder> frame = frameEncoder -> {
+      metrics.recordSendLatency(System.nanoTime() - queuedAt);
+      if (compressed != null) {
+        frameEncoder.encodeSend(headers, userId, persistedId, contentEncoding, compressed);
+      } else {
+        frameEncoder.encodeSend(headers, userId, persistedId, message);
+      }
+    };
+    PendingMessage pending = new PendingMessage(destination, message, userId, persistedId);
+    if (!sendQueue.offer(new QueuedSend(pending, frame))) {
+      return false;
+    }
+    scheduleFlush();
+    return true;
+  }
+}
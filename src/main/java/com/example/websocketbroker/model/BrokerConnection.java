@@ -1,256 +1,414 @@
 package com.example.websocketbroker.model;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.net.Socket;
-import java.util.Set;
-import java.util.UUID;
-import lombok.RequiredArgsConstructor;
+import com.example.websocketbroker.codec.PayloadCompressor;
+import com.example.websocketbroker.metrics.TenantMetrics;
+import com.example.websocketbroker.transport.Backoff;
+import com.example.websocketbroker.transport.CircuitBreaker;
+import com.example.websocketbroker.transport.ConnectAdmission;
+import com.example.websocketbroker.transport.EventLoopGroup;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Represents a connection to a STOMP broker for a specific virtual host.
+ * Represents the connection to a STOMP broker for a specific virtual host.
  * This class manages the connection lifecycle, including connecting,
  * disconnecting, sending messages, and subscribing to topics.
+ * <p>
+ * Internally the connection is a pool of {@link BrokerChannel}s spread
+ * across the event loops. Messages are routed to a channel by the hash of
+ * the sending user's id (or of the topic for anonymous messages), so the
+ * messages of one user keep their order while the load of a busy tenant
+ * is spread over several sockets. If a user's channel is down, its
+ * messages go to the next connected channel until it is back. Only the
+ * first channel subscribes to the topics, so each message is received
+ * once.
+ * <p>
+ * While no channel is connected, messages are kept in a bounded outbox
+ * and replayed in order on a separate thread once a channel has
+ * connected. Messages sent during the replay are appended to the outbox
+ * so they can't overtake earlier ones. Messages a channel couldn't write
+ * before its socket closed are put back at the head of the outbox, even
+ * beyond its capacity, as they had been accepted already. A replayed
+ * message the outbound queue rejects stays at the head of the outbox and
+ * is retried after a backoff. Messages still in the outbox when the
+ * connection is closed are dropped and counted. The channels share a
+ * {@link CircuitBreaker}, so a tenant whose broker keeps failing is only
+ * probed by one channel at a time.
+ * <p>
+ * The connection records when it was last used, so that idle connections
+ * can be closed by the {@code BrokerConnectionManager}. The time of last
+ * use doubles as the closed state: closing an idle connection swaps it
+ * for a marker with a compare-and-set, which fails if the connection was
+ * used in the meantime. A closed connection can't be used anymore and
+ * rejects messages, so its users know to fetch a fresh one.
  *
  * @author Tobias Andraschko
  */
 @Slf4j
-@RequiredArgsConstructor
 public class BrokerConnection {
 
+  // The time of last use of a closed connection.
+  private static final long CLOSED = Long.MIN_VALUE;
+
   private final String vhost;
-  private Socket socket;
-  private DataOutputStream outputStream;
-  private DataInputStream inputStream;
-  private boolean connected;
-  private final Object lock = new Object();
+  private final BrokerChannel[] channels;
+  private final CircuitBreaker circuitBreaker;
+  private final int outboxCapacity;
+  private final Backoff outboxRetryBackoff;
+  private final TenantMetrics metrics;
+  private final ThreadFactory replayThreadFactory;
+  private final ReentrantLock outboxLock = new ReentrantLock();
+  private final Deque<PendingMessage> outbox = new ArrayDeque<>();
+  private boolean replaying;
+  private final AtomicLong lastUsedNanos = new AtomicLong(System.nanoTime());
 
-  private static final Set<String> TOPICS = Set.of("news", "alert", "chat");
+  /**
+   * Creates a connection which isn't connected yet.
+   *
+   * @param vhost the virtual host of the tenant
+   * @param settings the broker address, queue and reconnect settings
+   * @param poolSize the number of channels to open
+   * @param eventLoopGroup the event loops to spread the channels across
+   * @param admission the admission control for connection attempts
+   * @param metrics the meters of the tenant
+   * @param compressor the compressor of the tenant's message bodies
+   * @param subscriber the receiving side of the connection
+   * @param replayThreadFactory the factory of the outbox replay threads
+   */
+  public BrokerConnection(
+    String vhost,
+    BrokerConnectionSettings settings,
+    int poolSize,
+    EventLoopGroup eventLoopGroup,
+    ConnectAdmission admission,
+    TenantMetrics metrics,
+    PayloadCompressor compressor,
+    BrokerSubscriber subscriber,
+    ThreadFactory replayThreadFactory
+  ) {
+    this.vhost = vhost;
+    this.circuitBreaker =
+      new CircuitBreaker(settings.failureThreshold(), settings.openMillis());
+    this.outboxCapacity = settings.outboxCapacity();
+    this.outboxRetryBackoff = settings.outboxRetryBackoff();
+    this.metrics = metrics;
+    this.replayThreadFactory = replayThreadFactory;
+    this.channels = new BrokerChannel[Math.max(1, poolSize)];
+    for (int i = 0; i < channels.length; i++) {
+      channels[i] =
+        new BrokerChannel(
+          vhost,
+          settings,
+          eventLoopGroup.next(),
+          admission,
+          circuitBreaker,
+          metrics,
+          compressor,
+          i == 0 ? subscriber : null,
+          this::onChannelConnected,
+          this::requeue
+        );
+    }
+  }
 
   /**
-   * Establishes a connection to the STOMP broker. This method sends a
-   * CONNECT frame to the broker and starts listening for incoming messages
-   * and sending heartbeats.
+   * Establishes the connections of all channels to the STOMP broker.
    */
   public void connect() {
+    for (BrokerChannel channel : channels) {
+      channel.connect();
+    }
+  }
+
+  /**
+   * Closes the connection and disconnects all channels from the STOMP
+   * broker.
+   */
+  public void disconnect() {
+    lastUsedNanos.set(CLOSED);
+    outboxLock.lock();
     try {
-      socket = new Socket("localhost", 8024);
-      outputStream = new DataOutputStream(socket.getOutputStream());
-      inputStream = new DataInputStream(socket.getInputStream());
+      dropOutbox();
+    } finally {
+      outboxLock.unlock();
+    }
+    for (BrokerChannel channel : channels) {
+      channel.disconnect();
+    }
+  }
 
-      String connectFrame = String.format(
-        "CONNECT\n" +
-        "accept-version:1.2\n" +
-        "host:%s\n" +
-        "login:guest\n" +
-        "passcode:guest\n\n\u0000",
-        vhost
-      );
+  /**
+   * Brings the broker subscriptions in line with the subscriber's current
+   * topics after they have been changed.
+   */
+  public void refreshSubscriptions() {
+    channels[0].refreshSubscriptions();
+  }
 
-      synchronized (lock) {
-        outputStream.write(connectFrame.getBytes());
-        outputStream.flush();
-      }
+  /**
+   * Checks if at least one channel to the broker is currently established.
+   *
+   * @return true if connected, false otherwise
+   */
+  public boolean isConnected() {
+    for (BrokerChannel channel : channels) {
+      if (channel.isConnected()) return true;
+    }
+    return false;
+  }
 
-      startListening();
-      startHeartbeat();
+  /**
+   * Checks whether the tenant's circuit is closed, i.e. its broker hasn't
+   * been failing lately. Callers shouldn't wait for the connection while
+   * it isn't.
+   *
+   * @return true if the circuit is closed
+   */
+  public boolean isAvailable() {
+    return circuitBreaker.state() == CircuitBreaker.State.CLOSED;
+  }
 
-      connected = true;
-      log.info("Established STOMP connection for vhost: {}", vhost);
+  /**
+   * Returns the state of the tenant's circuit breaker.
+   *
+   * @return the circuit state
+   */
+  public CircuitBreaker.State circuitState() {
+    return circuitBreaker.state();
+  }
 
-      subscribeToTopics();
-    } catch (Exception e) {
-      log.error(
-        "Failed to connect STOMP broker for vhost {}: {}",
-        vhost,
-        e.getMessage()
-      );
-      connected = false;
-      reconnect();
+  /**
+   * Returns the number of messages waiting in the outbox.
+   *
+   * @return the outbox size
+   */
+  public int outboxSize() {
+    outboxLock.lock();
+    try {
+      return outbox.size();
+    } finally {
+      outboxLock.unlock();
     }
   }
 
-  private void startListening() {
-    Thread listenerThread = new Thread(() -> {
-      byte[] buffer = new byte[4096];
-      StringBuilder messageBuilder = new StringBuilder();
+  /**
+   * Returns the number of SEND frames waiting to be written on all
+   * channels.
+   *
+   * @return the outbound queue depth
+   */
+  public int queuedMessages() {
+    int queued = 0;
+    for (BrokerChannel channel : channels) {
+      queued += channel.queuedMessages();
+    }
+    return queued;
+  }
 
-      while (connected) {
-        try {
-          int bytesRead = inputStream.read(buffer);
-          if (bytesRead == -1) break;
+  /**
+   * Records that the connection is in use, unless it has been closed.
+   *
+   * @return true if the connection is open, false if it has been closed
+   *         and a fresh one has to be used
+   */
+  public boolean touch() {
+    while (true) {
+      long last = lastUsedNanos.get();
+      if (last == CLOSED) return false;
+      if (lastUsedNanos.compareAndSet(last, System.nanoTime())) return true;
+    }
+  }
 
-          messageBuilder.append(new String(buffer, 0, bytesRead));
+  /**
+   * Closes the connection if it hasn't been used for the idle timeout.
+   * Fails if it is used concurrently. The channels still have to be
+   * disconnected by the caller.
+   *
+   * @param idleTimeoutMillis the time without use after which the
+   *                          connection is closed
+   * @return true if the connection has been closed by this call
+   */
+  public boolean closeIfIdle(long idleTimeoutMillis) {
+    long last = lastUsedNanos.get();
+    return (
+      last != CLOSED &&
+      System.nanoTime() - last >= TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis) &&
+      lastUsedNanos.compareAndSet(last, CLOSED)
+    );
+  }
 
-          int nullIndex;
-          while ((nullIndex = messageBuilder.indexOf("\u0000")) != -1) {
-            String frame = messageBuilder.substring(0, nullIndex);
-            messageBuilder.delete(0, nullIndex + 1);
-            processFrame(frame);
-          }
-        } catch (IOException e) {
-          if (connected) {
-            log.error(
-              "Error reading from broker {}: {}",
-              vhost,
-              e.getMessage()
-            );
-            reconnect();
-            break;
-          }
-        }
-      }
-    });
-    listenerThread.setDaemon(true);
-    listenerThread.start();
+  /**
+   * Checks whether the connection has been closed.
+   *
+   * @return true if closed
+   */
+  public boolean isClosed() {
+    return lastUsedNanos.get() == CLOSED;
   }
 
-  private void startHeartbeat() {
-    Thread heartbeatThread = new Thread(() -> {
-      while (!Thread.currentThread().isInterrupted() && connected) {
-        try {
-          Thread.sleep(10000);
-          if (connected) {
-            synchronized (lock) {
-              outputStream.write("\n".getBytes());
-              outputStream.flush();
-            }
-          }
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          break;
-        } catch (Exception e) {
-          if (connected) {
-            log.error(
-              "Error sending heartbeat to broker {}: {}",
-              vhost,
-              e.getMessage()
-            );
-            reconnect();
-            break;
-          }
+  /**
+   * Sends a message to the specified destination on the STOMP broker
+   * through the channel the sending user is routed to. While no channel is
+   * connected, or the outbox is being replayed, the message is added to
+   * the outbox instead.
+   *
+   * @param destination the destination to send the message to
+   * @param message the message content
+   * @param userId the ID of the user sending the message
+   * @param persistedId the id the message was persisted with, 0 for none
+   * @return true if the message was queued, false if it was rejected by
+   *         the outbound queue, the outbox is full or the connection has
+   *         been closed
+   */
+  public boolean sendMessage(
+    Destination destination,
+    String message,
+    String userId,
+    long persistedId
+  ) {
+    if (isClosed()) return false;
+
+    PendingMessage pending = new PendingMessage(destination, message, userId, persistedId);
+    while (true) {
+      outboxLock.lock();
+      try {
+        if (replaying || !isConnected()) {
+          return addToOutbox(pending);
         }
+      } finally {
+        outboxLock.unlock();
       }
-    });
-    heartbeatThread.setDaemon(true);
-    heartbeatThread.start();
+      if (route(pending)) return true;
+      // Rejected by the outbound queue, unless all channels went down.
+      if (isConnected()) return false;
+    }
   }
 
-  private void subscribeToTopics() throws IOException {
-    for (String topic : TOPICS) {
-      String destination = "/topic/" + topic;
-      String subscribeFrame = String.format(
-        "SUBSCRIBE\n" + "id:%s\n" + "destination:%s\n" + "ack:auto\n\n\u0000",
-        UUID.randomUUID().toString(),
-        destination
-      );
+  private boolean addToOutbox(PendingMessage pending) {
+    if (outbox.size() >= outboxCapacity) return false;
+    outbox.addLast(pending);
+    if (isConnected()) startReplay();
+    return true;
+  }
 
-      synchronized (lock) {
-        outputStream.write(subscribeFrame.getBytes());
-        outputStream.flush();
-      }
-      log.info("Subscribed to {} on vhost {}", destination, vhost);
+  private void onChannelConnected() {
+    outboxLock.lock();
+    try {
+      if (!outbox.isEmpty()) startReplay();
+    } finally {
+      outboxLock.unlock();
     }
   }
 
-  private void processFrame(String frame) {
-    String[] lines = frame.split("\n");
-    if (lines.length > 0 && "ERROR".equals(lines[0])) {
-      log.error("Received ERROR frame from broker {}: {}", vhost, frame);
-      reconnect();
+  private void requeue(List<PendingMessage> undelivered) {
+    outboxLock.lock();
+    try {
+      if (isClosed()) {
+        drop(undelivered.size());
+        return;
+      }
+      for (PendingMessage pending : undelivered.reversed()) {
+        outbox.addFirst(pending);
+      }
+      if (isConnected()) startReplay();
+    } finally {
+      outboxLock.unlock();
     }
   }
 
-  private void reconnect() {
-    if (!connected) return;
-    connected = false;
+  private void startReplay() {
+    if (replaying) return;
+    replaying = true;
+    replayThreadFactory.newThread(this::replayOutbox).start();
+  }
 
-    try {
-      socket.close();
-    } catch (IOException e) {
-      log.error(
-        "Error closing socket for broker {}: {}",
-        vhost,
-        e.getMessage()
-      );
+  private void replayOutbox() {
+    int rejections = 0;
+    PendingMessage pending = nextToReplay(null);
+    while (pending != null) {
+      if (route(pending)) {
+        rejections = 0;
+        pending = nextToReplay(null);
+        continue;
+      }
+      // Rejected by the outbound queue, unless all channels went down.
+      if (isConnected()) {
+        metrics.recordOutboxRetry();
+        pause(outboxRetryBackoff.delayMillis(rejections++));
+      }
+      pending = nextToReplay(pending);
     }
+  }
 
-    Thread reconnectThread = new Thread(() -> {
-      try {
-        log.info("Attempting to reconnect broker {}", vhost);
-        Thread.sleep(5000);
-        connect();
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-      }
-    });
-    reconnectThread.setDaemon(true);
-    reconnectThread.start();
+  private static void pause(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
-  /**
-   * Disconnects from the STOMP broker. This method sends a DISCONNECT
-   * frame and closes the socket connection.
-   */
-  public void disconnect() {
-    connected = false;
+  // Puts back a message that couldn't be sent, and takes the next one.
+  // Ends the replay when the outbox is empty, no channel is connected or
+  // the connection has been closed; the next channel to connect resumes it.
+  private PendingMessage nextToReplay(PendingMessage unsent) {
+    outboxLock.lock();
     try {
-      if (socket != null && !socket.isClosed()) {
-        String disconnectFrame = "DISCONNECT\n\n\u0000";
-        synchronized (lock) {
-          outputStream.write(disconnectFrame.getBytes());
-          outputStream.flush();
-        }
-        socket.close();
+      if (unsent != null) outbox.addFirst(unsent);
+      if (isClosed()) {
+        dropOutbox();
+        replaying = false;
+        return null;
+      }
+      if (!outbox.isEmpty() && isConnected()) {
+        return outbox.pollFirst();
       }
-    } catch (IOException e) {
-      log.error(
-        "Error disconnecting from broker {}: {}",
-        vhost,
-        e.getMessage()
-      );
+      replaying = false;
+      return null;
+    } finally {
+      outboxLock.unlock();
     }
   }
 
-  /**
-   * Checks if the connection to the broker is currently established.
-   *
-   * @return true if connected, false otherwise
-   */
-  public boolean isConnected() {
-    return connected;
+  // Called with the outbox lock held.
+  private void dropOutbox() {
+    drop(outbox.size());
+    outbox.clear();
   }
 
-  /**
-   * Sends a message to the specified topic on the STOMP broker. This method
-   * constructs a SEND frame and writes it to the output stream.
-   *
-   * @param topic the topic to send the message to
-   * @param message the message content
-   * @param userId the ID of the user sending the message
-   */
-  public void sendMessage(String topic, String message, String userId) {
-    try {
-      String sendFrame = String.format(
-        "SEND\n" + "destination:/topic/%s\n" + "custom-user-id:%s\n\n%s\u0000",
-        topic,
-        userId,
-        message
-      );
+  private void drop(int messages) {
+    if (messages == 0) return;
+    metrics.recordOutboxDropped(messages);
+    log.warn(
+      "Dropped {} unsent messages of closed connection to broker {}",
+      messages,
+      vhost
+    );
+  }
 
-      synchronized (lock) {
-        outputStream.write(sendFrame.getBytes());
-        outputStream.flush();
+  private boolean route(PendingMessage pending) {
+    String userId = pending.userId();
+    int start = Math.floorMod(
+      (userId != null ? userId : pending.destination().topic()).hashCode(),
+      channels.length
+    );
+    for (int i = 0; i < channels.length; i++) {
+      BrokerChannel channel = channels[(start + i) % channels.length];
+      if (channel.isConnected()) {
+        return channel.sendMessage(
+          pending.destination(),
+          pending.message(),
+          userId,
+          pending.persistedId()
+        );
       }
-    } catch (IOException e) {
-      log.error(
-        "Error sending message to broker {}: {}",
-        vhost,
-        e.getMessage()
-      );
-      reconnect();
     }
+    return false;
   }
 }
@@ -0,0 +1,45 @@
+package com.example.websocketbroker.model;
+
+import com.example.websocketbroker.transport.Backoff;
+import com.example.websocketbroker.transport.OutboundQueue.OverflowPolicy;
+import java.net.InetSocketAddress;
+
+/**
+ * Settings shared by all broker connections, read once from the
+ * application properties by the connection manager.
+ *
+ * @param brokerAddress the address of the STOMP broker
+ * @param outboundQueueCapacity the maximum number of queued SEND frames
+ * @param overflowPolicy the behaviour when the outbound queue is full
+ * @param blockTimeoutMillis how long senders wait for queue space when
+ *                           blocking
+ * @param maxBatchBytes the number of encoded bytes after which a batch is
+ *                      written without draining more frames
+ * @param reconnectBackoff the delays between reconnect attempts
+ * @param failureThreshold the consecutive connection failures after which
+ *                         a tenant's circuit opens
+ * @param openMillis how long an open circuit waits before probing
+ * @param outboxCapacity the SEND frames buffered per tenant while it is
+ *                       disconnected
+ * @param outboxRetryBackoff the delays before replaying a message again
+ *                           which the outbound queue rejected
+ * @param heartbeatSendMillis the heart-beat interval offered to the
+ *                            broker, zero to send none
+ * @param heartbeatReceiveMillis the heart-beat interval asked of the
+ *                               broker, zero to expect none
+ * @author Tobias Andraschko
+ */
+public record BrokerConnectionSettings(
+  InetSocketAddress brokerAddress,
+  int outboundQueueCapacity,
+  OverflowPolicy overflowPolicy,
+  long blockTimeoutMillis,
+  int maxBatchBytes,
+  Backoff reconnectBackoff,
+  int failureThreshold,
+  long openMillis,
+  int outboxCapacity,
+  Backoff outboxRetryBackoff,
+  long heartbeatSendMillis,
+  long heartbeatReceiveMillis
+) {}
@@ -0,0 +1,29 @@
+package com.example.websocketbroker.model;
+
+import com.example.websocketbroker.stomp.StompFrame.MessageFrame;
+import java.util.Collection;
+
+/**
+ * The receiving side of a tenant's broker connection: which topics it
+ * subscribes to and where the delivered messages go. Both methods are
+ * called on the event loop thread and must not block.
+ *
+ * @author Tobias Andraschko
+ */
+public interface BrokerSubscriber {
+  /**
+   * Returns the topics the connection should currently be subscribed to.
+   *
+   * @return the destinations to subscribe to
+   */
+  Collection<Destination> topics();
+
+  /**
+   * Handles a message delivered for one of the subscriptions. The frame's
+   * body is only valid during the call.
+   *
+   * @param destination the subscribed destination
+   * @param frame the delivered message
+   */
+  void onMessage(Destination destination, MessageFrame frame);
+}
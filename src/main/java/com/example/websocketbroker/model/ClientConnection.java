@@ -1,9 +1,8 @@
 package com.example.websocketbroker.model;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.Data;
-import org.springframework.web.socket.WebSocketSession;
 
 /**
  * Represents a client connection in the WebSocket broker. This class
@@ -16,8 +15,9 @@ import org.springframework.web.socket.WebSocketSession;
 @Data
 public class ClientConnection {
 
-  private final WebSocketSession session;
+  private final String sessionId;
   private final String tenant;
   private final String userId;
-  private final Set<String> subscriptions = new HashSet<>();
+  // Topics by subscription id.
+  private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
 }
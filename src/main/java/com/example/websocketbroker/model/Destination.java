@@ -0,0 +1,38 @@
+package com.example.websocketbroker.model;
+
+import com.example.websocketbroker.stomp.StompFrameEncoder;
+
+/**
+ * A topic resolved to everything the send and subscribe paths need, so
+ * they don't format or encode anything per message. Destinations are
+ * created once per topic by the {@code TopicRegistry} and shared by all
+ * tenants and connections.
+ *
+ * @param topic the topic name
+ * @param destination the STOMP destination of the topic
+ * @param subscriptionId the id the broker subscription of the topic uses
+ * @param sendHeaders the encoded start of SEND frames to the destination
+ * @author Tobias Andraschko
+ */
+public record Destination(
+  String topic,
+  String destination,
+  String subscriptionId,
+  byte[] sendHeaders
+) {
+  /**
+   * Resolves a topic.
+   *
+   * @param topic the topic name
+   * @return the destination of the topic
+   */
+  public static Destination of(String topic) {
+    String destination = "/topic/" + topic;
+    return new Destination(
+      topic,
+      destination,
+      "topic-" + topic,
+      StompFrameEncoder.sendHeaders(destination)
+    );
+  }
+}
@@ -7,13 +7,15 @@ import lombok.Data;
  * Represents a message in the WebSocket broker. This class holds
  * information about the message content, its timestamp
  * and the custom user ID associated with the
- * message.
+ * message, and its id, which is null for messages persisted before ids
+ * were assigned.
  *
  * @author Tobias Andraschko
  */
 @Data
 public class MessageData {
 
+  private Long id;
   private LocalDateTime timestamp;
   private String message;
   private String customUserId;
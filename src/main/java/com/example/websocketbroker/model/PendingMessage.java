@@ -0,0 +1,19 @@
+package com.example.websocketbroker.model;
+
+/**
+ * A message accepted by a {@link BrokerConnection} which hasn't been
+ * written to the broker yet, kept so it can be sent again through another
+ * channel.
+ *
+ * @param destination the destination to send the message to
+ * @param message the message content
+ * @param userId the ID of the user sending the message
+ * @param persistedId the id the message was persisted with, 0 for none
+ * @author Tobias Andraschko
+ */
+public record PendingMessage(
+  Destination destination,
+  String message,
+  String userId,
+  long persistedId
+) {}
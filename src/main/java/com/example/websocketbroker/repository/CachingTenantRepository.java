@@ -0,0 +1,127 @@
+package com.example.websocketbroker.repository;
+
+import com.example.websocketbroker.config.ThreadFactories;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Caching decorator of the tenant source, injected wherever a
+ * {@link TenantRepository} is needed.
+ * <p>
+ * A loaded tenant list is used for the configured TTL. Once a list is
+ * older than the refresh-ahead fraction of the TTL, the next lookup
+ * triggers a reload in the background and keeps returning the cached
+ * list meanwhile, so callers on the hot path normally never wait for the
+ * source. Only a list older than the full TTL is reloaded synchronously.
+ * If a reload fails, the stale list is used for another TTL.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+@Primary
+@Repository
+public class CachingTenantRepository implements TenantRepository {
+
+  private record Snapshot(List<String> tenants, Set<String> tenantSet, long loadedAtNanos) {}
+
+  private final TenantRepository source;
+  private final long ttlNanos;
+  private final long refreshAheadNanos;
+  private final ThreadFactory refreshThreadFactory;
+
+  private final ReentrantLock loadLock = new ReentrantLock();
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private volatile Snapshot snapshot;
+
+  /**
+   * Creates the cache.
+   *
+   * @param source the repository to cache
+   * @param ttlMillis the time a loaded tenant list is used
+   * @param refreshAhead the fraction of the TTL after which the list is
+   *        reloaded in the background
+   * @param virtualThreads whether to reload on virtual threads
+   */
+  public CachingTenantRepository(
+    @Qualifier("inMemoryTenantRepository") TenantRepository source,
+    @Value("${tenants.cache.ttl}") long ttlMillis,
+    @Value("${tenants.cache.refresh-ahead}") double refreshAhead,
+    @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads
+  ) {
+    this.source = source;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.refreshAheadNanos = (long) (ttlNanos * refreshAhead);
+    this.refreshThreadFactory =
+      ThreadFactories.named("tenant-refresh", virtualThreads);
+  }
+
+  @Override
+  public List<String> findAllTenants() {
+    return current().tenants();
+  }
+
+  @Override
+  public boolean exists(String tenant) {
+    return tenant != null && current().tenantSet().contains(tenant);
+  }
+
+  private Snapshot current() {
+    Snapshot cached = snapshot;
+    if (cached == null) return load(null);
+
+    long age = System.nanoTime() - cached.loadedAtNanos();
+    if (age >= ttlNanos) return load(cached);
+    if (age >= refreshAheadNanos && refreshing.compareAndSet(false, true)) {
+      refreshThreadFactory
+        .newThread(() -> {
+          try {
+            reload(cached);
+          } finally {
+            refreshing.set(false);
+          }
+        })
+        .start();
+    }
+    return cached;
+  }
+
+  private Snapshot load(Snapshot expired) {
+    loadLock.lock();
+    try {
+      // Another thread may have loaded it while we were waiting.
+      Snapshot cached = snapshot;
+      if (cached != null && cached != expired) return cached;
+      return reload(expired);
+    } finally {
+      loadLock.unlock();
+    }
+  }
+
+  private Snapshot reload(Snapshot stale) {
+    try {
+      List<String> tenants = List.copyOf(source.findAllTenants());
+      Snapshot loaded = new Snapshot(tenants, Set.copyOf(tenants), System.nanoTime());
+      snapshot = loaded;
+      return loaded;
+    } catch (RuntimeException e) {
+      if (stale == null) throw e;
+      log.error("Error reloading tenants, keeping cached list: {}", e.getMessage());
+      Snapshot retained = new Snapshot(
+        stale.tenants(),
+        stale.tenantSet(),
+        System.nanoTime()
+      );
+      snapshot = retained;
+      return retained;
+    }
+  }
+}
@@ -1,25 +1,30 @@
 package com.example.websocketbroker.repository;
 
-import java.util.Arrays;
 import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 /**
  * In-memory implementation of the TenantRepository interface.
- * This class simulates a database request by returning a fixed list of tenants.
+ * This class simulates a database request by returning the tenants
+ * configured under {@code tenants.in-memory}.
  *
  * @author Tobias Andraschko
  */
 @Repository
 public class InMemoryTenantRepository implements TenantRepository {
 
+  @Value("${tenants.in-memory}")
+  private List<String> tenants;
+
   /**
-   * Simulates a database request by returning a fixed list of tenants.
+   * Simulates a database request by returning the configured tenants.
    *
-   * @return a list containing "tenant1" and "tenant2".
+   * @return a list of the configured tenants, by default "tenant1" and
+   *         "tenant2".
    */
   @Override
   public List<String> findAllTenants() {
-    return Arrays.asList("tenant1", "tenant2");
+    return tenants;
   }
 }
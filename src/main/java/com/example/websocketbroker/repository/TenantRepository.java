@@ -14,4 +14,14 @@ public interface TenantRepository {
    * @return a list of tenant identifiers.
    */
   List<String> findAllTenants();
+
+  /**
+   * Checks whether a tenant exists.
+   *
+   * @param tenant the tenant identifier
+   * @return true if the tenant exists, false otherwise
+   */
+  default boolean exists(String tenant) {
+    return tenant != null && findAllTenants().contains(tenant);
+  }
 }
@@ -1,15 +1,33 @@
 package com.example.websocketbroker.service;
 
-import com.example.websocketbroker.model.BrokerConnection;
+import com.example.websocketbroker.config.ThreadFactories;
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import com.example.websocketbroker.model.Destination;
 import com.example.websocketbroker.repository.TenantRepository;
-import java.util.List;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 /**
  * Service for broadcasting messages to tenants at regular intervals.
+ * <p>
+ * A broadcast first stores the messages of all tenants in pipelined
+ * batches, then hands the sends to a pool of
+ * {@code broadcast.max-concurrency} threads, so a tenant whose outbound
+ * queue is full doesn't hold up the others. With a {@code broadcast.stagger}
+ * above zero the sends are spread evenly over that fraction of the
+ * interval instead of arriving at the broker as one burst. A cycle that
+ * is still running when the next one is due makes the next one skip.
  *
  * @author Tobias Andraschko
  */
@@ -18,33 +36,147 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 public class BroadcastService {
 
+  private static final String TOPIC = "news";
+  private static final String USER_ID = "SYSTEM";
+
   private final BrokerConnectionManager brokerConnectionManager;
   private final RedisManager redisManager;
   private final TenantRepository tenantRepository;
+  private final TopicRegistry topicRegistry;
+  private final MessagingMetrics messagingMetrics;
+  private final SubscriptionIndex subscriptionIndex;
+
+  @Value("${broadcast.interval}")
+  private long intervalMillis;
+
+  @Value("${broadcast.max-concurrency}")
+  private int maxConcurrency;
+
+  @Value("${broadcast.stagger}")
+  private double stagger;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+  private ScheduledThreadPoolExecutor executor;
+
+  /**
+   * Starts the threads sending the broadcasts.
+   */
+  @PostConstruct
+  public void init() {
+    executor =
+      new ScheduledThreadPoolExecutor(
+        maxConcurrency,
+        ThreadFactories.named("broadcast", virtualThreads)
+      );
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
 
   /**
-   * Broadcasts news to all tenants every 60 seconds.
-   * The message includes a tenant identifier.
+   * Stops the threads, dropping the sends of a staggered cycle in
+   * progress.
    */
-  @Scheduled(fixedRate = 60000)
+  @PreDestroy
+  public void cleanup() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Broadcasts news to all tenants every {@code broadcast.interval} ms.
+   * The message includes a tenant identifier. It is stored for every
+   * tenant using the news topic, but only sent to tenants with sessions
+   * connected to this instance, so the broadcast doesn't keep the broker
+   * connections of tenants without clients open. The send opens the
+   * tenant's connection if needed, and a connection that is still
+   * connecting or reconnecting keeps it in its outbox. If storing fails,
+   * the cycle sends nothing.
+   */
+  @Scheduled(fixedRateString = "${broadcast.interval}")
   public void broadcastNews() {
-    List<String> tenants = tenantRepository.findAllTenants();
+    if (!running.compareAndSet(false, true)) {
+      messagingMetrics.broadcastsSkipped().increment();
+      log.warn("Previous broadcast still running, skipped this one");
+      return;
+    }
+    long start = System.nanoTime();
+
+    Map<String, Destination> destinations = new LinkedHashMap<>();
+    Map<String, String> messages = new LinkedHashMap<>();
+    for (String tenant : tenantRepository.findAllTenants()) {
+      Destination destination = topicRegistry.resolve(tenant, TOPIC);
+      if (destination == null) continue;
 
-    tenants.forEach(tenant -> {
-      String message = String.format("Broadcast from %s", tenant);
-      String userId = "SYSTEM";
+      destinations.put(tenant, destination);
+      messages.put(tenant, String.format("Broadcast from %s", tenant));
+    }
+    if (messages.isEmpty()) {
+      complete(start);
+      return;
+    }
 
-      redisManager.storeMessage(tenant, "news", userId, message);
+    // A broadcast that isn't stored isn't sent either, so every broadcast a
+    // client receives has an id it can resume from.
+    Map<String, Long> ids;
+    try {
+      ids = redisManager.storeMessages(TOPIC, USER_ID, messages);
+    } catch (RuntimeException e) {
+      log.error(
+        "Failed to store broadcast for {} tenants, skipped sending it",
+        messages.size(),
+        e
+      );
+      complete(start);
+      return;
+    }
 
-      BrokerConnection brokerConnection = brokerConnectionManager.getBrokerConnection(
+    int tenants = messages.size();
+    long windowNanos = (long) (TimeUnit.MILLISECONDS.toNanos(intervalMillis) * stagger);
+    AtomicInteger remaining = new AtomicInteger(tenants);
+    int index = 0;
+    for (Map.Entry<String, String> entry : messages.entrySet()) {
+      String tenant = entry.getKey();
+      Destination destination = destinations.get(tenant);
+      long id = ids.get(tenant);
+      long delayNanos = windowNanos * index++ / tenants;
+      executor.schedule(
+        () -> {
+          try {
+            send(tenant, destination, entry.getValue(), id);
+          } catch (RuntimeException e) {
+            log.error("Failed to send broadcast to tenant: {}", tenant, e);
+          } finally {
+            if (remaining.decrementAndGet() == 0) {
+              complete(start);
+            }
+          }
+        },
+        delayNanos,
+        TimeUnit.NANOSECONDS
+      );
+    }
+  }
+
+  private void send(String tenant, Destination destination, String message, long id) {
+    if (subscriptionIndex.sessionCount(tenant) == 0) {
+      log.debug("No sessions of tenant {}, broadcast only stored", tenant);
+      return;
+    }
+    if (brokerConnectionManager.sendMessage(tenant, destination, message, USER_ID, id)) {
+      log.debug("Sent broadcast to tenant {}: {}", tenant, message);
+    } else {
+      log.error(
+        "Outbound queue or outbox full, dropped broadcast for tenant: {}",
         tenant
       );
-      if (brokerConnection != null && brokerConnection.isConnected()) {
-        brokerConnection.sendMessage("news", message, userId);
-        log.debug("Sent broadcast to tenant {}: {}", tenant, message);
-      } else {
-        log.error("No active broker connection for tenant: {}", tenant);
-      }
-    });
+    }
+  }
+
+  private void complete(long start) {
+    messagingMetrics
+      .broadcastCycleTimer()
+      .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    running.set(false);
   }
 }
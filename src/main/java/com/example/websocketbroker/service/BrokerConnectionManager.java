@@ -1,18 +1,58 @@
 package com.example.websocketbroker.service;
 
+import com.example.websocketbroker.codec.PayloadCompressor;
+import com.example.websocketbroker.config.BrokerPoolProperties;
+import com.example.websocketbroker.config.CompressionProperties;
+import com.example.websocketbroker.config.ThreadFactories;
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import com.example.websocketbroker.metrics.TenantMetrics;
 import com.example.websocketbroker.model.BrokerConnection;
+import com.example.websocketbroker.model.BrokerConnectionSettings;
+import com.example.websocketbroker.model.BrokerSubscriber;
+import com.example.websocketbroker.model.Destination;
 import com.example.websocketbroker.repository.TenantRepository;
+import com.example.websocketbroker.stomp.StompFrame.MessageFrame;
+import com.example.websocketbroker.transport.Backoff;
+import com.example.websocketbroker.transport.ConnectAdmission;
+import com.example.websocketbroker.transport.EventLoopGroup;
+import com.example.websocketbroker.transport.OutboundQueue.OverflowPolicy;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 /**
- * Manages broker connections for each tenant.
+ * Manages broker connections for each tenant. All connections share the
+ * event loops of the {@link EventLoopGroup}, so adding tenants doesn't
+ * add threads. Each tenant's connection pools as many sockets as its
+ * {@link BrokerPoolProperties} allow.
+ * <p>
+ * Connections are opened lazily on a tenant's first use rather than for
+ * all tenants on startup, and closed again once they have been idle for
+ * the configured time. How many connection attempts (including
+ * reconnects) run at once is bounded by a shared {@link ConnectAdmission},
+ * so a burst of first uses or a broker restart doesn't flood the broker.
+ * <p>
+ * Each connection subscribes to the tenant's topics in the
+ * {@link TopicRegistry} and follows when they are changed. With the
+ * {@link LocalFanOut} enabled, it only subscribes to the topics with local
+ * subscribers in the {@link SubscriptionIndex} and hands the received
+ * messages to the fan-out. A tenant's first local subscription then
+ * opens its connection, which isn't closed as idle while it has
+ * subscribers.
+ * <p>
+ * With {@code compression.broker} set, large message bodies are sent to
+ * the broker compressed. This requires the local fan-out, as relayed
+ * messages reach the clients as they are, so it is ignored otherwise.
  *
  * @author Tobias Andraschko
  */
@@ -23,18 +63,101 @@ public class BrokerConnectionManager {
 
   private final Map<String, BrokerConnection> brokerConnections = new ConcurrentHashMap<>();
   private final TenantRepository tenantRepository;
+  private final EventLoopGroup eventLoopGroup;
+  private final BrokerPoolProperties poolProperties;
+  private final MessagingMetrics messagingMetrics;
+  private final TopicRegistry topicRegistry;
+  private final SubscriptionIndex subscriptionIndex;
+  private final LocalFanOut localFanOut;
+  private final CompressionProperties compressionProperties;
+
+  @Value("${websocket.relay.host}")
+  private String relayHost;
+
+  @Value("${websocket.relay.port}")
+  private int relayPort;
+
+  @Value("${websocket.relay.outbound.queue-capacity}")
+  private int outboundQueueCapacity;
+
+  @Value("${websocket.relay.outbound.overflow-policy}")
+  private OverflowPolicy overflowPolicy;
+
+  @Value("${websocket.relay.outbound.block-timeout}")
+  private long blockTimeoutMillis;
+
+  @Value("${websocket.relay.outbound.max-batch-bytes}")
+  private int maxBatchBytes;
+
+  @Value("${websocket.relay.reconnect.initial-delay}")
+  private long reconnectInitialDelayMillis;
+
+  @Value("${websocket.relay.reconnect.max-delay}")
+  private long reconnectMaxDelayMillis;
+
+  @Value("${websocket.relay.reconnect.failure-threshold}")
+  private int failureThreshold;
+
+  @Value("${websocket.relay.reconnect.open-duration}")
+  private long openMillis;
+
+  @Value("${websocket.relay.outbox.capacity}")
+  private int outboxCapacity;
+
+  @Value("${websocket.relay.outbox.retry-initial-delay}")
+  private long outboxRetryInitialDelayMillis;
+
+  @Value("${websocket.relay.outbox.retry-max-delay}")
+  private long outboxRetryMaxDelayMillis;
+
+  @Value("${websocket.heartbeat.send.interval}")
+  private long heartbeatSendMillis;
+
+  @Value("${websocket.heartbeat.receive.interval}")
+  private long heartbeatReceiveMillis;
+
+  @Value("${websocket.relay.lifecycle.max-concurrent-connects}")
+  private int maxConcurrentConnects;
+
+  @Value("${websocket.relay.lifecycle.idle-timeout}")
+  private long idleTimeoutMillis;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  private BrokerConnectionSettings settings;
+  private ConnectAdmission connectAdmission;
+  private ThreadFactory replayThreadFactory;
 
   /**
-   * Initializes broker connections for all tenants.
+   * Prepares the connection settings and starts following topic and
+   * subscription changes. No connections are opened yet.
    */
   @PostConstruct
   public void init() {
-    List<String> tenants = tenantRepository.findAllTenants();
-    tenants.forEach(tenant -> {
-      BrokerConnection broker = new BrokerConnection(tenant);
-      brokerConnections.put(tenant, broker);
-      broker.connect();
-    });
+    settings = new BrokerConnectionSettings(
+      new InetSocketAddress(relayHost, relayPort),
+      outboundQueueCapacity,
+      overflowPolicy,
+      blockTimeoutMillis,
+      maxBatchBytes,
+      new Backoff(reconnectInitialDelayMillis, reconnectMaxDelayMillis),
+      failureThreshold,
+      openMillis,
+      outboxCapacity,
+      new Backoff(outboxRetryInitialDelayMillis, outboxRetryMaxDelayMillis),
+      heartbeatSendMillis,
+      heartbeatReceiveMillis
+    );
+    connectAdmission = new ConnectAdmission(maxConcurrentConnects);
+    replayThreadFactory = ThreadFactories.named("outbox-replay", virtualThreads);
+    if (compressionProperties.isBroker() && !localFanOut.isEnabled()) {
+      log.warn("Ignoring compression.broker, which requires websocket.fan-out LOCAL");
+    }
+    topicRegistry.addListener(this::refreshSubscriptions);
+    if (localFanOut.isEnabled()) {
+      subscriptionIndex.addListener(this::refreshSubscriptions);
+    }
   }
 
   /**
@@ -46,12 +169,153 @@ public class BrokerConnectionManager {
   }
 
   /**
-   * Retrieves the broker connection for a specific tenant.
+   * Retrieves the broker connection for a specific tenant, opening it if
+   * the tenant has none yet. The connection is returned right away, even
+   * while it is still connecting; messages sent to it in the meantime are
+   * kept in its outbox. A connection closed as idle concurrently is
+   * replaced by a fresh one.
    *
    * @param tenant the tenant identifier
-   * @return the BrokerConnection for the specified tenant
+   * @return the BrokerConnection for the specified tenant, or null if the
+   *         tenant is unknown
    */
   public BrokerConnection getBrokerConnection(String tenant) {
-    return brokerConnections.get(tenant);
+    if (!tenantRepository.exists(tenant)) return null;
+
+    while (true) {
+      BrokerConnection broker = brokerConnections.computeIfAbsent(
+        tenant,
+        this::openConnection
+      );
+      if (broker.touch()) return broker;
+      brokerConnections.remove(tenant, broker);
+    }
+  }
+
+  /**
+   * Sends a message through the broker connection of a tenant, opening it
+   * if needed. If the connection is closed between being retrieved and
+   * sending, the message is sent through a fresh one.
+   *
+   * @param tenant the tenant identifier
+   * @param destination the destination to send the message to
+   * @param message the message content
+   * @param userId the ID of the user sending the message
+   * @param persistedId the id the message was persisted with, 0 for none
+   * @return true if the message was queued, false if the tenant is unknown
+   *         or the message was rejected by the outbound queue or the outbox
+   */
+  public boolean sendMessage(
+    String tenant,
+    Destination destination,
+    String message,
+    String userId,
+    long persistedId
+  ) {
+    while (true) {
+      BrokerConnection broker = getBrokerConnection(tenant);
+      if (broker == null) return false;
+      if (broker.sendMessage(destination, message, userId, persistedId)) return true;
+      if (!broker.isClosed()) return false;
+    }
+  }
+
+  /**
+   * Closes the connections which haven't been used for the idle timeout,
+   * unless their tenant still has sessions connected to this instance.
+   * They are opened again on their tenant's next use. A connection used
+   * while it is being checked stays open, and one whose tenant got a local
+   * subscriber meanwhile is opened again right away.
+   */
+  @Scheduled(fixedDelayString = "${websocket.relay.lifecycle.eviction-interval}")
+  public void evictIdleConnections() {
+    if (idleTimeoutMillis <= 0) return;
+
+    brokerConnections.forEach((tenant, broker) -> {
+      if (
+        !subscriptionIndex.hasSubscribers(tenant) &&
+        subscriptionIndex.sessionCount(tenant) == 0 &&
+        broker.closeIfIdle(idleTimeoutMillis)
+      ) {
+        brokerConnections.remove(tenant, broker);
+        log.info("Closing idle broker connection for tenant: {}", tenant);
+        close(tenant, broker);
+        // A first subscription may have come in after the check, and its
+        // refresh gone to the connection just closed; this opens a new one.
+        refreshSubscriptions(tenant);
+      }
+    });
+  }
+
+  /**
+   * Closes the broker connection of a tenant, if it is open.
+   *
+   * @param tenant the tenant identifier
+   */
+  public void closeConnection(String tenant) {
+    BrokerConnection broker = brokerConnections.remove(tenant);
+    if (broker != null) {
+      log.info("Closing broker connection for tenant: {}", tenant);
+      close(tenant, broker);
+    }
+  }
+
+  private void refreshSubscriptions(String tenant) {
+    BrokerConnection broker = brokerConnections.get(tenant);
+    if (broker != null) {
+      broker.refreshSubscriptions();
+    } else if (
+      localFanOut.isEnabled() &&
+      subscriptionIndex.hasSubscribers(tenant) &&
+      tenantRepository.exists(tenant)
+    ) {
+      brokerConnections.computeIfAbsent(tenant, this::openConnection);
+    }
+  }
+
+  private BrokerConnection openConnection(String tenant) {
+    log.info("Opening broker connection for tenant: {}", tenant);
+    TenantMetrics metrics = messagingMetrics.forTenant(tenant);
+    BrokerConnection broker = new BrokerConnection(
+      tenant,
+      settings,
+      poolProperties.poolSizeFor(tenant),
+      eventLoopGroup,
+      connectAdmission,
+      metrics,
+      compressionProperties.isBroker() && localFanOut.isEnabled()
+        ? compressionProperties.compressorFor(tenant)
+        : PayloadCompressor.NONE,
+      subscriber(tenant),
+      replayThreadFactory
+    );
+    metrics.track(broker);
+    broker.connect();
+    return broker;
+  }
+
+  private BrokerSubscriber subscriber(String tenant) {
+    return new BrokerSubscriber() {
+      @Override
+      public Collection<Destination> topics() {
+        Collection<Destination> topics = topicRegistry.destinations(tenant);
+        if (!localFanOut.isEnabled()) return topics;
+
+        Set<String> subscribed = subscriptionIndex.subscribedTopics(tenant);
+        return topics.stream().filter(d -> subscribed.contains(d.topic())).toList();
+      }
+
+      @Override
+      public void onMessage(Destination destination, MessageFrame frame) {
+        if (localFanOut.isEnabled()) {
+          localFanOut.deliver(tenant, destination, frame);
+        }
+      }
+    };
+  }
+
+  private void close(String tenant, BrokerConnection broker) {
+    messagingMetrics.forTenant(tenant).untrack(broker);
+    broker.disconnect();
   }
 }
@@ -0,0 +1,64 @@
+package com.example.websocketbroker.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring assigning keys to named nodes. Each node is
+ * placed on the ring at a number of virtual points and a key belongs to
+ * the node of the next point after its hash, so keys spread evenly and
+ * adding or removing a node only moves the keys next to that node's
+ * points.
+ *
+ * @author Tobias Andraschko
+ */
+public class ConsistentHashRing {
+
+  private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+  /**
+   * Creates the ring.
+   *
+   * @param nodes the node names
+   * @param virtualNodes the number of points per node
+   */
+  public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("A hash ring needs at least one node");
+    }
+    for (String node : nodes) {
+      for (int i = 0; i < Math.max(1, virtualNodes); i++) {
+        ring.put(hash(node + "#" + i), node);
+      }
+    }
+  }
+
+  /**
+   * Returns the node a key belongs to.
+   *
+   * @param key the key
+   * @return the node name
+   */
+  public String nodeFor(String key) {
+    Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+    return (entry != null ? entry : ring.firstEntry()).getValue();
+  }
+
+  // FNV-1a, finished with the MurmurHash3 mix so similar keys spread.
+  static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,352 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.model.Destination;
+import com.example.websocketbroker.model.MessageData;
+import com.example.websocketbroker.service.SubscriptionIndex.Subscriber;
+import com.example.websocketbroker.stomp.StompFrame.MessageFrame;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+/**
+ * Delivers the messages of the tenants' broker connections to the local
+ * WebSocket sessions, as an alternative to Spring's STOMP broker relay.
+ * <p>
+ * In {@code RELAY} mode every WebSocket session gets its own relay
+ * connection to the broker. In {@code LOCAL} mode the sessions'
+ * subscriptions are kept in the {@link SubscriptionIndex} instead, and
+ * each tenant's {@code BrokerConnection} subscribes once per topic that
+ * has local subscribers. Every message it receives is fanned out to the
+ * subscribed sessions through the client outbound channel, so the number
+ * of broker connections grows with the tenants rather than the clients.
+ * <p>
+ * As there is no broker behind the sessions' subscriptions anymore, the
+ * fan-out answers their receipt requests itself.
+ * <p>
+ * The sessions and subscriptions are indexed in both modes, as the index
+ * also backs presence and the session limit; only the delivery and the
+ * receipts are limited to {@code LOCAL} mode.
+ * <p>
+ * The fan-out also sends the messages the {@link MessageReplay} reads for
+ * a resuming subscription. While they are read, the subscription's live
+ * messages are held back, and afterwards only those that weren't
+ * replayed are sent, so the client gets the gap and then the live
+ * messages in order.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+@Service
+public class LocalFanOut {
+
+  /**
+   * How messages from the broker reach the WebSocket sessions.
+   */
+  public enum FanOutMode {
+    RELAY,
+    LOCAL,
+  }
+
+  private record HeldMessage(long persistedId, Message<byte[]> message) {}
+
+  private static final MimeType TEXT_PLAIN = new MimeType(
+    "text",
+    "plain",
+    StandardCharsets.UTF_8
+  );
+
+  private final SubscriptionIndex subscriptionIndex;
+  private final MessageChannel clientOutboundChannel;
+  private final FanOutMode mode;
+  private final int holdCapacity;
+
+  private final Map<Subscriber, List<HeldMessage>> held = new ConcurrentHashMap<>();
+
+  /**
+   * Creates the fan-out.
+   *
+   * @param subscriptionIndex the index of the local subscriptions
+   * @param clientOutboundChannel the channel to the WebSocket sessions
+   * @param mode the configured fan-out mode
+   * @param holdCapacity the live messages held back per subscription
+   *                     during its replay
+   */
+  public LocalFanOut(
+    SubscriptionIndex subscriptionIndex,
+    @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+    @Value("${websocket.fan-out}") FanOutMode mode,
+    @Value("${replay.hold-capacity}") int holdCapacity
+  ) {
+    this.subscriptionIndex = subscriptionIndex;
+    this.clientOutboundChannel = clientOutboundChannel;
+    this.mode = mode;
+    this.holdCapacity = holdCapacity;
+  }
+
+  /**
+   * Checks whether messages are fanned out locally.
+   *
+   * @return true in {@code LOCAL} mode
+   */
+  public boolean isEnabled() {
+    return mode == FanOutMode.LOCAL;
+  }
+
+  /**
+   * Indexes a session whose CONNECT frame has been accepted.
+   *
+   * @param event the connect event
+   */
+  @EventListener
+  public void onConnect(SessionConnectEvent event) {
+    StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+    subscriptionIndex.connect(
+      accessor.getSessionId(),
+      tenant(accessor),
+      event.getUser() != null ? event.getUser().getName() : null
+    );
+  }
+
+  /**
+   * Indexes a session's subscription to one of its tenant's topics and,
+   * in {@code LOCAL} mode, confirms it if the client asked for a receipt.
+   * If the client resumes from a last seen id, the subscription's live
+   * messages are held back until its replay completes. Runs before the
+   * replay is started.
+   *
+   * @param event the subscribe event
+   */
+  @EventListener
+  @Order(Ordered.HIGHEST_PRECEDENCE)
+  public void onSubscribe(SessionSubscribeEvent event) {
+    StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+    String tenant = tenant(accessor);
+    Subscriber subscriber = new Subscriber(
+      accessor.getSessionId(),
+      accessor.getSubscriptionId()
+    );
+    if (isEnabled() && MessageReplay.lastSeenId(accessor) >= 0) {
+      held.put(subscriber, new ArrayList<>());
+    }
+    boolean indexed = subscriptionIndex.subscribe(
+      accessor.getSessionId(),
+      tenant,
+      event.getUser() != null ? event.getUser().getName() : null,
+      accessor.getSubscriptionId(),
+      accessor.getDestination()
+    );
+    if (!indexed) {
+      held.remove(subscriber);
+      log.debug(
+        "Ignored subscription of tenant {} to {}",
+        tenant,
+        accessor.getDestination()
+      );
+    }
+    if (isEnabled()) {
+      sendReceipt(accessor);
+    }
+  }
+
+  /**
+   * Removes a session's subscription.
+   *
+   * @param event the unsubscribe event
+   */
+  @EventListener
+  public void onUnsubscribe(SessionUnsubscribeEvent event) {
+    StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+    subscriptionIndex.unsubscribe(accessor.getSessionId(), accessor.getSubscriptionId());
+    if (!isEnabled()) return;
+
+    held.remove(new Subscriber(accessor.getSessionId(), accessor.getSubscriptionId()));
+    sendReceipt(accessor);
+  }
+
+  /**
+   * Removes a closed session and all its subscriptions.
+   *
+   * @param event the disconnect event
+   */
+  @EventListener
+  public void onDisconnect(SessionDisconnectEvent event) {
+    subscriptionIndex.removeSession(event.getSessionId());
+    held.keySet().removeIf(subscriber -> subscriber.sessionId().equals(event.getSessionId()));
+  }
+
+  /**
+   * Fans a message received from a tenant's broker connection out to the
+   * local subscribers of its topic. Called on the event loop thread; the
+   * messages are only handed to the client outbound channel, or held back
+   * for subscribers whose replay is still running.
+   *
+   * @param tenant the tenant identifier
+   * @param destination the destination the message was received for
+   * @param frame the received message
+   */
+  public void deliver(String tenant, Destination destination, MessageFrame frame) {
+    Set<Subscriber> subscribers = subscriptionIndex.subscribers(
+      tenant,
+      destination.topic()
+    );
+    if (subscribers.isEmpty()) return;
+
+    // One copy of the body, shared by the messages to all subscribers.
+    byte[] payload = new byte[frame.body().remaining()];
+    frame.body().duplicate().get(payload);
+
+    long persistedId = parseId(frame.persistedId());
+    for (Subscriber subscriber : subscribers) {
+      Message<byte[]> message = message(
+        subscriber,
+        destination.destination(),
+        frame.customUserId(),
+        frame.persistedId(),
+        payload
+      );
+      if (held.isEmpty() || !hold(subscriber, persistedId, message)) {
+        clientOutboundChannel.send(message);
+      }
+    }
+  }
+
+  /**
+   * Sends the messages replayed for a subscription, then the live messages
+   * held back in the meantime which are newer than the replayed ones.
+   *
+   * @param subscriber the resuming subscription
+   * @param destination the destination subscribed to
+   * @param lastSeenId the last id the client has seen
+   * @param messages the replayed messages, ordered by id
+   */
+  public void completeReplay(
+    Subscriber subscriber,
+    String destination,
+    long lastSeenId,
+    Collection<MessageData> messages
+  ) {
+    long replayedUpTo = lastSeenId;
+    List<Message<byte[]>> replayed = new ArrayList<>(messages.size());
+    for (MessageData data : messages) {
+      replayed.add(
+        message(
+          subscriber,
+          destination,
+          data.getCustomUserId(),
+          String.valueOf(data.getId()),
+          data.getMessage().getBytes(StandardCharsets.UTF_8)
+        )
+      );
+      replayedUpTo = Math.max(replayedUpTo, data.getId());
+    }
+
+    long sentUpTo = replayedUpTo;
+    boolean[] released = new boolean[1];
+    // Sent inside the compute, so new live messages wait until the held
+    // ones have been sent.
+    held.computeIfPresent(
+      subscriber,
+      (s, heldMessages) -> {
+        replayed.forEach(clientOutboundChannel::send);
+        for (HeldMessage heldMessage : heldMessages) {
+          if (heldMessage.persistedId() <= 0 || heldMessage.persistedId() > sentUpTo) {
+            clientOutboundChannel.send(heldMessage.message());
+          }
+        }
+        released[0] = true;
+        return null;
+      }
+    );
+    if (!released[0]) {
+      replayed.forEach(clientOutboundChannel::send);
+    }
+  }
+
+  private static String tenant(StompHeaderAccessor accessor) {
+    return accessor.getSessionAttributes() != null
+      ? (String) accessor.getSessionAttributes().get("tenant")
+      : null;
+  }
+
+  private void sendReceipt(StompHeaderAccessor request) {
+    if (request.getReceipt() == null) return;
+
+    StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.RECEIPT);
+    accessor.setSessionId(request.getSessionId());
+    accessor.setReceiptId(request.getReceipt());
+    clientOutboundChannel.send(
+      MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders())
+    );
+  }
+
+  private boolean hold(Subscriber subscriber, long persistedId, Message<byte[]> message) {
+    List<HeldMessage> heldMessages = held.computeIfPresent(
+      subscriber,
+      (s, messages) -> {
+        if (messages.size() < holdCapacity) {
+          messages.add(new HeldMessage(persistedId, message));
+        } else {
+          log.warn("Dropped live message held back during the replay of {}", s);
+        }
+        return messages;
+      }
+    );
+    return heldMessages != null;
+  }
+
+  private static long parseId(String persistedId) {
+    if (persistedId == null) return 0;
+    try {
+      return Long.parseLong(persistedId);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static Message<byte[]> message(
+    Subscriber subscriber,
+    String destination,
+    String customUserId,
+    String persistedId,
+    byte[] payload
+  ) {
+    SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(
+      SimpMessageType.MESSAGE
+    );
+    accessor.setSessionId(subscriber.sessionId());
+    accessor.setSubscriptionId(subscriber.subscriptionId());
+    accessor.setDestination(destination);
+    accessor.setContentType(TEXT_PLAIN);
+    if (customUserId != null) {
+      accessor.setNativeHeader("custom-user-id", customUserId);
+    }
+    if (persistedId != null) {
+      accessor.setNativeHeader("persisted-id", persistedId);
+    }
+    accessor.setLeaveMutable(true);
+    return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+  }
+}
@@ -0,0 +1,49 @@
+package com.example.websocketbroker.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Service;
+
+/**
+ * Assigns the ids of persisted messages, increasing per tenant and topic.
+ * An id is the epoch millisecond it was assigned in times
+ * {@value #IDS_PER_MILLI}, plus a sequence for the messages of the same
+ * millisecond. Ids therefore keep increasing across restarts, and the
+ * ids assigned by different instances follow their clocks, so a client
+ * can resume from the last id it has seen on any instance.
+ * <p>
+ * Ids are only unique and in write order if a single instance writes each
+ * topic, as the sequence within a millisecond is kept per instance. Two
+ * instances writing the same topic may assign the same id, and their ids
+ * interleave in the order of their clocks rather than of the writes;
+ * replays only tolerate clock differences up to {@code replay.clock-skew}.
+ *
+ * @author Tobias Andraschko
+ */
+@Service
+public class MessageIds {
+
+  /**
+   * The number of ids per millisecond.
+   */
+  public static final long IDS_PER_MILLI = 1000;
+
+  private final Map<String, AtomicLong> lastIds = new ConcurrentHashMap<>();
+
+  /**
+   * Assigns the next id of a tenant's topic. If more than
+   * {@value #IDS_PER_MILLI} ids are assigned within a millisecond, the
+   * ids run ahead of the clock until it catches up.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic
+   * @return the id, greater than all ids assigned to the topic before
+   */
+  public long next(String tenant, String topic) {
+    long now = System.currentTimeMillis() * IDS_PER_MILLI;
+    return lastIds
+      .computeIfAbsent(tenant + ":" + topic, key -> new AtomicLong())
+      .accumulateAndGet(now, (last, candidate) -> Math.max(last + 1, candidate));
+  }
+}
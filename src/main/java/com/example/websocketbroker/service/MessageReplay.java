@@ -0,0 +1,272 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.codec.MessageCodecs;
+import com.example.websocketbroker.config.ThreadFactories;
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import com.example.websocketbroker.model.MessageData;
+import com.example.websocketbroker.service.SubscriptionIndex.Subscriber;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+/**
+ * Replays the messages a resuming client has missed. A client sends the
+ * id of the last message it has seen in the {@value #LAST_SEEN_ID} header
+ * of its SUBSCRIBE frame, and gets the newer messages of the topic from
+ * Redis before the live ones. Every message carries its id in the
+ * {@value #PERSISTED_ID} header.
+ * <p>
+ * The topic's list is read backwards from its newest message in pages of
+ * {@code replay.page-size}, until a message older than the last seen id is
+ * reached, so a replay costs in proportion to the missed messages rather
+ * than the list's length. As messages from different threads and
+ * instances aren't pushed in exactly the order of their ids, reading
+ * continues for {@code replay.clock-skew} ms of ids past the last seen
+ * one. At most {@code replay.max-messages} messages are replayed, the
+ * newest ones if more were missed.
+ * <p>
+ * Gaps the {@link RecentMessageCache} still holds completely are replayed
+ * from memory without reading Redis.
+ * <p>
+ * Replays run on a pool of {@code replay.max-concurrency} threads, so a
+ * reconnect storm queues up rather than occupying the inbound channel or
+ * Redis.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MessageReplay {
+
+  /**
+   * The SUBSCRIBE header carrying the last id a client has seen.
+   */
+  public static final String LAST_SEEN_ID = "last-seen-id";
+
+  /**
+   * The MESSAGE header carrying the id of a persisted message.
+   */
+  public static final String PERSISTED_ID = "persisted-id";
+
+  private static final String TOPIC_PREFIX = "/topic/";
+
+  private final RedisShards redisShards;
+  private final MessageCodecs messageCodecs;
+  private final RecentMessageCache recentMessageCache;
+  private final MessageRetention messageRetention;
+  private final TopicRegistry topicRegistry;
+  private final LocalFanOut localFanOut;
+  private final MessagingMetrics messagingMetrics;
+
+  @Value("${replay.page-size}")
+  private int pageSize;
+
+  @Value("${replay.max-messages}")
+  private int maxMessages;
+
+  @Value("${replay.clock-skew}")
+  private long clockSkewMillis;
+
+  @Value("${replay.max-concurrency}")
+  private int maxConcurrency;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  private ExecutorService executor;
+
+  /**
+   * Starts the threads running the replays.
+   */
+  @PostConstruct
+  public void init() {
+    executor =
+      Executors.newFixedThreadPool(
+        maxConcurrency,
+        ThreadFactories.named("replay", virtualThreads)
+      );
+  }
+
+  /**
+   * Stops the threads, dropping queued replays.
+   */
+  @PreDestroy
+  public void cleanup() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Reads the last seen id from a SUBSCRIBE frame.
+   *
+   * @param accessor the headers of the frame
+   * @return the last seen id, or -1 if there is none
+   */
+  public static long lastSeenId(StompHeaderAccessor accessor) {
+    String lastSeenId = accessor.getFirstNativeHeader(LAST_SEEN_ID);
+    if (lastSeenId == null) return -1;
+    try {
+      return Math.max(-1, Long.parseLong(lastSeenId.trim()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Starts the replay of a subscription with a last seen id. Runs after
+   * the subscription has been indexed, so no message falls between the
+   * replay and the live ones.
+   *
+   * @param event the subscribe event
+   */
+  @EventListener
+  @Order(Ordered.LOWEST_PRECEDENCE)
+  public void onSubscribe(SessionSubscribeEvent event) {
+    StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+    long lastSeenId = lastSeenId(accessor);
+    if (lastSeenId < 0) return;
+
+    String tenant = accessor.getSessionAttributes() != null
+      ? (String) accessor.getSessionAttributes().get("tenant")
+      : null;
+    String destination = accessor.getDestination();
+    Subscriber subscriber = new Subscriber(
+      accessor.getSessionId(),
+      accessor.getSubscriptionId()
+    );
+    if (
+      tenant == null ||
+      destination == null ||
+      !destination.startsWith(TOPIC_PREFIX) ||
+      topicRegistry.resolve(tenant, destination.substring(TOPIC_PREFIX.length())) == null
+    ) {
+      localFanOut.completeReplay(subscriber, destination, lastSeenId, List.of());
+      return;
+    }
+    String topic = destination.substring(TOPIC_PREFIX.length());
+    executor.execute(() -> replay(tenant, topic, subscriber, destination, lastSeenId));
+  }
+
+  private void replay(
+    String tenant,
+    String topic,
+    Subscriber subscriber,
+    String destination,
+    long lastSeenId
+  ) {
+    Collection<MessageData> messages = List.of();
+    try {
+      messages = readAfter(tenant, topic, lastSeenId);
+      messagingMetrics.replayedMessages(tenant).increment(messages.size());
+      log.debug(
+        "Replaying {} messages of tenant {} topic {} after {}",
+        messages.size(),
+        tenant,
+        topic,
+        lastSeenId
+      );
+    } catch (RuntimeException e) {
+      log.error("Error replaying tenant {} topic {}: {}", tenant, topic, e.getMessage());
+    } finally {
+      localFanOut.completeReplay(subscriber, destination, lastSeenId, messages);
+    }
+  }
+
+  /**
+   * Reads the messages of a tenant's topic newer than an id.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic
+   * @param lastSeenId the last id the client has seen
+   * @return the newer messages, ordered by id
+   */
+  Collection<MessageData> readAfter(String tenant, String topic, long lastSeenId) {
+    long stopAt = lastSeenId - clockSkewMillis * MessageIds.IDS_PER_MILLI;
+
+    // Keyed by id, which orders the messages and drops those read twice
+    // because new messages shifted the pages.
+    NavigableMap<Long, MessageData> newer = new TreeMap<>();
+    List<byte[]> cached = recentMessageCache.valuesAfter(
+      tenant,
+      topic,
+      stopAt,
+      messageRetention.retentionFor(tenant, topic).maxAge()
+    );
+    if (cached != null) {
+      for (byte[] value : cached) {
+        MessageData message = decode(value);
+        if (message != null && message.getId() != null && message.getId() > lastSeenId) {
+          newer.put(message.getId(), message);
+        }
+      }
+    } else {
+      readAfter(tenant, topic, lastSeenId, stopAt, newer);
+    }
+    while (newer.size() > maxMessages) {
+      newer.pollFirstEntry();
+    }
+    return newer.values();
+  }
+
+  private void readAfter(
+    String tenant,
+    String topic,
+    long lastSeenId,
+    long stopAt,
+    NavigableMap<Long, MessageData> newer
+  ) {
+    byte[] rawKey = String
+      .format("messages:%s:%s", tenant, topic)
+      .getBytes(StandardCharsets.UTF_8);
+    long end = -1;
+    boolean reachedLastSeen = false;
+    while (!reachedLastSeen && newer.size() < maxMessages) {
+      long pageEnd = end;
+      List<byte[]> page = redisShards
+        .templateFor(tenant)
+        .execute(
+          (RedisCallback<List<byte[]>>) connection ->
+            connection.listCommands().lRange(rawKey, pageEnd - pageSize + 1, pageEnd)
+        );
+      if (page == null || page.isEmpty()) break;
+
+      for (int i = page.size() - 1; i >= 0; i--) {
+        MessageData message = decode(page.get(i));
+        if (message == null) continue;
+        if (message.getId() == null || message.getId() <= stopAt) {
+          reachedLastSeen = true;
+        } else if (message.getId() > lastSeenId) {
+          newer.put(message.getId(), message);
+        }
+      }
+      if (page.size() < pageSize) break;
+      end -= pageSize;
+    }
+  }
+
+  private MessageData decode(byte[] value) {
+    try {
+      return messageCodecs.decode(value);
+    } catch (IOException e) {
+      log.warn("Skipping unreadable message in replay: {}", e.getMessage());
+      return null;
+    }
+  }
+}
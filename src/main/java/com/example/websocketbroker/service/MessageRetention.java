@@ -0,0 +1,263 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.codec.MessageCodecs;
+import com.example.websocketbroker.config.RetentionProperties;
+import com.example.websocketbroker.config.RetentionProperties.Limits;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Enforces the configured retention of the {@code messages:{tenant}:{topic}}
+ * lists in Redis.
+ * <p>
+ * The maximum count is enforced with an LTRIM issued in the same pipeline
+ * as the RPUSH that grows the list. The maximum age is enforced in two
+ * ways: every write refreshes the list's TTL to the maximum age, so a list
+ * that has been idle that long expires as a whole, and a periodic sweep
+ * trims expired messages from the head of lists that are still being
+ * written to. The sweep decides which head messages have expired in Java,
+ * where they can be decoded, and trims them with a script that only does
+ * so if the head is still the one it read; a write trimming the list in
+ * between makes it read the head again instead of trimming past it.
+ * <p>
+ * Each list is swept and migrated on the Redis node it is stored on.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MessageRetention {
+
+  /**
+   * The resolved retention of one message list.
+   *
+   * @param maxCount the maximum number of messages, zero for unlimited
+   * @param maxAge the maximum message age, zero for unlimited
+   */
+  public record Retention(long maxCount, Duration maxAge) {
+    public boolean limitsCount() {
+      return maxCount > 0;
+    }
+
+    public boolean limitsAge() {
+      return !maxAge.isZero();
+    }
+  }
+
+  private static final String KEY_PATTERN = "messages:*";
+  private static final int SWEEP_BATCH_SIZE = 100;
+  // Trims the values passed as arguments from the head of the list if they
+  // are still its head, returning how many were trimmed.
+  private static final byte[] TRIM_HEAD =
+    "local n = #ARGV local head = redis.call('LRANGE', KEYS[1], 0, n - 1) if #head < n then return 0 end for i = 1, n do if head[i] ~= ARGV[i] then return 0 end end redis.call('LTRIM', KEYS[1], n, -1) return n".getBytes(
+        StandardCharsets.UTF_8
+      );
+
+  private final RetentionProperties properties;
+  private final RedisShards redisShards;
+  private final MessageCodecs messageCodecs;
+
+  private final Map<String, Retention> retentionByKey = new ConcurrentHashMap<>();
+  private final Map<String, Retention> keysToSweep = new ConcurrentHashMap<>();
+
+  /**
+   * Resolves the retention of a tenant's topic.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic
+   * @return the retention of the topic's message list
+   */
+  public Retention retentionFor(String tenant, String topic) {
+    return retentionByKey.computeIfAbsent(
+      tenant + ":" + topic,
+      key -> resolve(tenant, topic)
+    );
+  }
+
+  /**
+   * Issues the commands enforcing the retention of a list that has just
+   * been written to. Meant to be called inside the pipeline of the write.
+   *
+   * @param connection the (pipelined) connection of the write
+   * @param key the key of the list
+   * @param retention the retention of the list
+   */
+  public void applyOnWrite(
+    RedisConnection connection,
+    String key,
+    Retention retention
+  ) {
+    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+    if (retention.limitsCount()) {
+      connection.listCommands().lTrim(rawKey, -retention.maxCount(), -1);
+    }
+    if (retention.limitsAge()) {
+      connection.keyCommands().expire(rawKey, retention.maxAge().toSeconds());
+      keysToSweep.put(key, retention);
+    }
+  }
+
+  /**
+   * Trims messages older than the maximum age from the lists written to
+   * since the last sweep.
+   */
+  @Scheduled(fixedDelayString = "${redis.retention.sweep-interval}")
+  public void sweep() {
+    keysToSweep.forEach((key, retention) -> {
+      keysToSweep.remove(key, retention);
+      try {
+        trimExpired(key, retention);
+      } catch (RuntimeException e) {
+        log.error("Error sweeping message list {}: {}", key, e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Applies the configured retention to all existing message lists on all
+   * Redis nodes once, if enabled. Lists written before retention was introduced have neither
+   * a TTL nor a bounded length.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void migrateExisting() {
+    if (!properties.isMigrateExisting()) return;
+
+    long migrated = 0;
+    for (StringRedisTemplate redisTemplate : redisShards.templates().values()) {
+      migrated += migrateExisting(redisTemplate);
+    }
+    log.info("Applied retention to {} existing message lists", migrated);
+  }
+
+  private long migrateExisting(StringRedisTemplate redisTemplate) {
+    long migrated = 0;
+    try (
+      Cursor<String> keys = redisTemplate.scan(
+        ScanOptions.scanOptions().match(KEY_PATTERN).count(1000).build()
+      )
+    ) {
+      while (keys.hasNext()) {
+        String key = keys.next();
+        String[] parts = key.split(":", 3);
+        if (parts.length != 3) continue;
+
+        Retention retention = retentionFor(parts[1], parts[2]);
+        redisTemplate.executePipelined(
+          (RedisCallback<Object>) connection -> {
+            applyOnWrite(connection, key, retention);
+            return null;
+          }
+        );
+        if (retention.limitsAge()) {
+          trimExpired(redisTemplate, key, retention);
+        }
+        migrated++;
+      }
+    }
+    return migrated;
+  }
+
+  private void trimExpired(String key, Retention retention) {
+    String[] parts = key.split(":", 3);
+    trimExpired(redisShards.templateFor(parts[1]), key, retention);
+  }
+
+  private void trimExpired(
+    StringRedisTemplate redisTemplate,
+    String key,
+    Retention retention
+  ) {
+    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+    LocalDateTime cutoff = LocalDateTime.now().minus(retention.maxAge());
+
+    redisTemplate.execute(
+      (RedisCallback<Void>) connection -> {
+        while (true) {
+          List<byte[]> head = connection
+            .listCommands()
+            .lRange(rawKey, 0, SWEEP_BATCH_SIZE - 1);
+          if (head == null || head.isEmpty()) break;
+
+          int expired = 0;
+          while (expired < head.size() && isBefore(head.get(expired), cutoff)) {
+            expired++;
+          }
+          if (expired == 0) break;
+
+          byte[][] keyAndArgs = new byte[expired + 1][];
+          keyAndArgs[0] = rawKey;
+          for (int i = 0; i < expired; i++) {
+            keyAndArgs[i + 1] = head.get(i);
+          }
+          Long trimmed = connection
+            .scriptingCommands()
+            .eval(TRIM_HEAD, ReturnType.INTEGER, 1, keyAndArgs);
+          // The head moved since it was read, read it again.
+          if (trimmed == null || trimmed == 0) continue;
+          if (expired < head.size()) break;
+        }
+        return null;
+      }
+    );
+  }
+
+  private boolean isBefore(byte[] value, LocalDateTime cutoff) {
+    try {
+      LocalDateTime timestamp = messageCodecs.decode(value).getTimestamp();
+      return timestamp != null && timestamp.isBefore(cutoff);
+    } catch (IOException e) {
+      // Keep what we can't read rather than trimming past it.
+      return false;
+    }
+  }
+
+  private Retention resolve(String tenant, String topic) {
+    Map<String, Limits> tenantLimits = properties
+      .getTenants()
+      .getOrDefault(tenant, Map.of());
+    Limits topicLimits = tenantLimits.get(topic);
+    Limits tenantDefaults = tenantLimits.get(RetentionProperties.TENANT_DEFAULT);
+    Limits defaults = properties.getDefaults();
+
+    Long maxCount = firstNonNull(
+      topicLimits != null ? topicLimits.getMaxCount() : null,
+      tenantDefaults != null ? tenantDefaults.getMaxCount() : null,
+      defaults.getMaxCount()
+    );
+    Duration maxAge = firstNonNull(
+      topicLimits != null ? topicLimits.getMaxAge() : null,
+      tenantDefaults != null ? tenantDefaults.getMaxAge() : null,
+      defaults.getMaxAge()
+    );
+    return new Retention(
+      maxCount != null ? maxCount : 0,
+      maxAge != null ? maxAge : Duration.ZERO
+    );
+  }
+
+  @SafeVarargs
+  private static <T> T firstNonNull(T... values) {
+    for (T value : values) {
+      if (value != null) return value;
+    }
+    return null;
+  }
+}
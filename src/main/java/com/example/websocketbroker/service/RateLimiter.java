@@ -0,0 +1,93 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.config.RateLimitProperties;
+import com.example.websocketbroker.config.RateLimitProperties.Limit;
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Limits the rate of the messages clients send, per tenant and per user
+ * of a tenant, with a {@link TokenBucket} each.
+ * <p>
+ * The buckets are kept in concurrent maps, whose lookups don't lock, the
+ * users' buckets under a key combining tenant and user, and
+ * taking a token is a single compare-and-set, so checking a message never
+ * blocks another thread. Buckets are created on first use and dropped by
+ * a periodic sweep once they have refilled, which loses nothing as a new
+ * bucket starts out full.
+ *
+ * @author Tobias Andraschko
+ */
+@Service
+@RequiredArgsConstructor
+public class RateLimiter {
+
+  /**
+   * The limit a rejected message exceeded.
+   */
+  public enum Scope {
+    TENANT,
+    USER,
+  }
+
+  // Stands in for the bucket of a tenant or user without a limit.
+  private static final TokenBucket UNLIMITED = new TokenBucket(1, 1);
+
+  private final RateLimitProperties properties;
+  private final MessagingMetrics messagingMetrics;
+
+  private final Map<String, TokenBucket> tenantBuckets = new ConcurrentHashMap<>();
+  private final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+
+  /**
+   * Takes a token for a message from the user's and the tenant's bucket.
+   * The user's limit is checked first, so a single noisy user doesn't use
+   * up the tenant's tokens; its token is put back if the tenant's limit
+   * rejects the message. Rejections are counted per scope.
+   *
+   * @param tenant the tenant identifier
+   * @param user the user, or any other key identifying the sender
+   * @return true if the message may pass, false if it exceeds a limit
+   */
+  public boolean tryAcquire(String tenant, String user) {
+    TokenBucket userBucket = userBuckets.computeIfAbsent(
+      tenant + '\0' + user,
+      key -> bucket(properties.userLimitFor(tenant))
+    );
+    if (userBucket != UNLIMITED && !userBucket.tryAcquire()) {
+      messagingMetrics.rateLimited(tenant, Scope.USER).increment();
+      return false;
+    }
+
+    TokenBucket tenantBucket = tenantBuckets.computeIfAbsent(
+      tenant,
+      t -> bucket(properties.tenantLimitFor(t))
+    );
+    if (tenantBucket != UNLIMITED && !tenantBucket.tryAcquire()) {
+      if (userBucket != UNLIMITED) {
+        userBucket.release();
+      }
+      messagingMetrics.rateLimited(tenant, Scope.TENANT).increment();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Drops the buckets that have refilled completely.
+   */
+  @Scheduled(fixedDelayString = "${rate-limit.sweep-interval}")
+  public void sweep() {
+    tenantBuckets.values().removeIf(TokenBucket::isFull);
+    userBuckets.values().removeIf(TokenBucket::isFull);
+  }
+
+  private static TokenBucket bucket(Limit limit) {
+    if (limit == null || !limit.isLimited()) return UNLIMITED;
+    return new TokenBucket(limit.getRate(), Math.max(1, limit.getBurst()));
+  }
+}
@@ -0,0 +1,262 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the newest messages of each tenant's topics in memory as they are
+ * written through {@link RedisManager}, so reads of recent history such as
+ * replays are served without a round trip to Redis.
+ * <p>
+ * Each topic has a ring buffer of {@code redis.cache.messages-per-topic}
+ * slots holding the encoded values as stored in Redis, in the tenant's
+ * codec and compressed above the threshold, with their ids in a parallel
+ * array, so a cached message costs little more than its stored bytes. A
+ * ring only knows the messages written since it was created or since its
+ * oldest entry was overwritten; reads reaching further back are misses and
+ * go to Redis. So are reads of a ring whose oldest entry is past the
+ * topic's maximum age, which the retention may already have trimmed from
+ * Redis.
+ * <p>
+ * All rings together are limited to {@code redis.cache.max-bytes}. Once
+ * they exceed it, the rings read or written least recently are dropped,
+ * down to 90% of the limit, so the topics of busy tenants stay cached
+ * while idle ones give their memory back.
+ * <p>
+ * The cache only sees the messages written by this instance. With several
+ * instances writing the same tenants' topics it has to stay disabled, which
+ * it is by default.
+ *
+ * @author Tobias Andraschko
+ */
+@Service
+public class RecentMessageCache {
+
+  // Estimated heap taken by a ring besides its values, and by each value
+  // besides its bytes.
+  private static final long RING_OVERHEAD = 160;
+  private static final long VALUE_OVERHEAD = 16 + Long.BYTES;
+
+  private final int messagesPerTopic;
+  private final long maxBytes;
+  private final MessagingMetrics messagingMetrics;
+
+  private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+  private final AtomicLong bytes = new AtomicLong();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  /**
+   * Creates the cache.
+   *
+   * @param messagesPerTopic the number of messages kept per topic, zero to
+   *                         disable the cache
+   * @param maxBytes the heap all cached messages may take, zero to disable
+   *                 the cache
+   * @param messagingMetrics the metrics recording hits and misses
+   */
+  public RecentMessageCache(
+    @Value("${redis.cache.messages-per-topic}") int messagesPerTopic,
+    @Value("${redis.cache.max-bytes}") long maxBytes,
+    MessagingMetrics messagingMetrics
+  ) {
+    this.messagesPerTopic = messagesPerTopic;
+    this.maxBytes = maxBytes;
+    this.messagingMetrics = messagingMetrics;
+    messagingMetrics.cacheBytes(bytes);
+  }
+
+  /**
+   * Checks whether messages are cached at all.
+   *
+   * @return true if the cache is enabled
+   */
+  public boolean isEnabled() {
+    return messagesPerTopic > 0 && maxBytes > 0;
+  }
+
+  /**
+   * Adds a message that has just been stored, overwriting the topic's
+   * oldest cached message if its ring is full.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic
+   * @param id the id of the message
+   * @param value the encoded value stored in Redis
+   */
+  public void add(String tenant, String topic, long id, byte[] value) {
+    if (!isEnabled()) return;
+
+    String key = tenant + ":" + topic;
+    long added;
+    do {
+      // A ring dropped by a concurrent eviction is replaced.
+      added = rings.computeIfAbsent(key, k -> newRing(k, id)).add(id, value);
+    } while (added == Ring.DROPPED);
+    if (bytes.addAndGet(added) > maxBytes) {
+      evict();
+    }
+  }
+
+  /**
+   * Returns the cached messages of a topic with an id above a given one,
+   * provided the cache holds all of them.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic
+   * @param afterId the id after which messages are read
+   * @param maxAge the maximum age of the topic's messages, zero for
+   *               unlimited
+   * @return the encoded values in the order they were written, or null if
+   *         older messages may be missing or expired and Redis has to be
+   *         read
+   */
+  public List<byte[]> valuesAfter(
+    String tenant,
+    String topic,
+    long afterId,
+    Duration maxAge
+  ) {
+    if (!isEnabled()) return null;
+
+    long expiredId = maxAge.isZero()
+      ? Long.MIN_VALUE
+      : (System.currentTimeMillis() - maxAge.toMillis()) * MessageIds.IDS_PER_MILLI;
+    Ring ring = rings.get(tenant + ":" + topic);
+    List<byte[]> values = ring != null ? ring.valuesAfter(afterId, expiredId) : null;
+    messagingMetrics.cacheRequests(values != null).increment();
+    return values;
+  }
+
+  /**
+   * Returns the heap taken by the cached messages.
+   *
+   * @return the estimated size in bytes
+   */
+  public long size() {
+    return bytes.get();
+  }
+
+  private Ring newRing(String key, long firstId) {
+    bytes.addAndGet(RING_OVERHEAD);
+    return new Ring(key, messagesPerTopic, firstId);
+  }
+
+  private void evict() {
+    // One thread evicting is enough, the others carry on writing.
+    if (!evictionLock.tryLock()) return;
+    try {
+      if (bytes.get() <= maxBytes) return;
+
+      // Snapshot the access times, which keep changing while sorting.
+      record Candidate(Ring ring, long lastAccess) {}
+      List<Candidate> candidates = new ArrayList<>(rings.size());
+      rings.values().forEach(ring -> candidates.add(new Candidate(ring, ring.lastAccess)));
+      candidates.sort(Comparator.comparingLong(Candidate::lastAccess));
+
+      long target = maxBytes - maxBytes / 10;
+      for (Candidate candidate : candidates) {
+        if (bytes.get() <= target) break;
+        if (rings.remove(candidate.ring().key, candidate.ring())) {
+          bytes.addAndGet(-candidate.ring().drop() - RING_OVERHEAD);
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * The ring buffer of one topic.
+   */
+  private static final class Ring {
+
+    static final long DROPPED = Long.MIN_VALUE;
+
+    final String key;
+    private final long[] ids;
+    private final byte[][] values;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int next;
+    private int size;
+    // Messages with ids up to this one may be missing.
+    private long floor;
+    private long bytes;
+    private boolean dropped;
+    volatile long lastAccess = System.nanoTime();
+
+    Ring(String key, int capacity, long firstId) {
+      this.key = key;
+      this.ids = new long[capacity];
+      this.values = new byte[capacity][];
+      this.floor = firstId;
+    }
+
+    long add(long id, byte[] value) {
+      lock.lock();
+      try {
+        if (dropped) return DROPPED;
+
+        long added = VALUE_OVERHEAD + value.length;
+        if (size == ids.length) {
+          floor = Math.max(floor, ids[next]);
+          added -= VALUE_OVERHEAD + values[next].length;
+        } else {
+          size++;
+        }
+        ids[next] = id;
+        values[next] = value;
+        next = (next + 1) % ids.length;
+        bytes += added;
+        lastAccess = System.nanoTime();
+        return added;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    List<byte[]> valuesAfter(long afterId, long expiredId) {
+      lock.lock();
+      try {
+        if (dropped || afterId < floor) return null;
+        // Ids grow with time, so the oldest entry has the smallest id.
+        if (size > 0 && ids[(next - size + ids.length) % ids.length] < expiredId) {
+          return null;
+        }
+
+        lastAccess = System.nanoTime();
+        List<byte[]> after = new ArrayList<>();
+        for (int i = 0, slot = next - size + ids.length; i < size; i++, slot++) {
+          int index = slot % ids.length;
+          if (ids[index] > afterId) {
+            after.add(values[index]);
+          }
+        }
+        return after;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    long drop() {
+      lock.lock();
+      try {
+        dropped = true;
+        size = 0;
+        Arrays.fill(values, null);
+        return bytes;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
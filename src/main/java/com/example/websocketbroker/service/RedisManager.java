@@ -1,51 +1,406 @@
 package com.example.websocketbroker.service;
 
-import com.example.websocketbroker.model.MessageData;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.time.LocalDateTime;
+import com.example.websocketbroker.codec.MessageCodec;
+import com.example.websocketbroker.codec.MessageCodecs;
+import com.example.websocketbroker.config.ThreadFactories;
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import com.example.websocketbroker.service.MessageRetention.Retention;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 /**
  * Manages interactions with Redis for storing message data.
+ * <p>
+ * In {@code SYNC} mode every message is pushed with its own round trip on
+ * the calling thread. In {@code BATCHED} mode messages are buffered in a
+ * {@link WriteBehindQueue} and written in the background, grouped by key
+ * into one multi-value RPUSH per list and pipelined per batch, so the
+ * Redis round trip no longer limits the message rate.
+ * <p>
+ * In both modes the commands enforcing the list's {@link Retention} are
+ * pipelined together with the push.
+ * <p>
+ * Messages are encoded with the tenant's {@link MessageCodec}, either as
+ * JSON or in a compact binary format, together with the id
+ * {@link MessageIds} assigns them. Every stored message is also added to
+ * the {@link RecentMessageCache}, so recent history can be read from
+ * memory.
+ * <p>
+ * Each tenant's lists live on the Redis node {@link RedisShards} routes it
+ * to. Batches are split by node and pipelined to each node separately,
+ * and a tenant's lists can be moved to another node at runtime. Writes
+ * hold the read side of a per-tenant lock, which a move takes exclusively,
+ * so no write lands on either node while a tenant's lists are in transit.
+ * <p>
+ * With virtual threads enabled the background writer is a virtual thread,
+ * and synchronous writes block the virtual thread of the calling channel
+ * rather than a pooled platform thread.
  *
  * @author Tobias Andraschko
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class RedisManager {
 
-  private final StringRedisTemplate redisTemplate;
-  private final ObjectMapper objectMapper;
+  /**
+   * How messages are written to Redis.
+   */
+  public enum PersistenceMode {
+    SYNC,
+    BATCHED,
+  }
+
+  private record PendingMessage(
+    String tenant,
+    String key,
+    byte[] value,
+    Retention retention
+  ) {}
+
+  // Removes the head of a list up to and including the value ARGV[1],
+  // keeping values appended since, and returns the length left.
+  private static final byte[] DROP_MOVED =
+    "local i = redis.call('LPOS', KEYS[1], ARGV[1]) if i then redis.call('LTRIM', KEYS[1], i + 1, -1) end return redis.call('LLEN', KEYS[1])".getBytes(
+        StandardCharsets.UTF_8
+      );
+
+  private final RedisShards redisShards;
+  private final MessageIds messageIds;
+  private final MessageCodecs messageCodecs;
+  private final MessageRetention messageRetention;
+  private final RecentMessageCache recentMessageCache;
+  private final MessagingMetrics messagingMetrics;
+
+  private final Map<String, ReadWriteLock> tenantLocks = new ConcurrentHashMap<>();
+
+  @Value("${redis.persistence.mode}")
+  private PersistenceMode persistenceMode;
+
+  @Value("${redis.persistence.buffer-capacity}")
+  private int bufferCapacity;
+
+  @Value("${redis.persistence.batch-size}")
+  private int batchSize;
+
+  @Value("${redis.persistence.offer-timeout}")
+  private long offerTimeoutMillis;
+
+  @Value("${redis.persistence.flush-interval}")
+  private long flushIntervalMillis;
+
+  @Value("${redis.persistence.shutdown-timeout}")
+  private long shutdownTimeoutMillis;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  private WriteBehindQueue<PendingMessage> writeBehindQueue;
+
+  /**
+   * Starts the background writer if batched persistence is enabled.
+   */
+  @PostConstruct
+  public void init() {
+    if (persistenceMode == PersistenceMode.BATCHED) {
+      writeBehindQueue =
+        new WriteBehindQueue<>(
+          bufferCapacity,
+          batchSize,
+          flushIntervalMillis,
+          this::writeBatch,
+          ThreadFactories.named("redis-write-behind", virtualThreads)
+        );
+    }
+  }
+
+  /**
+   * Flushes buffered messages on application shutdown.
+   */
+  @PreDestroy
+  public void cleanup() {
+    if (writeBehindQueue != null) {
+      writeBehindQueue.shutdown(shutdownTimeoutMillis);
+    }
+  }
 
   /**
-   * Stores a message in Redis for a specific tenant and topic.
+   * Stores a message in Redis for a specific tenant and topic. In batched
+   * mode the message is only buffered; if the buffer is full the caller
+   * waits for room, which slows it down rather than letting its message
+   * overtake the buffered ones of the same list.
    *
    * @param tenant the tenant identifier
    * @param topic the topic under which the message is stored
    * @param customUserId the custom user identifier for the message
    * @param message the message content
-   * @throws RuntimeException if there is an error serializing the message data
+   * @return the id of the message
+   * @throws RuntimeException if there is an error serializing the message
+   *                          data, or the buffer stayed full for
+   *                          {@code redis.persistence.offer-timeout} ms
    */
-  public void storeMessage(
+  public long storeMessage(
     String tenant,
     String topic,
     String customUserId,
     String message
   ) {
+    long start = System.nanoTime();
     try {
-      MessageData messageData = new MessageData();
-      messageData.setTimestamp(LocalDateTime.now());
-      messageData.setMessage(message);
-      messageData.setCustomUserId(customUserId);
-
+      MessageCodec codec = messageCodecs.forTenant(tenant);
       String key = String.format("messages:%s:%s", tenant, topic);
-      String json = objectMapper.writeValueAsString(messageData);
-      redisTemplate.opsForList().rightPush(key, json);
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException("Error serializing message data", e);
+      long id = messageIds.next(tenant, topic);
+      byte[] value = codec.encode(
+        id,
+        System.currentTimeMillis(),
+        customUserId,
+        message
+      );
+      PendingMessage pendingMessage = new PendingMessage(
+        tenant,
+        key,
+        value,
+        messageRetention.retentionFor(tenant, topic)
+      );
+      if (writeBehindQueue == null) {
+        writeBatch(List.of(pendingMessage));
+      } else if (!writeBehindQueue.offer(pendingMessage, offerTimeoutMillis)) {
+        throw new IllegalStateException(
+          "Write-behind buffer full, message not stored for tenant " + tenant
+        );
+      }
+      messagingMetrics.storedBytes(tenant, codec.format()).increment(value.length);
+      recentMessageCache.add(tenant, topic, id, value);
+      return id;
+    } finally {
+      messagingMetrics
+        .storeTimer(tenant, topic)
+        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Stores one message per tenant under the same topic, written right away
+   * in pipelined batches of {@code redis.persistence.batch-size} messages
+   * regardless of the persistence mode. Used for broadcasts, where one
+   * round trip per tenant would dominate the cycle.
+   *
+   * @param topic the topic under which the messages are stored
+   * @param customUserId the custom user identifier for the messages
+   * @param messagesByTenant the message content by tenant identifier
+   * @return the ids of the messages by tenant identifier
+   */
+  public Map<String, Long> storeMessages(
+    String topic,
+    String customUserId,
+    Map<String, String> messagesByTenant
+  ) {
+    long timestamp = System.currentTimeMillis();
+    Map<String, Long> ids = new LinkedHashMap<>();
+    List<PendingMessage> batch = new ArrayList<>(
+      Math.min(batchSize, messagesByTenant.size())
+    );
+    for (Map.Entry<String, String> entry : messagesByTenant.entrySet()) {
+      String tenant = entry.getKey();
+      MessageCodec codec = messageCodecs.forTenant(tenant);
+      long id = messageIds.next(tenant, topic);
+      byte[] value = codec.encode(id, timestamp, customUserId, entry.getValue());
+      ids.put(tenant, id);
+      messagingMetrics.storedBytes(tenant, codec.format()).increment(value.length);
+      recentMessageCache.add(tenant, topic, id, value);
+
+      batch.add(
+        new PendingMessage(
+          tenant,
+          String.format("messages:%s:%s", tenant, topic),
+          value,
+          messageRetention.retentionFor(tenant, topic)
+        )
+      );
+      if (batch.size() >= batchSize) {
+        writeBatch(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      writeBatch(batch);
+    }
+    return ids;
+  }
+
+  /**
+   * Moves a tenant's message lists to another Redis node. Writes of the
+   * tenant wait until the move is done: each list is copied in front of
+   * the list on the new node and only removed from the old node once the
+   * copy has been written, then the tenant is routed to the new node and
+   * the waiting writes append to the moved lists, which keeps the order.
+   * If a move fails, the tenant stays on the old node with its lists
+   * intact, and a partial copy may be left on the new node.
+   * <p>
+   * The new route only applies to this instance and until it restarts;
+   * to keep it, pin the tenant to the node in {@code redis.shards.pins}.
+   *
+   * @param tenant the tenant identifier
+   * @param node the name of the node to move to
+   * @return the number of messages moved
+   * @throws IllegalArgumentException if the node is unknown
+   */
+  public long rebalance(String tenant, String node) {
+    StringRedisTemplate target = redisShards.template(node);
+    Lock lock = tenantLock(tenant).writeLock();
+    lock.lock();
+    try {
+      String previous = redisShards.nodeFor(tenant);
+      if (previous.equals(node)) return 0;
+
+      StringRedisTemplate source = redisShards.template(previous);
+      String prefix = String.format("messages:%s:", tenant);
+      long moved = 0;
+      for (String key : keys(source, prefix + "*")) {
+        moved += moveList(source, target, tenant, key.substring(prefix.length()), key);
+      }
+      redisShards.route(tenant, node);
+      log.info(
+        "Moved {} messages of tenant {} from Redis node {} to {}",
+        moved,
+        tenant,
+        previous,
+        node
+      );
+      return moved;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void writeBatch(List<PendingMessage> batch) {
+    long start = System.nanoTime();
+    // The read locks keep the tenants' routes until their messages are
+    // written. They are taken in the order of the tenant names, so writers
+    // waiting behind moves of different tenants can't deadlock.
+    SortedSet<String> tenants = new TreeSet<>();
+    batch.forEach(message -> tenants.add(message.tenant()));
+    List<Lock> locks = new ArrayList<>(tenants.size());
+    try {
+      for (String tenant : tenants) {
+        Lock lock = tenantLock(tenant).readLock();
+        lock.lock();
+        locks.add(lock);
+      }
+
+      Map<String, Map<String, List<PendingMessage>>> messagesByNode = new LinkedHashMap<>();
+      for (PendingMessage message : batch) {
+        messagesByNode
+          .computeIfAbsent(redisShards.nodeFor(message.tenant()), node -> new LinkedHashMap<>())
+          .computeIfAbsent(message.key(), key -> new ArrayList<>())
+          .add(message);
+      }
+
+      messagesByNode.forEach((node, messagesByKey) ->
+        redisShards
+          .template(node)
+          .executePipelined(
+            (RedisCallback<Object>) connection -> {
+              messagesByKey.forEach((key, messages) -> {
+                connection
+                  .listCommands()
+                  .rPush(
+                    key.getBytes(StandardCharsets.UTF_8),
+                    messages.stream().map(PendingMessage::value).toArray(byte[][]::new)
+                  );
+                messageRetention.applyOnWrite(
+                  connection,
+                  key,
+                  messages.get(0).retention()
+                );
+              });
+              return null;
+            }
+          )
+      );
+    } finally {
+      locks.forEach(Lock::unlock);
+    }
+    messagingMetrics
+      .redisBatchTimer()
+      .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  private ReadWriteLock tenantLock(String tenant) {
+    return tenantLocks.computeIfAbsent(tenant, key -> new ReentrantReadWriteLock());
+  }
+
+  private long moveList(
+    StringRedisTemplate source,
+    StringRedisTemplate target,
+    String tenant,
+    String topic,
+    String key
+  ) {
+    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+    List<byte[]> values = source.execute(
+      (RedisCallback<List<byte[]>>) connection ->
+        connection.listCommands().lRange(rawKey, 0, -1)
+    );
+    if (values == null || values.isEmpty()) return 0;
+
+    // LPUSH prepends one value after the other, so push them last to first.
+    byte[][] reversed = new byte[values.size()][];
+    for (int i = 0; i < reversed.length; i++) {
+      reversed[i] = values.get(reversed.length - 1 - i);
+    }
+    Retention retention = messageRetention.retentionFor(tenant, topic);
+    target.executePipelined(
+      (RedisCallback<Object>) connection -> {
+        connection.listCommands().lPush(rawKey, reversed);
+        messageRetention.applyOnWrite(connection, key, retention);
+        return null;
+      }
+    );
+
+    // Messages other instances appended meanwhile stay on the old node.
+    Long left = source.execute(
+      (RedisCallback<Long>) connection ->
+        connection
+          .scriptingCommands()
+          .eval(DROP_MOVED, ReturnType.INTEGER, 1, rawKey, values.getLast())
+    );
+    if (left != null && left > 0) {
+      log.warn("{} messages written to {} during its move were left behind", left, key);
+    }
+    return values.size();
+  }
+
+  private static List<String> keys(StringRedisTemplate template, String pattern) {
+    List<String> keys = new ArrayList<>();
+    try (
+      Cursor<String> cursor = template.scan(
+        ScanOptions.scanOptions().match(pattern).count(1000).build()
+      )
+    ) {
+      cursor.forEachRemaining(keys::add);
     }
+    return keys;
   }
 }
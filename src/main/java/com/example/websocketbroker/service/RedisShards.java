@@ -0,0 +1,162 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.config.RedisShardProperties;
+import com.example.websocketbroker.config.RedisShardProperties.Node;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Routes each tenant to the Redis node holding its message lists. The
+ * nodes are configured in {@link RedisShardProperties}, each with its own
+ * Lettuce connection factory; without any, the single {@code spring.redis}
+ * connection is used as the node {@value #DEFAULT_NODE}.
+ * <p>
+ * Pinned tenants go to their node, all others to the node the
+ * {@link ConsistentHashRing} assigns them. The route of a tenant is
+ * resolved once and cached, and can be changed at runtime when its lists
+ * are moved to another node.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RedisShards {
+
+  /**
+   * The name of the {@code spring.redis} node used without configured nodes.
+   */
+  public static final String DEFAULT_NODE = "default";
+
+  private final RedisShardProperties properties;
+  private final StringRedisTemplate defaultTemplate;
+
+  @Value("${spring.redis.password}")
+  private String defaultPassword;
+
+  private final Map<String, StringRedisTemplate> templates = new LinkedHashMap<>();
+  private final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+  private final Map<String, String> routes = new ConcurrentHashMap<>();
+  private ConsistentHashRing ring;
+
+  /**
+   * Connects to the configured nodes and builds the hash ring.
+   *
+   * @throws IllegalStateException if a tenant is pinned to an unknown node
+   */
+  @PostConstruct
+  public void init() {
+    if (properties.getNodes().isEmpty()) {
+      templates.put(DEFAULT_NODE, defaultTemplate);
+    }
+    properties.getNodes().forEach((name, node) -> templates.put(name, connect(node)));
+    properties
+      .getPins()
+      .forEach((tenant, node) -> {
+        if (!templates.containsKey(node)) {
+          throw new IllegalStateException(
+            "Tenant " + tenant + " is pinned to unknown Redis node " + node
+          );
+        }
+      });
+    ring = new ConsistentHashRing(templates.keySet(), properties.getVirtualNodes());
+    log.info("Spreading tenants across Redis nodes {}", templates.keySet());
+  }
+
+  /**
+   * Closes the connections of the configured nodes on application shutdown.
+   */
+  @PreDestroy
+  public void cleanup() {
+    connectionFactories.forEach(LettuceConnectionFactory::destroy);
+  }
+
+  /**
+   * Returns the name of the node holding a tenant's message lists.
+   *
+   * @param tenant the tenant identifier
+   * @return the node name
+   */
+  public String nodeFor(String tenant) {
+    return routes.computeIfAbsent(tenant, this::resolve);
+  }
+
+  /**
+   * Returns the template of the node holding a tenant's message lists.
+   *
+   * @param tenant the tenant identifier
+   * @return the node's template
+   */
+  public StringRedisTemplate templateFor(String tenant) {
+    return templates.get(nodeFor(tenant));
+  }
+
+  /**
+   * Returns the template of a node.
+   *
+   * @param node the node name
+   * @return the node's template
+   * @throws IllegalArgumentException if the node is unknown
+   */
+  public StringRedisTemplate template(String node) {
+    StringRedisTemplate template = templates.get(node);
+    if (template == null) {
+      throw new IllegalArgumentException("Unknown Redis node " + node);
+    }
+    return template;
+  }
+
+  /**
+   * Returns the templates of all nodes.
+   *
+   * @return the templates by node name
+   */
+  public Map<String, StringRedisTemplate> templates() {
+    return Collections.unmodifiableMap(templates);
+  }
+
+  /**
+   * Routes a tenant to another node from now on. Its existing lists stay
+   * where they are.
+   *
+   * @param tenant the tenant identifier
+   * @param node the node name
+   * @return the node the tenant was routed to before
+   * @throws IllegalArgumentException if the node is unknown
+   */
+  String route(String tenant, String node) {
+    template(node);
+    String previous = nodeFor(tenant);
+    routes.put(tenant, node);
+    return previous;
+  }
+
+  private String resolve(String tenant) {
+    String pinned = properties.getPins().get(tenant);
+    return pinned != null ? pinned : ring.nodeFor(tenant);
+  }
+
+  private StringRedisTemplate connect(Node node) {
+    RedisStandaloneConfiguration config = new RedisStandaloneConfiguration();
+    config.setHostName(node.getHost());
+    config.setPort(node.getPort());
+    config.setPassword(node.getPassword() != null ? node.getPassword() : defaultPassword);
+    LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(config);
+    connectionFactory.afterPropertiesSet();
+    connectionFactories.add(connectionFactory);
+    return new StringRedisTemplate(connectionFactory);
+  }
+}
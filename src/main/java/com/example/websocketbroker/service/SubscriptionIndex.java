@@ -0,0 +1,332 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import com.example.websocketbroker.model.ClientConnection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-memory index of the local WebSocket sessions and of their topic
+ * subscriptions, by tenant and topic. Only subscriptions to a tenant's own
+ * topics in the {@link TopicRegistry} are indexed. The {@link LocalFanOut}
+ * keeps it up to date in every fan-out mode.
+ * <p>
+ * The index counts the sessions of every tenant and the local subscribers
+ * of every topic, which answers presence queries and session limits and
+ * is exposed as gauges. It tells its listeners whenever a topic of a
+ * tenant gets its first or loses its last subscriber, so the tenant's
+ * broker subscriptions can follow.
+ * <p>
+ * A session's subscriptions are changed within an atomic update of its
+ * entry, and its removal waits for those updates, so a subscription of a
+ * session disconnecting at the same time is never left behind.
+ *
+ * @author Tobias Andraschko
+ */
+@Service
+@RequiredArgsConstructor
+public class SubscriptionIndex {
+
+  private static final String TOPIC_PREFIX = "/topic/";
+
+  /**
+   * A subscription of a local session.
+   *
+   * @param sessionId the id of the WebSocket session
+   * @param subscriptionId the id the session subscribed with
+   */
+  public record Subscriber(String sessionId, String subscriptionId) {}
+
+  /**
+   * The presence of one tenant on this instance.
+   *
+   * @param sessions the number of connected sessions
+   * @param subscriptions the number of subscriptions by topic
+   */
+  public record Presence(int sessions, Map<String, Integer> subscriptions) {}
+
+  /**
+   * Notified whenever the set of subscribed topics of a tenant changes.
+   */
+  public interface Listener {
+    /**
+     * Called after a topic of a tenant got its first or lost its last
+     * local subscriber.
+     *
+     * @param tenant the tenant identifier
+     */
+    void subscribedTopicsChanged(String tenant);
+  }
+
+  private final TopicRegistry topicRegistry;
+  private final MessagingMetrics messagingMetrics;
+  private final Map<String, ClientConnection> clients = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> sessionsByTenant = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Set<Subscriber>>> subscribersByTenant = new ConcurrentHashMap<>();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Indexes a session whose CONNECT frame has been accepted. Sessions
+   * subscribing without having been indexed are indexed on their first
+   * subscription.
+   *
+   * @param sessionId the id of the WebSocket session
+   * @param tenant the tenant of the session
+   * @param userId the user of the session, may be null
+   */
+  public void connect(String sessionId, String tenant, String userId) {
+    if (tenant == null) return;
+
+    clients.computeIfAbsent(sessionId, id -> newClient(id, tenant, userId));
+  }
+
+  /**
+   * Indexes a subscription of a session.
+   *
+   * @param sessionId the id of the WebSocket session
+   * @param tenant the tenant of the session
+   * @param userId the user of the session, may be null
+   * @param subscriptionId the id the session subscribed with
+   * @param destination the destination subscribed to
+   * @return true if the subscription was indexed, false if the destination
+   *         isn't one of the tenant's topics
+   */
+  public boolean subscribe(
+    String sessionId,
+    String tenant,
+    String userId,
+    String subscriptionId,
+    String destination
+  ) {
+    if (tenant == null || destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+      return false;
+    }
+    String topic = destination.substring(TOPIC_PREFIX.length());
+    if (topicRegistry.resolve(tenant, topic) == null) return false;
+
+    Subscriber subscriber = new Subscriber(sessionId, subscriptionId);
+    boolean[] changed = new boolean[1];
+    clients.compute(
+      sessionId,
+      (id, client) -> {
+        if (client == null) {
+          client = newClient(id, tenant, userId);
+        }
+        String previous = client.getSubscriptions().put(subscriptionId, topic);
+        if (previous != null) {
+          changed[0] |= remove(tenant, previous, subscriber);
+        }
+        changed[0] |= add(tenant, topic, subscriber);
+        return client;
+      }
+    );
+    if (changed[0]) {
+      notifyListeners(tenant);
+    }
+    return true;
+  }
+
+  /**
+   * Removes a subscription of a session.
+   *
+   * @param sessionId the id of the WebSocket session
+   * @param subscriptionId the id the session subscribed with
+   */
+  public void unsubscribe(String sessionId, String subscriptionId) {
+    String[] tenant = new String[1];
+    clients.computeIfPresent(
+      sessionId,
+      (id, client) -> {
+        String topic = client.getSubscriptions().remove(subscriptionId);
+        if (
+          topic != null &&
+          remove(client.getTenant(), topic, new Subscriber(sessionId, subscriptionId))
+        ) {
+          tenant[0] = client.getTenant();
+        }
+        return client;
+      }
+    );
+    if (tenant[0] != null) {
+      notifyListeners(tenant[0]);
+    }
+  }
+
+  /**
+   * Removes a closed session and all its subscriptions.
+   *
+   * @param sessionId the id of the WebSocket session
+   */
+  public void removeSession(String sessionId) {
+    boolean[] changed = new boolean[1];
+    ClientConnection[] removed = new ClientConnection[1];
+    clients.computeIfPresent(
+      sessionId,
+      (id, client) -> {
+        client
+          .getSubscriptions()
+          .forEach((subscriptionId, topic) -> {
+            Subscriber subscriber = new Subscriber(sessionId, subscriptionId);
+            changed[0] |= remove(client.getTenant(), topic, subscriber);
+          });
+        removed[0] = client;
+        return null;
+      }
+    );
+    ClientConnection client = removed[0];
+    if (client == null) return;
+
+    String tenant = client.getTenant();
+    sessionsByTenant.computeIfPresent(
+      tenant,
+      (t, sessions) -> sessions.decrementAndGet() > 0 ? sessions : null
+    );
+    messagingMetrics.forTenant(tenant).recordSessions(-1);
+    if (changed[0]) {
+      notifyListeners(tenant);
+    }
+  }
+
+  /**
+   * Returns the local subscribers of a topic of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic name
+   * @return the subscribers, empty if there are none
+   */
+  public Set<Subscriber> subscribers(String tenant, String topic) {
+    Map<String, Set<Subscriber>> topics = subscribersByTenant.get(tenant);
+    if (topics == null) return Set.of();
+    return topics.getOrDefault(topic, Set.of());
+  }
+
+  /**
+   * Returns the topics of a tenant with at least one local subscriber.
+   *
+   * @param tenant the tenant identifier
+   * @return the subscribed topics
+   */
+  public Set<String> subscribedTopics(String tenant) {
+    Map<String, Set<Subscriber>> topics = subscribersByTenant.get(tenant);
+    return topics != null ? topics.keySet() : Set.of();
+  }
+
+  /**
+   * Checks whether a tenant has any local subscriber.
+   *
+   * @param tenant the tenant identifier
+   * @return true if at least one topic of the tenant is subscribed
+   */
+  public boolean hasSubscribers(String tenant) {
+    return !subscribedTopics(tenant).isEmpty();
+  }
+
+  /**
+   * Returns the number of a tenant's local sessions.
+   *
+   * @param tenant the tenant identifier
+   * @return the number of sessions
+   */
+  public int sessionCount(String tenant) {
+    AtomicInteger sessions = sessionsByTenant.get(tenant);
+    return sessions != null ? sessions.get() : 0;
+  }
+
+  /**
+   * Returns the presence of a tenant on this instance.
+   *
+   * @param tenant the tenant identifier
+   * @return the tenant's sessions and subscriptions by topic
+   */
+  public Presence presence(String tenant) {
+    Map<String, Integer> subscriptions = new LinkedHashMap<>();
+    Map<String, Set<Subscriber>> topics = subscribersByTenant.get(tenant);
+    if (topics != null) {
+      topics.forEach((topic, subscribers) -> {
+        if (!subscribers.isEmpty()) {
+          subscriptions.put(topic, subscribers.size());
+        }
+      });
+    }
+    return new Presence(sessionCount(tenant), subscriptions);
+  }
+
+  /**
+   * Registers a listener for changes of the subscribed topics.
+   *
+   * @param listener the listener
+   */
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  private ClientConnection newClient(String sessionId, String tenant, String userId) {
+    sessionsByTenant.compute(
+      tenant,
+      (t, sessions) -> {
+        if (sessions == null) {
+          sessions = new AtomicInteger();
+        }
+        sessions.incrementAndGet();
+        return sessions;
+      }
+    );
+    messagingMetrics.forTenant(tenant).recordSessions(1);
+    return new ClientConnection(sessionId, tenant, userId);
+  }
+
+  // Returns true if the topic got its first subscriber.
+  private boolean add(String tenant, String topic, Subscriber subscriber) {
+    boolean[] first = new boolean[1];
+    boolean[] added = new boolean[1];
+    subscribersByTenant
+      .computeIfAbsent(tenant, t -> new ConcurrentHashMap<>())
+      .compute(
+        topic,
+        (t, subscribers) -> {
+          if (subscribers == null) {
+            subscribers = ConcurrentHashMap.newKeySet();
+            first[0] = true;
+          }
+          added[0] = subscribers.add(subscriber);
+          return subscribers;
+        }
+      );
+    if (added[0]) {
+      messagingMetrics.forTenant(tenant).recordSubscriptions(topic, 1);
+    }
+    return first[0];
+  }
+
+  // Returns true if the topic lost its last subscriber.
+  private boolean remove(String tenant, String topic, Subscriber subscriber) {
+    Map<String, Set<Subscriber>> topics = subscribersByTenant.get(tenant);
+    if (topics == null) return false;
+
+    boolean[] last = new boolean[1];
+    boolean[] removed = new boolean[1];
+    topics.computeIfPresent(
+      topic,
+      (t, subscribers) -> {
+        removed[0] = subscribers.remove(subscriber);
+        last[0] = subscribers.isEmpty();
+        return last[0] ? null : subscribers;
+      }
+    );
+    if (removed[0]) {
+      messagingMetrics.forTenant(tenant).recordSubscriptions(topic, -1);
+    }
+    return last[0];
+  }
+
+  private void notifyListeners(String tenant) {
+    listeners.forEach(listener -> listener.subscribedTopicsChanged(tenant));
+  }
+}
@@ -0,0 +1,58 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.repository.TenantRepository;
+import jakarta.annotation.PostConstruct;
+import java.util.HashSet;
+import java.util.Set;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the broker connections in line with the tenant directory.
+ * Periodically compares the current tenants with the previously known
+ * ones: removed tenants have their connection closed, added tenants can
+ * open one on their first use. Tenants present in both are left alone,
+ * so onboarding a tenant needs neither a restart nor a reconnect of the
+ * others.
+ *
+ * @author Tobias Andraschko
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class TenantReconciler {
+
+  private final TenantRepository tenantRepository;
+  private final BrokerConnectionManager brokerConnectionManager;
+
+  private Set<String> knownTenants = Set.of();
+
+  /**
+   * Records the tenants known on startup.
+   */
+  @PostConstruct
+  public void init() {
+    knownTenants = Set.copyOf(tenantRepository.findAllTenants());
+  }
+
+  /**
+   * Applies the changes of the tenant directory since the last run.
+   */
+  @Scheduled(fixedDelayString = "${tenants.reconcile-interval}")
+  public void reconcile() {
+    Set<String> tenants = Set.copyOf(tenantRepository.findAllTenants());
+
+    Set<String> added = new HashSet<>(tenants);
+    added.removeAll(knownTenants);
+    Set<String> removed = new HashSet<>(knownTenants);
+    removed.removeAll(tenants);
+    knownTenants = tenants;
+
+    if (added.isEmpty() && removed.isEmpty()) return;
+
+    removed.forEach(brokerConnectionManager::closeConnection);
+    log.info("Reconciled tenants, added: {}, removed: {}", added, removed);
+  }
+}
@@ -0,0 +1,80 @@
+package com.example.websocketbroker.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket refilled at a fixed rate, which can be shared by any
+ * number of threads without locking.
+ * <p>
+ * Instead of a token count and a refill timestamp, the bucket keeps a
+ * single value: the time at which it would be full again. Taking a token
+ * moves that time one refill interval into the future, and a token is
+ * only available while it lies less than the burst capacity worth of
+ * intervals ahead. This is the same as a token bucket, but its whole
+ * state fits into one {@link AtomicLong}, so taking a token is a single
+ * compare-and-set.
+ *
+ * @author Tobias Andraschko
+ */
+public class TokenBucket {
+
+  private final long intervalNanos;
+  private final long capacityNanos;
+  private final AtomicLong fullAtNanos;
+
+  /**
+   * Creates a full bucket.
+   *
+   * @param ratePerSecond the tokens added per second
+   * @param burst the maximum number of tokens, at least one
+   */
+  public TokenBucket(double ratePerSecond, int burst) {
+    if (ratePerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("Rate and burst must be positive");
+    }
+    this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+    this.capacityNanos = intervalNanos * burst;
+    this.fullAtNanos = new AtomicLong(System.nanoTime());
+  }
+
+  /**
+   * Takes a token if one is available.
+   *
+   * @return true if a token was taken, false if the bucket is empty
+   */
+  public boolean tryAcquire() {
+    return tryAcquire(System.nanoTime());
+  }
+
+  boolean tryAcquire(long nowNanos) {
+    while (true) {
+      long fullAt = fullAtNanos.get();
+      long next = Math.max(fullAt, nowNanos) + intervalNanos;
+      if (next - nowNanos > capacityNanos) {
+        return false;
+      }
+      if (fullAtNanos.compareAndSet(fullAt, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Puts back a token taken for a message which was rejected anyway. The
+   * bucket still never holds more than the burst.
+   */
+  public void release() {
+    fullAtNanos.addAndGet(-intervalNanos);
+  }
+
+  /**
+   * Checks if the bucket has refilled completely, in which case dropping
+   * it and creating a new one makes no difference.
+   *
+   * @return true if the bucket is full
+   */
+  public boolean isFull() {
+    return fullAtNanos.get() - System.nanoTime() <= 0;
+  }
+}
@@ -0,0 +1,114 @@
+package com.example.websocketbroker.service;
+
+import com.example.websocketbroker.config.TopicProperties;
+import com.example.websocketbroker.model.Destination;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds the topics of every tenant, resolved to {@link Destination}s.
+ * Tenants start with the topics of the {@link TopicProperties}; their
+ * topics can be replaced at runtime, which is reported to the registered
+ * listeners so broker subscriptions can follow.
+ * <p>
+ * Each tenant's topics are an immutable map that is swapped as a whole on
+ * change, so lookups on the message path are a plain map read.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TopicRegistry {
+
+  /**
+   * Notified whenever the topics of a tenant have been changed.
+   */
+  public interface Listener {
+    /**
+     * Called after the topics of a tenant have been changed.
+     *
+     * @param tenant the tenant identifier
+     */
+    void topicsChanged(String tenant);
+  }
+
+  // Topic names end up in STOMP destinations and Redis keys.
+  private static final Pattern TOPIC_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+  private final TopicProperties properties;
+  private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Destination>> topicsByTenant = new ConcurrentHashMap<>();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Resolves a topic of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @param topic the topic name
+   * @return the destination, or null if the tenant doesn't use the topic
+   */
+  public Destination resolve(String tenant, String topic) {
+    if (tenant == null || topic == null) return null;
+    return topics(tenant).get(topic);
+  }
+
+  /**
+   * Returns the destinations of all topics of a tenant.
+   *
+   * @param tenant the tenant identifier
+   * @return the tenant's destinations
+   */
+  public Collection<Destination> destinations(String tenant) {
+    return topics(tenant).values();
+  }
+
+  /**
+   * Replaces the topics of a tenant and notifies the listeners.
+   *
+   * @param tenant the tenant identifier
+   * @param topics the new topics of the tenant
+   * @throws IllegalArgumentException if a topic name is invalid
+   */
+  public void setTopics(String tenant, Collection<String> topics) {
+    topicsByTenant.put(tenant, resolveAll(topics));
+    log.info("Topics of tenant {} changed to {}", tenant, topics);
+    listeners.forEach(listener -> listener.topicsChanged(tenant));
+  }
+
+  /**
+   * Registers a listener for topic changes.
+   *
+   * @param listener the listener
+   */
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  private Map<String, Destination> topics(String tenant) {
+    return topicsByTenant.computeIfAbsent(
+      tenant,
+      t -> resolveAll(properties.topicsFor(t))
+    );
+  }
+
+  private Map<String, Destination> resolveAll(Collection<String> topics) {
+    Map<String, Destination> resolved = new LinkedHashMap<>();
+    for (String topic : topics) {
+      if (!TOPIC_NAME.matcher(topic).matches()) {
+        throw new IllegalArgumentException("Invalid topic name: " + topic);
+      }
+      resolved.put(topic, destinations.computeIfAbsent(topic, Destination::of));
+    }
+    return Collections.unmodifiableMap(resolved);
+  }
+}
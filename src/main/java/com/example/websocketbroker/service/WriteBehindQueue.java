@@ -0,0 +1,153 @@
+package com.example.websocketbroker.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A bounded in-memory buffer which hands its items to a flusher in
+ * batches from a single background thread. A batch is flushed once it
+ * reaches the batch size or once the flush interval has passed since its
+ * first item arrived, whichever comes first.
+ *
+ * @param <T> the type of the buffered items
+ * @author Tobias Andraschko
+ */
+@Slf4j
+public class WriteBehindQueue<T> {
+
+  private final BlockingQueue<T> queue;
+  private final int batchSize;
+  private final long flushIntervalNanos;
+  private final Consumer<List<T>> flusher;
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  /**
+   * Creates the buffer and starts its writer thread.
+   *
+   * @param capacity the maximum number of buffered items
+   * @param batchSize the maximum number of items per batch
+   * @param flushIntervalMillis the maximum time an item waits for its batch
+   * @param flusher the callback writing a batch
+   * @param threadFactory the factory creating the writer thread
+   */
+  public WriteBehindQueue(
+    int capacity,
+    int batchSize,
+    long flushIntervalMillis,
+    Consumer<List<T>> flusher,
+    ThreadFactory threadFactory
+  ) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.flusher = flusher;
+    this.writer = threadFactory.newThread(this::run);
+    this.writer.start();
+  }
+
+  /**
+   * Adds an item to the buffer without waiting.
+   *
+   * @param item the item to buffer
+   * @return true if buffered, false if the buffer is full or shut down
+   */
+  public boolean offer(T item) {
+    return running && queue.offer(item);
+  }
+
+  /**
+   * Adds an item to the buffer, waiting for room if it is full.
+   *
+   * @param item the item to buffer
+   * @param timeoutMillis the maximum time to wait in milliseconds
+   * @return true if buffered, false if the buffer stayed full, the caller
+   *         was interrupted or the buffer is shut down
+   */
+  public boolean offer(T item, long timeoutMillis) {
+    if (!running) return false;
+    try {
+      return queue.offer(item, timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Returns the number of buffered items.
+   *
+   * @return the number of items waiting to be flushed
+   */
+  public int size() {
+    return queue.size();
+  }
+
+  /**
+   * Stops accepting items and waits for the buffered ones to be flushed.
+   * Items still buffered when the timeout expires are lost.
+   *
+   * @param timeoutMillis the maximum time to wait in milliseconds
+   */
+  public void shutdown(long timeoutMillis) {
+    running = false;
+    try {
+      writer.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (writer.isAlive()) {
+      writer.interrupt();
+      log.error(
+        "Write-behind flush timed out, {} buffered items were lost",
+        queue.size()
+      );
+    }
+  }
+
+  private void run() {
+    List<T> batch = new ArrayList<>(batchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        T first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) continue;
+
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+          if (queue.drainTo(batch, batchSize - batch.size()) > 0) continue;
+          long remaining = deadline - System.nanoTime();
+          T next = remaining > 0 && running
+            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+            : null;
+          if (next == null) break;
+          batch.add(next);
+        }
+        flush(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void flush(List<T> batch) {
+    try {
+      flusher.accept(batch);
+    } catch (RuntimeException e) {
+      log.error(
+        "Error flushing write-behind batch of {} items: {}",
+        batch.size(),
+        e.getMessage()
+      );
+    } finally {
+      batch.clear();
+    }
+  }
+}
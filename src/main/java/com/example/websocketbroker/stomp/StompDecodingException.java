@@ -0,0 +1,17 @@
+package com.example.websocketbroker.stomp;
+
+import java.io.IOException;
+
+/**
+ * Thrown when bytes received from the broker are not valid STOMP. The
+ * stream can't be resynchronized after this, so the connection has to be
+ * closed.
+ *
+ * @author Tobias Andraschko
+ */
+public class StompDecodingException extends IOException {
+
+  public StompDecodingException(String message) {
+    super(message);
+  }
+}
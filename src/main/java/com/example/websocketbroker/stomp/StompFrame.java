@@ -0,0 +1,111 @@
+package com.example.websocketbroker.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A STOMP frame received from the broker. Only the server frames the
+ * broker connection acts on are modelled, each with the headers it needs.
+ * <p>
+ * Bodies are read-only views into the decoder's buffer and are only valid
+ * for the duration of the callback they are handed to. Copy them if they
+ * need to outlive it.
+ *
+ * @author Tobias Andraschko
+ */
+public sealed interface StompFrame {
+  /**
+   * The broker's answer to a CONNECT frame.
+   *
+   * @param version the negotiated protocol version
+   * @param heartBeat the broker's heart-beat header, or null if absent
+   */
+  record ConnectedFrame(String version, String heartBeat)
+    implements StompFrame {
+    /**
+     * Returns the interval the broker can send heart-beats at.
+     *
+     * @return the interval in milliseconds, zero if it sends none
+     */
+    public long heartbeatSendMillis() {
+      return heartBeatValue(0);
+    }
+
+    /**
+     * Returns the interval the broker wants to receive heart-beats at.
+     *
+     * @return the interval in milliseconds, zero if it wants none
+     */
+    public long heartbeatReceiveMillis() {
+      return heartBeatValue(1);
+    }
+
+    private long heartBeatValue(int index) {
+      if (heartBeat == null) return 0;
+      String[] values = heartBeat.split(",");
+      if (values.length != 2) return 0;
+      try {
+        return Math.max(0, Long.parseLong(values[index].trim()));
+      } catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * A message delivered for one of the connection's subscriptions.
+   *
+   * @param destination the destination the message was sent to
+   * @param subscription the id of the subscription it was delivered for
+   * @param messageId the broker assigned message id
+   * @param customUserId the id of the user who sent the message
+   * @param persistedId the id the message was persisted with, may be null
+   * @param contentEncoding the algorithm the body was compressed with, or
+   *                        null if it is uncompressed
+   * @param body the message body
+   */
+  record MessageFrame(
+    String destination,
+    String subscription,
+    String messageId,
+    String customUserId,
+    String persistedId,
+    String contentEncoding,
+    ByteBuffer body
+  )
+    implements StompFrame {
+    /**
+     * Decodes the body as UTF-8.
+     *
+     * @return the body as a string
+     */
+    public String bodyAsString() {
+      return StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+    }
+  }
+
+  /**
+   * The broker's acknowledgement of a frame sent with a receipt header.
+   *
+   * @param receiptId the id of the acknowledged receipt
+   */
+  record ReceiptFrame(String receiptId) implements StompFrame {}
+
+  /**
+   * An error reported by the broker. The broker closes the connection
+   * after sending it.
+   *
+   * @param message the short error description
+   * @param body the detailed error description
+   */
+  record ErrorFrame(String message, ByteBuffer body) implements StompFrame {
+    /**
+     * Decodes the body as UTF-8.
+     *
+     * @return the body as a string
+     */
+    public String bodyAsString() {
+      return StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+    }
+  }
+}
@@ -0,0 +1,375 @@
+package com.example.websocketbroker.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Incremental decoder for STOMP frames sent by the broker. Bytes are read
+ * straight into the decoder's buffer, which is then parsed in place: the
+ * command is matched on raw bytes, only the headers the typed frames need
+ * are turned into strings, and bodies are handed out as views instead of
+ * copies. Partial frames stay buffered until the rest arrives, so frames
+ * split across reads (including multi-byte UTF-8 sequences) and several
+ * frames in one read are both handled.
+ * <p>
+ * Instances are not thread-safe and are meant to be owned by a single
+ * connection.
+ *
+ * @author Tobias Andraschko
+ */
+public class StompFrameDecoder {
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 4096;
+  private static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+  private enum Command {
+    CONNECTED,
+    MESSAGE,
+    RECEIPT,
+    ERROR;
+
+    private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private enum Header {
+    CONTENT_LENGTH("content-length"),
+    CONTENT_ENCODING("content-encoding"),
+    DESTINATION("destination"),
+    SUBSCRIPTION("subscription"),
+    MESSAGE_ID("message-id"),
+    CUSTOM_USER_ID("custom-user-id"),
+    PERSISTED_ID("persisted-id"),
+    RECEIPT_ID("receipt-id"),
+    MESSAGE("message"),
+    VERSION("version"),
+    HEART_BEAT("heart-beat");
+
+    private final byte[] bytes;
+
+    Header(String name) {
+      this.bytes = name.getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  private static final Header[] HEADERS = Header.values();
+
+  private final int maxFrameSize;
+  private ByteBuffer buffer;
+  private boolean decoding;
+  private boolean discarded;
+
+  // State of a frame whose headers are complete but whose body is not.
+  // Offsets are relative to the start of the frame.
+  private boolean pending;
+  private Command pendingCommand;
+  private int pendingBodyOffset;
+  private int pendingContentLength;
+  private int pendingScanOffset;
+  private final String[] headerValues = new String[HEADERS.length];
+
+  /**
+   * Creates a decoder with a 4 KB initial buffer and a 1 MB frame limit.
+   */
+  public StompFrameDecoder() {
+    this(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_FRAME_SIZE);
+  }
+
+  /**
+   * Creates a decoder with the given buffer sizes.
+   *
+   * @param initialCapacity the initial buffer capacity in bytes
+   * @param maxFrameSize the maximum size of a single frame in bytes
+   */
+  public StompFrameDecoder(int initialCapacity, int maxFrameSize) {
+    this.buffer = ByteBuffer.allocate(initialCapacity);
+    this.maxFrameSize = maxFrameSize;
+  }
+
+  /**
+   * Returns the buffer to read the next bytes into, growing it if it is
+   * full. Call {@link #decode(Consumer)} after reading into it.
+   *
+   * @return the buffer in write mode
+   */
+  public ByteBuffer readBuffer() {
+    if (!buffer.hasRemaining()) {
+      int capacity = Math.min(buffer.capacity() * 2, maxFrameSize + 1);
+      buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+    }
+    return buffer;
+  }
+
+  /**
+   * Copies the given bytes into the decoder and decodes all frames they
+   * complete.
+   *
+   * @param input the bytes received from the broker
+   * @param handler the callback receiving each decoded frame
+   * @throws StompDecodingException if the input is not valid STOMP
+   */
+  public void decode(ByteBuffer input, Consumer<StompFrame> handler)
+    throws StompDecodingException {
+    while (input.hasRemaining()) {
+      ByteBuffer target = readBuffer();
+      int length = Math.min(target.remaining(), input.remaining());
+      target.put(target.position(), input, input.position(), length);
+      target.position(target.position() + length);
+      input.position(input.position() + length);
+      decode(handler);
+    }
+  }
+
+  /**
+   * Decodes all complete frames in the buffer returned by
+   * {@link #readBuffer()} and keeps the remaining bytes for the next call.
+   *
+   * @param handler the callback receiving each decoded frame
+   * @throws StompDecodingException if the input is not valid STOMP
+   */
+  public void decode(Consumer<StompFrame> handler)
+    throws StompDecodingException {
+    buffer.flip();
+    decoding = true;
+    try {
+      while (!discarded && decodeFrame(handler));
+    } finally {
+      decoding = false;
+      if (discarded) {
+        discarded = false;
+        reset();
+      } else {
+        buffer.compact();
+      }
+    }
+  }
+
+  /**
+   * Drops all buffered bytes, e.g. after the connection was closed. May be
+   * called from within the frame handler.
+   */
+  public void reset() {
+    if (decoding) {
+      discarded = true;
+      return;
+    }
+    buffer.clear();
+    clearPending();
+  }
+
+  private boolean decodeFrame(Consumer<StompFrame> handler)
+    throws StompDecodingException {
+    byte[] bytes = buffer.array();
+    int start = buffer.position();
+    int limit = buffer.limit();
+
+    if (!pending) {
+      // Skip heart-beats between frames.
+      while (start < limit && (bytes[start] == '\n' || bytes[start] == '\r')) {
+        start++;
+      }
+      buffer.position(start);
+      if (start == limit) return false;
+      if (!parseHeaders(bytes, start, limit)) {
+        checkFrameSize(limit - start);
+        return false;
+      }
+    }
+
+    int bodyStart = start + pendingBodyOffset;
+    int bodyEnd;
+    if (pendingContentLength >= 0) {
+      bodyEnd = bodyStart + pendingContentLength;
+      if (bodyEnd >= limit) {
+        checkFrameSize(bodyEnd + 1 - start);
+        return false;
+      }
+      if (bytes[bodyEnd] != 0) {
+        throw new StompDecodingException(
+          "Frame body is longer than its content-length"
+        );
+      }
+    } else {
+      bodyEnd = indexOf(bytes, (byte) 0, start + pendingScanOffset, limit);
+      if (bodyEnd < 0) {
+        pendingScanOffset = limit - start;
+        checkFrameSize(limit - start);
+        return false;
+      }
+    }
+
+    StompFrame frame = createFrame(
+      buffer.slice(bodyStart, bodyEnd - bodyStart).asReadOnlyBuffer()
+    );
+    clearPending();
+    buffer.position(bodyEnd + 1);
+    if (frame != null) {
+      handler.accept(frame);
+    }
+    return true;
+  }
+
+  private boolean parseHeaders(byte[] bytes, int start, int limit)
+    throws StompDecodingException {
+    // Only parse once the blank line ending the headers has arrived.
+    int headersEnd = -1;
+    int lineStart = start;
+    while (headersEnd < 0) {
+      int eol = indexOf(bytes, (byte) '\n', lineStart, limit);
+      if (eol < 0) return false;
+      if (lineStart != start && trimCr(bytes, lineStart, eol) == lineStart) {
+        headersEnd = eol + 1;
+      }
+      lineStart = eol + 1;
+    }
+
+    int commandEnd = indexOf(bytes, (byte) '\n', start, limit);
+    pendingCommand = matchCommand(bytes, start, trimCr(bytes, start, commandEnd));
+    pendingContentLength = -1;
+
+    int lineEnd;
+    for (
+      lineStart = commandEnd + 1;
+      (lineEnd = indexOf(bytes, (byte) '\n', lineStart, limit)) + 1 < headersEnd;
+      lineStart = lineEnd + 1
+    ) {
+      int end = trimCr(bytes, lineStart, lineEnd);
+      int colon = indexOf(bytes, (byte) ':', lineStart, end);
+      if (colon < 0) {
+        throw new StompDecodingException(
+          "Malformed header line: " +
+          new String(bytes, lineStart, end - lineStart, StandardCharsets.UTF_8)
+        );
+      }
+      Header header = matchHeader(bytes, lineStart, colon);
+      if (header == Header.CONTENT_LENGTH) {
+        if (pendingContentLength < 0) {
+          pendingContentLength = parseLength(bytes, colon + 1, end);
+        }
+      } else if (header != null && headerValues[header.ordinal()] == null) {
+        headerValues[header.ordinal()] =
+          decodeValue(bytes, colon + 1, end, pendingCommand != Command.CONNECTED);
+      }
+    }
+
+    pending = true;
+    pendingBodyOffset = headersEnd - start;
+    pendingScanOffset = pendingBodyOffset;
+    return true;
+  }
+
+  private StompFrame createFrame(ByteBuffer body) {
+    if (pendingCommand == null) return null;
+    return switch (pendingCommand) {
+      case CONNECTED -> new StompFrame.ConnectedFrame(
+        value(Header.VERSION),
+        value(Header.HEART_BEAT)
+      );
+      case MESSAGE -> new StompFrame.MessageFrame(
+        value(Header.DESTINATION),
+        value(Header.SUBSCRIPTION),
+        value(Header.MESSAGE_ID),
+        value(Header.CUSTOM_USER_ID),
+        value(Header.PERSISTED_ID),
+        value(Header.CONTENT_ENCODING),
+        body
+      );
+      case RECEIPT -> new StompFrame.ReceiptFrame(value(Header.RECEIPT_ID));
+      case ERROR -> new StompFrame.ErrorFrame(value(Header.MESSAGE), body);
+    };
+  }
+
+  private String value(Header header) {
+    return headerValues[header.ordinal()];
+  }
+
+  private void clearPending() {
+    pending = false;
+    pendingCommand = null;
+    Arrays.fill(headerValues, null);
+  }
+
+  private void checkFrameSize(int size) throws StompDecodingException {
+    if (size > maxFrameSize) {
+      throw new StompDecodingException(
+        "Frame exceeds the maximum size of " + maxFrameSize + " bytes"
+      );
+    }
+  }
+
+  private static Command matchCommand(byte[] bytes, int from, int to) {
+    for (Command command : Command.values()) {
+      if (Arrays.equals(bytes, from, to, command.bytes, 0, command.bytes.length)) {
+        return command;
+      }
+    }
+    return null;
+  }
+
+  private static Header matchHeader(byte[] bytes, int from, int to) {
+    for (Header header : HEADERS) {
+      if (Arrays.equals(bytes, from, to, header.bytes, 0, header.bytes.length)) {
+        return header;
+      }
+    }
+    return null;
+  }
+
+  private static int parseLength(byte[] bytes, int from, int to)
+    throws StompDecodingException {
+    if (from == to || to - from > 9) {
+      throw new StompDecodingException("Invalid content-length header");
+    }
+    int length = 0;
+    for (int i = from; i < to; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new StompDecodingException("Invalid content-length header");
+      }
+      length = length * 10 + digit;
+    }
+    return length;
+  }
+
+  private static String decodeValue(
+    byte[] bytes,
+    int from,
+    int to,
+    boolean unescape
+  ) throws StompDecodingException {
+    String value = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    if (!unescape || value.indexOf('\\') < 0) return value;
+
+    StringBuilder unescaped = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != '\\') {
+        unescaped.append(c);
+        continue;
+      }
+      char escaped = ++i < value.length() ? value.charAt(i) : 0;
+      switch (escaped) {
+        case 'n' -> unescaped.append('\n');
+        case 'r' -> unescaped.append('\r');
+        case 'c' -> unescaped.append(':');
+        case '\\' -> unescaped.append('\\');
+        default -> throw new StompDecodingException(
+          "Invalid escape sequence in header value: " + value
+        );
+      }
+    }
+    return unescaped.toString();
+  }
+
+  private static int trimCr(byte[] bytes, int from, int eol) {
+    return eol > from && bytes[eol - 1] == '\r' ? eol - 1 : eol;
+  }
+
+  private static int indexOf(byte[] bytes, byte value, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == value) return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,366 @@
+package com.example.websocketbroker.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the STOMP frames a broker connection sends into a reusable
+ * buffer. The command and destination header of SEND frames are encoded
+ * up front by {@link #sendHeaders(String)} so callers can cache them per
+ * destination, and message bodies are written as UTF-8 straight into the
+ * buffer without intermediate strings or byte arrays. Every SEND frame
+ * carries a content-length header, so bodies may contain NUL characters.
+ * <p>
+ * Instances are not thread-safe and are meant to be owned by a single
+ * connection.
+ *
+ * @author Tobias Andraschko
+ */
+public class StompFrameEncoder {
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 4096;
+
+  private static final byte[] CUSTOM_USER_ID = ascii("custom-user-id:");
+  private static final byte[] CONTENT_LENGTH = ascii("content-length:");
+  private static final byte[] CONTENT_ENCODING = ascii("content-encoding:");
+  private static final byte[] PERSISTED_ID = ascii("persisted-id:");
+  private static final byte[] DISCONNECT = ascii("DISCONNECT\n\n\u0000");
+
+  private ByteBuffer buffer;
+
+  /**
+   * Creates an encoder with a 4 KB initial buffer.
+   */
+  public StompFrameEncoder() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates an encoder with the given initial buffer capacity. The buffer
+   * grows as needed for larger frames.
+   *
+   * @param initialCapacity the initial buffer capacity in bytes
+   */
+  public StompFrameEncoder(int initialCapacity) {
+    this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+  }
+
+  /**
+   * Discards all encoded bytes so the buffer can be reused.
+   */
+  public void clear() {
+    buffer.clear();
+  }
+
+  /**
+   * Returns the number of bytes encoded since the last {@link #clear()}.
+   *
+   * @return the encoded size in bytes
+   */
+  public int size() {
+    return buffer.position();
+  }
+
+  /**
+   * Returns the frames encoded since the last {@link #clear()}, ready to be
+   * written to a channel.
+   *
+   * @return the buffer in read mode
+   */
+  public ByteBuffer flip() {
+    return buffer.flip();
+  }
+
+  /**
+   * Encodes a CONNECT frame.
+   *
+   * @param host the virtual host to connect to
+   * @param login the user to authenticate as
+   * @param passcode the password of the user
+   * @param heartbeatSendMillis the heart-beat interval the client can send
+   *                            at, zero for none
+   * @param heartbeatReceiveMillis the heart-beat interval the client wants
+   *                               to receive at, zero for none
+   */
+  public void encodeConnect(
+    String host,
+    String login,
+    String passcode,
+    long heartbeatSendMillis,
+    long heartbeatReceiveMillis
+  ) {
+    // CONNECT headers are not escaped, see the STOMP 1.2 spec.
+    byte[] frame = (
+      "CONNECT\n" +
+      "accept-version:1.2\n" +
+      "host:" + host + "\n" +
+      "login:" + login + "\n" +
+      "passcode:" + passcode + "\n" +
+      "heart-beat:" + heartbeatSendMillis + "," + heartbeatReceiveMillis +
+      "\n\n\u0000"
+    ).getBytes(StandardCharsets.UTF_8);
+    ensureCapacity(frame.length).put(frame);
+  }
+
+  /**
+   * Encodes a SUBSCRIBE frame with automatic acknowledgement.
+   *
+   * @param id the subscription id
+   * @param destination the destination to subscribe to
+   */
+  public void encodeSubscribe(String id, String destination) {
+    byte[] frame = (
+      "SUBSCRIBE\n" +
+      "id:" + escape(id) + "\n" +
+      "destination:" + escape(destination) + "\n" +
+      "ack:auto\n\n\u0000"
+    ).getBytes(StandardCharsets.UTF_8);
+    ensureCapacity(frame.length).put(frame);
+  }
+
+  /**
+   * Encodes an UNSUBSCRIBE frame.
+   *
+   * @param id the id of the subscription to end
+   */
+  public void encodeUnsubscribe(String id) {
+    byte[] frame = ("UNSUBSCRIBE\n" + "id:" + escape(id) + "\n\n\u0000").getBytes(
+        StandardCharsets.UTF_8
+      );
+    ensureCapacity(frame.length).put(frame);
+  }
+
+  /**
+   * Encodes the command and destination header of a SEND frame. The result
+   * never changes for a destination and is meant to be cached.
+   *
+   * @param destination the destination to send to
+   * @return the encoded frame start
+   */
+  public static byte[] sendHeaders(String destination) {
+    return ("SEND\ndestination:" + escape(destination) + "\n").getBytes(
+        StandardCharsets.UTF_8
+      );
+  }
+
+  /**
+   * Encodes a SEND frame.
+   *
+   * @param headers the frame start returned by {@link #sendHeaders(String)}
+   * @param customUserId the id of the sending user, may be null
+   * @param persistedId the id the message was persisted with, 0 for none
+   * @param body the message body
+   */
+  public void encodeSend(
+    byte[] headers,
+    String customUserId,
+    long persistedId,
+    CharSequence body
+  ) {
+    int bodyLength = utf8Length(body, false);
+    int userIdLength = customUserId != null
+      ? CUSTOM_USER_ID.length + utf8Length(customUserId, true) + 1
+      : 0;
+
+    ByteBuffer out = ensureCapacity(
+      headers.length +
+      userIdLength +
+      PERSISTED_ID.length +
+      20 +
+      1 +
+      CONTENT_LENGTH.length +
+      10 +
+      2 +
+      bodyLength +
+      1
+    );
+    out.put(headers);
+    if (customUserId != null) {
+      out.put(CUSTOM_USER_ID);
+      putUtf8(out, customUserId, true);
+      out.put((byte) '\n');
+    }
+    putPersistedId(out, persistedId);
+    out.put(CONTENT_LENGTH);
+    putDecimal(out, bodyLength);
+    out.put((byte) '\n').put((byte) '\n');
+    putUtf8(out, body, false);
+    out.put((byte) 0);
+  }
+
+  /**
+   * Encodes a SEND frame with a compressed body.
+   *
+   * @param headers the frame start returned by {@link #sendHeaders(String)}
+   * @param customUserId the id of the sending user, may be null
+   * @param persistedId the id the message was persisted with, 0 for none
+   * @param contentEncoding the algorithm the body was compressed with
+   * @param body the compressed message body
+   */
+  public void encodeSend(
+    byte[] headers,
+    String customUserId,
+    long persistedId,
+    String contentEncoding,
+    byte[] body
+  ) {
+    int userIdLength = customUserId != null
+      ? CUSTOM_USER_ID.length + utf8Length(customUserId, true) + 1
+      : 0;
+
+    ByteBuffer out = ensureCapacity(
+      headers.length +
+      userIdLength +
+      PERSISTED_ID.length +
+      20 +
+      1 +
+      CONTENT_ENCODING.length +
+      utf8Length(contentEncoding, true) +
+      1 +
+      CONTENT_LENGTH.length +
+      10 +
+      2 +
+      body.length +
+      1
+    );
+    out.put(headers);
+    if (customUserId != null) {
+      out.put(CUSTOM_USER_ID);
+      putUtf8(out, customUserId, true);
+      out.put((byte) '\n');
+    }
+    putPersistedId(out, persistedId);
+    out.put(CONTENT_ENCODING);
+    putUtf8(out, contentEncoding, true);
+    out.put((byte) '\n');
+    out.put(CONTENT_LENGTH);
+    putDecimal(out, body.length);
+    out.put((byte) '\n').put((byte) '\n');
+    out.put(body);
+    out.put((byte) 0);
+  }
+
+  /**
+   * Encodes a DISCONNECT frame.
+   */
+  public void encodeDisconnect() {
+    ensureCapacity(DISCONNECT.length).put(DISCONNECT);
+  }
+
+  /**
+   * Encodes a heart-beat, which is a single EOL between frames.
+   */
+  public void encodeHeartbeat() {
+    ensureCapacity(1).put((byte) '\n');
+  }
+
+  private ByteBuffer ensureCapacity(int additional) {
+    if (buffer.remaining() < additional) {
+      int capacity = Math.max(
+        buffer.capacity() * 2,
+        buffer.position() + additional
+      );
+      buffer = ByteBuffer.allocateDirect(capacity).put(buffer.flip());
+    }
+    return buffer;
+  }
+
+  private static void putPersistedId(ByteBuffer out, long persistedId) {
+    if (persistedId <= 0) return;
+    out.put(PERSISTED_ID);
+    putDecimal(out, persistedId);
+    out.put((byte) '\n');
+  }
+
+  private static void putDecimal(ByteBuffer out, long value) {
+    if (value >= 10) {
+      putDecimal(out, value / 10);
+    }
+    out.put((byte) ('0' + value % 10));
+  }
+
+  private static int utf8Length(CharSequence value, boolean escape) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length += escape && needsEscape(c) ? 2 : 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (
+        Character.isHighSurrogate(c) &&
+        i + 1 < value.length() &&
+        Character.isLowSurrogate(value.charAt(i + 1))
+      ) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static void putUtf8(ByteBuffer out, CharSequence value, boolean escape) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        if (escape && needsEscape(c)) {
+          out.put((byte) '\\').put((byte) escapeCode(c));
+        } else {
+          out.put((byte) c);
+        }
+      } else if (c < 0x800) {
+        out.put((byte) (0xC0 | (c >> 6)));
+        out.put((byte) (0x80 | (c & 0x3F)));
+      } else if (
+        Character.isHighSurrogate(c) &&
+        i + 1 < value.length() &&
+        Character.isLowSurrogate(value.charAt(i + 1))
+      ) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        out.put((byte) (0xF0 | (codePoint >> 18)));
+        out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        out.put((byte) (0x80 | (codePoint & 0x3F)));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates are replaced with U+FFFD.
+        out.put((byte) 0xEF).put((byte) 0xBF).put((byte) 0xBD);
+      } else {
+        out.put((byte) (0xE0 | (c >> 12)));
+        out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        out.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  private static boolean needsEscape(char c) {
+    return c == '\\' || c == '\n' || c == '\r' || c == ':';
+  }
+
+  private static char escapeCode(char c) {
+    return switch (c) {
+      case '\n' -> 'n';
+      case '\r' -> 'r';
+      case ':' -> 'c';
+      default -> '\\';
+    };
+  }
+
+  private static String escape(String value) {
+    StringBuilder escaped = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (needsEscape(c)) {
+        escaped.append('\\').append(escapeCode(c));
+      } else {
+        escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,29 @@
+package com.example.websocketbroker.transport;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter for reconnect attempts. The delay cap
+ * doubles with every failed attempt up to the maximum, and the actual
+ * delay is drawn from the upper half of the cap ("equal jitter"). The
+ * attempts of connections that failed at the same moment, e.g. on a
+ * broker restart, are thereby spread out instead of retrying in lockstep,
+ * while each one still waits at least half the cap.
+ *
+ * @param initialMillis the cap of the first attempt
+ * @param maxMillis the largest cap
+ * @author Tobias Andraschko
+ */
+public record Backoff(long initialMillis, long maxMillis) {
+  /**
+   * Computes the delay before an attempt.
+   *
+   * @param attempt the number of failed attempts so far, starting at 0
+   * @return the delay in milliseconds
+   */
+  public long delayMillis(int attempt) {
+    long cap = Math.min(maxMillis, initialMillis << Math.min(attempt, 30));
+    long half = cap / 2;
+    return half + ThreadLocalRandom.current().nextLong(cap - half + 1);
+  }
+}
@@ -0,0 +1,114 @@
+package com.example.websocketbroker.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A circuit breaker guarding the broker connection of one tenant, shared
+ * by all of its channels.
+ * <p>
+ * The circuit opens after a number of consecutive connection failures.
+ * While it is open, no connection attempts are made and callers don't
+ * wait for the connection. Once the open duration has passed the circuit
+ * is half open: a single channel probes the broker, and its outcome
+ * closes the circuit again or keeps it open for another period.
+ *
+ * @author Tobias Andraschko
+ */
+public class CircuitBreaker {
+
+  /**
+   * The state of the circuit.
+   */
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN,
+  }
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile State state = State.CLOSED;
+  private int failures;
+  private long openedAt;
+  private boolean probing;
+
+  /**
+   * Creates a closed circuit breaker.
+   *
+   * @param failureThreshold the consecutive failures that open the circuit
+   * @param openMillis how long the circuit stays open before probing
+   */
+  public CircuitBreaker(int failureThreshold, long openMillis) {
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+  }
+
+  /**
+   * Asks to start a connection attempt.
+   *
+   * @return 0 if the attempt may start now, otherwise the time to wait
+   *         before asking again in milliseconds
+   */
+  public long attemptDelayMillis() {
+    lock.lock();
+    try {
+      if (state == State.OPEN) {
+        long remaining = openNanos - (System.nanoTime() - openedAt);
+        if (remaining > 0) {
+          return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+        }
+        state = State.HALF_OPEN;
+      }
+      if (state == State.HALF_OPEN) {
+        if (probing) return Math.max(1, TimeUnit.NANOSECONDS.toMillis(openNanos));
+        probing = true;
+      }
+      return 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records a successful connection, which closes the circuit.
+   */
+  public void recordSuccess() {
+    lock.lock();
+    try {
+      state = State.CLOSED;
+      failures = 0;
+      probing = false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records a failed or lost connection. Opens the circuit once the
+   * threshold is reached, or right away if it was a probe that failed.
+   */
+  public void recordFailure() {
+    lock.lock();
+    try {
+      failures++;
+      if (state == State.HALF_OPEN || failures >= failureThreshold) {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        probing = false;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the current state.
+   *
+   * @return the state of the circuit
+   */
+  public State state() {
+    return state;
+  }
+}
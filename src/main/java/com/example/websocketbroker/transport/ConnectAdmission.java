@@ -0,0 +1,73 @@
+package com.example.websocketbroker.transport;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many connection attempts are in flight at once. Attempts
+ * beyond the limit are queued and started as earlier ones finish, so a
+ * burst of connects or reconnects (e.g. after a broker restart) reaches
+ * the broker at a bounded rate. Nothing ever blocks: callers hand over
+ * the attempt and return immediately.
+ *
+ * @author Tobias Andraschko
+ */
+public class ConnectAdmission {
+
+  private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger available;
+
+  /**
+   * Creates an admission controller.
+   *
+   * @param maxConcurrentConnects the maximum number of attempts in flight
+   */
+  public ConnectAdmission(int maxConcurrentConnects) {
+    this.available = new AtomicInteger(maxConcurrentConnects);
+  }
+
+  /**
+   * Starts the attempt as soon as a slot is free. Every started attempt
+   * must call {@link #release()} exactly once when it has finished,
+   * whether it succeeded or not.
+   *
+   * @param attempt the connection attempt, which must not block
+   */
+  public void submit(Runnable attempt) {
+    waiting.add(attempt);
+    drain();
+  }
+
+  /**
+   * Frees the slot of a finished attempt.
+   */
+  public void release() {
+    available.incrementAndGet();
+    drain();
+  }
+
+  /**
+   * Returns the number of attempts waiting for a slot.
+   *
+   * @return the number of queued attempts
+   */
+  public int queued() {
+    return waiting.size();
+  }
+
+  private void drain() {
+    while (!waiting.isEmpty()) {
+      int slots = available.get();
+      if (slots == 0) return;
+      if (!available.compareAndSet(slots, slots - 1)) continue;
+
+      Runnable attempt = waiting.poll();
+      if (attempt == null) {
+        available.incrementAndGet();
+      } else {
+        attempt.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package com.example.websocketbroker.transport;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A single-threaded NIO event loop. One thread drives a {@link Selector}
+ * for any number of non-blocking channels and runs submitted and delayed
+ * tasks in between selects. All state of a channel registered here is
+ * only ever touched from this thread.
+ * <p>
+ * Delayed tasks, i.e. the heart-beats, read timeouts and reconnect timers
+ * of all channels on the loop, are kept in a {@link HashedTimerWheel}
+ * ticking every {@value #TICK_MILLIS} ms, so the selector only wakes up
+ * for them once per tick.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+public class EventLoop implements Executor {
+
+  private static final long TICK_MILLIS = 100;
+  private static final int TICKS_PER_WHEEL = 512;
+
+  private final Selector selector;
+  private final Thread thread;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final HashedTimerWheel timerWheel = new HashedTimerWheel(
+    TICK_MILLIS,
+    TICKS_PER_WHEEL,
+    System.nanoTime()
+  );
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
+  private volatile boolean running = true;
+
+  /**
+   * Creates the event loop and starts its thread.
+   *
+   * @param threadFactory the factory creating the event loop thread
+   * @throws IOException if the selector cannot be opened
+   */
+  public EventLoop(ThreadFactory threadFactory) throws IOException {
+    this.selector = Selector.open();
+    this.thread = threadFactory.newThread(this::run);
+    this.thread.start();
+  }
+
+  /**
+   * Submits a task to run on the event loop thread.
+   *
+   * @param task the task to run
+   */
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Schedules a task to run on the event loop thread after a delay.
+   *
+   * @param task the task to run
+   * @param delayMillis the delay in milliseconds
+   * @return a handle which can be used to cancel the task
+   */
+  public ScheduledTask schedule(Runnable task, long delayMillis) {
+    ScheduledTask scheduledTask = new ScheduledTask(
+      task,
+      System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)
+    );
+    execute(() -> timerWheel.add(scheduledTask));
+    return scheduledTask;
+  }
+
+  /**
+   * Registers a channel with this event loop's selector. Must be called
+   * from the event loop thread.
+   *
+   * @param channel the non-blocking channel to register
+   * @param ops the initial interest set
+   * @param handler the handler invoked when the channel is ready
+   * @return the selection key of the registration
+   * @throws ClosedChannelException if the channel is closed
+   */
+  public SelectionKey register(
+    SelectableChannel channel,
+    int ops,
+    SelectionHandler handler
+  ) throws ClosedChannelException {
+    return channel.register(selector, ops, handler);
+  }
+
+  /**
+   * Checks if the caller is running on the event loop thread.
+   *
+   * @return true if called from the event loop thread, false otherwise
+   */
+  public boolean inEventLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * Stops the event loop after running the tasks already submitted and
+   * waits for its thread to terminate.
+   *
+   * @param timeoutMillis the maximum time to wait in milliseconds
+   */
+  public void shutdown(long timeoutMillis) {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        select();
+        wakeupPending.set(false);
+        processSelectedKeys();
+        runTasks();
+        runScheduledTasks();
+      } catch (IOException e) {
+        log.error("Error in event loop {}: {}", thread.getName(), e.getMessage());
+      }
+    }
+    runTasks();
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.error(
+        "Error closing selector of event loop {}: {}",
+        thread.getName(),
+        e.getMessage()
+      );
+    }
+  }
+
+  private void select() throws IOException {
+    long remainingNanos = timerWheel.nanosUntilNextTick(System.nanoTime());
+    if (!tasks.isEmpty() || remainingNanos == 0) {
+      selector.selectNow();
+    } else if (remainingNanos < 0) {
+      selector.select();
+    } else {
+      selector.select(
+        Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos))
+      );
+    }
+  }
+
+  private void processSelectedKeys() {
+    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+      if (!key.isValid()) {
+        continue;
+      }
+      try {
+        ((SelectionHandler) key.attachment()).onSelected(key);
+      } catch (RuntimeException e) {
+        log.error("Unhandled error in event loop {}", thread.getName(), e);
+      }
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.error("Unhandled error in event loop {}", thread.getName(), e);
+      }
+    }
+  }
+
+  private void runScheduledTasks() {
+    timerWheel.expire(
+      System.nanoTime(),
+      task -> {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          log.error("Unhandled error in event loop {}", thread.getName(), e);
+        }
+      }
+    );
+  }
+}
@@ -0,0 +1,75 @@
+package com.example.websocketbroker.transport;
+
+import com.example.websocketbroker.config.ThreadFactories;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A fixed set of {@link EventLoop}s shared by all broker connections.
+ * Connections are spread across the loops round-robin, so the number of
+ * I/O threads stays constant no matter how many tenants are connected.
+ * <p>
+ * The loops always run on platform threads, even with virtual threads
+ * enabled. There are only a few of them and they only ever block in
+ * {@code Selector.select()}, so virtual threads would gain nothing.
+ *
+ * @author Tobias Andraschko
+ */
+@Slf4j
+@Component
+public class EventLoopGroup {
+
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+  @Value("${websocket.relay.io-threads}")
+  private int ioThreads;
+
+  private EventLoop[] eventLoops;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * Starts the event loop threads.
+   */
+  @PostConstruct
+  public void init() {
+    int threads = ioThreads > 0
+      ? ioThreads
+      : Runtime.getRuntime().availableProcessors();
+    eventLoops = new EventLoop[threads];
+    ThreadFactory threadFactory = ThreadFactories.named("broker-io", false);
+    for (int i = 0; i < threads; i++) {
+      try {
+        eventLoops[i] = new EventLoop(threadFactory);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error opening event loop", e);
+      }
+    }
+    log.info("Started {} broker event loop threads", threads);
+  }
+
+  /**
+   * Stops all event loops on application shutdown.
+   */
+  @PreDestroy
+  public void shutdown() {
+    for (EventLoop eventLoop : eventLoops) {
+      eventLoop.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+    }
+  }
+
+  /**
+   * Picks the event loop for a new connection.
+   *
+   * @return the next event loop in round-robin order
+   */
+  public EventLoop next() {
+    return eventLoops[Math.floorMod(next.getAndIncrement(), eventLoops.length)];
+  }
+}
@@ -0,0 +1,124 @@
+package com.example.websocketbroker.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timer wheel holding the delayed tasks of one {@link EventLoop}.
+ * Time is cut into ticks, and a task goes into the bucket of the tick its
+ * deadline falls in, counting the full turns of the wheel it has to wait.
+ * Adding and cancelling a task is constant time no matter how many are
+ * pending, which matters with a heart-beat, a read timeout and possibly
+ * a reconnect timer per broker channel, all rescheduled constantly.
+ * <p>
+ * Tasks never run before their deadline, but up to one tick after it.
+ * Cancelled tasks stay in their bucket until it comes up and are dropped
+ * then. Not thread-safe; the event loop is the only caller.
+ *
+ * @author Tobias Andraschko
+ */
+public class HashedTimerWheel {
+
+  private final long tickNanos;
+  private final List<ScheduledTask>[] buckets;
+  private final int mask;
+  private final long startNanos;
+  // The next tick to expire, counted from startNanos.
+  private long tick;
+  private int size;
+
+  /**
+   * Creates an empty wheel.
+   *
+   * @param tickMillis the duration of a tick in milliseconds
+   * @param ticksPerWheel the number of buckets, rounded up to a power of two
+   * @param nowNanos the current {@link System#nanoTime()}
+   */
+  @SuppressWarnings("unchecked")
+  public HashedTimerWheel(long tickMillis, int ticksPerWheel, long nowNanos) {
+    if (tickMillis <= 0 || ticksPerWheel <= 0) {
+      throw new IllegalArgumentException("Tick and wheel size must be positive");
+    }
+    int wheelSize = 1;
+    while (wheelSize < ticksPerWheel) {
+      wheelSize <<= 1;
+    }
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    this.buckets = new List[wheelSize];
+    for (int i = 0; i < wheelSize; i++) {
+      buckets[i] = new ArrayList<>();
+    }
+    this.mask = wheelSize - 1;
+    this.startNanos = nowNanos;
+  }
+
+  /**
+   * Adds a task to the bucket of its deadline, or to the next one to
+   * expire if the deadline has passed.
+   *
+   * @param task the task to add
+   */
+  public void add(ScheduledTask task) {
+    long deadlineTick = Math.max(
+      tick,
+      Math.ceilDiv(task.deadlineNanos() - startNanos, tickNanos)
+    );
+    task.rounds = (deadlineTick - tick) / buckets.length;
+    buckets[(int) (deadlineTick & mask)].add(task);
+    size++;
+  }
+
+  /**
+   * Expires all ticks up to now and hands the due tasks to the runner.
+   * Tasks added by the runner are due one tick later at the earliest.
+   *
+   * @param nowNanos the current {@link System#nanoTime()}
+   * @param runner runs a due task
+   */
+  public void expire(long nowNanos, Consumer<ScheduledTask> runner) {
+    while (size > 0 && startNanos + tick * tickNanos <= nowNanos) {
+      int index = (int) (tick++ & mask);
+      List<ScheduledTask> bucket = buckets[index];
+      buckets[index] = new ArrayList<>();
+      for (ScheduledTask task : bucket) {
+        if (task.isCancelled()) {
+          size--;
+        } else if (task.rounds > 0) {
+          task.rounds--;
+          buckets[index].add(task);
+        } else {
+          size--;
+          runner.accept(task);
+        }
+      }
+    }
+    if (size == 0) {
+      // Nothing pending, skip ahead instead of walking the idle ticks later.
+      tick = Math.max(tick, (nowNanos - startNanos) / tickNanos);
+    }
+  }
+
+  /**
+   * Returns how long the event loop may wait before the next tick is due.
+   *
+   * @param nowNanos the current {@link System#nanoTime()}
+   * @return the nanoseconds until the next tick, zero if it is due, or -1
+   *         if no tasks are pending
+   */
+  public long nanosUntilNextTick(long nowNanos) {
+    if (size == 0) return -1;
+    return Math.max(0, startNanos + tick * tickNanos - nowNanos);
+  }
+
+  /**
+   * Returns the number of pending tasks, including cancelled ones that
+   * haven't been dropped yet.
+   *
+   * @return the number of pending tasks
+   */
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,104 @@
+package com.example.websocketbroker.transport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded multi-producer queue of outbound frames, drained by a single
+ * writer. What happens when producers outpace the writer is decided by the
+ * configured {@link OverflowPolicy}.
+ *
+ * @param <T> the type of the queued frames
+ * @author Tobias Andraschko
+ */
+public class OutboundQueue<T> {
+
+  /**
+   * Behaviour when a frame is offered to a full queue.
+   */
+  public enum OverflowPolicy {
+    /** Wait up to the block timeout for space, then reject the frame. */
+    BLOCK,
+    /** Discard the oldest queued frame to make room for the new one. */
+    DROP_OLDEST,
+    /** Reject the frame immediately. */
+    FAIL,
+  }
+
+  private final BlockingQueue<T> queue;
+  private final OverflowPolicy overflowPolicy;
+  private final long blockTimeoutMillis;
+
+  /**
+   * Creates an empty queue.
+   *
+   * @param capacity the maximum number of queued frames
+   * @param overflowPolicy the behaviour when the queue is full
+   * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits
+   */
+  public OutboundQueue(
+    int capacity,
+    OverflowPolicy overflowPolicy,
+    long blockTimeoutMillis
+  ) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.overflowPolicy = overflowPolicy;
+    this.blockTimeoutMillis = blockTimeoutMillis;
+  }
+
+  /**
+   * Adds a frame to the queue, applying the overflow policy if it is full.
+   *
+   * @param frame the frame to add
+   * @return true if the frame was queued, false if it was rejected
+   */
+  public boolean offer(T frame) {
+    if (queue.offer(frame)) return true;
+
+    switch (overflowPolicy) {
+      case BLOCK -> {
+        try {
+          return queue.offer(frame, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      case DROP_OLDEST -> {
+        do {
+          queue.poll();
+        } while (!queue.offer(frame));
+        return true;
+      }
+      default -> {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Removes the oldest frame from the queue.
+   *
+   * @return the oldest frame, or null if the queue is empty
+   */
+  public T poll() {
+    return queue.poll();
+  }
+
+  /**
+   * Returns the number of queued frames.
+   *
+   * @return the queue depth
+   */
+  public int size() {
+    return queue.size();
+  }
+
+  /**
+   * Discards all queued frames.
+   */
+  public void clear() {
+    queue.clear();
+  }
+}
@@ -0,0 +1,48 @@
+package com.example.websocketbroker.transport;
+
+/**
+ * A task scheduled on an {@link EventLoop} for execution after a delay.
+ * Cancelled tasks stay in the loop's {@link HashedTimerWheel} until their
+ * bucket comes up but are not run.
+ *
+ * @author Tobias Andraschko
+ */
+public class ScheduledTask {
+
+  private final Runnable task;
+  private final long deadlineNanos;
+  private volatile boolean cancelled;
+  // Turns of the timer wheel left before the task is due.
+  long rounds;
+
+  ScheduledTask(Runnable task, long deadlineNanos) {
+    this.task = task;
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * Prevents the task from running if it hasn't run yet.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Checks if the task has been cancelled.
+   *
+   * @return true if cancelled, false otherwise
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  long deadlineNanos() {
+    return deadlineNanos;
+  }
+
+  void run() {
+    if (!cancelled) {
+      task.run();
+    }
+  }
+}
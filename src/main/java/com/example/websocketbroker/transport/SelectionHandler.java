@@ -0,0 +1,20 @@
+package com.example.websocketbroker.transport;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * Callback attached to a channel registered with an {@link EventLoop}.
+ * The handler is always invoked on the event loop thread that owns the
+ * channel, so implementations don't need any locking for channel state.
+ *
+ * @author Tobias Andraschko
+ */
+@FunctionalInterface
+public interface SelectionHandler {
+  /**
+   * Called when the channel is ready for one of its registered operations.
+   *
+   * @param key the selection key of the ready channel
+   */
+  void onSelected(SelectionKey key);
+}
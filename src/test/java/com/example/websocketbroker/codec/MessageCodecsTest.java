@@ -0,0 +1,131 @@
+package com.example.websocketbroker.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.example.websocketbroker.config.CodecProperties;
+import com.example.websocketbroker.config.CompressionProperties;
+import com.example.websocketbroker.config.RedisConfig;
+import com.example.websocketbroker.model.MessageData;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class MessageCodecsTest {
+
+  private static final long TIMESTAMP = 1_700_000_000_123L;
+  private static final long ID = TIMESTAMP * 1000 + 7;
+
+  private final MessageCodecs codecs = codecs();
+
+  @Test
+  void roundTripsBinaryMessages() throws IOException {
+    byte[] value = codecs
+      .forTenant("tenant2")
+      .encode(ID, TIMESTAMP, "alice", "Grüße 😀");
+
+    assertThat(BinaryMessageCodec.isBinary(value)).isTrue();
+    MessageData decoded = codecs.decode(value);
+    assertThat(decoded.getId()).isEqualTo(ID);
+    assertThat(decoded.getTimestamp()).isEqualTo(localTime(TIMESTAMP));
+    assertThat(decoded.getCustomUserId()).isEqualTo("alice");
+    assertThat(decoded.getMessage()).isEqualTo("Grüße 😀");
+  }
+
+  @Test
+  void keepsMissingAndEmptyUserIdsApart() throws IOException {
+    MessageCodec codec = codecs.forTenant("tenant2");
+
+    assertThat(codecs.decode(codec.encode(ID, TIMESTAMP, null, "hi")).getCustomUserId())
+      .isNull();
+    assertThat(codecs.decode(codec.encode(ID, TIMESTAMP, "", "hi")).getCustomUserId())
+      .isEmpty();
+  }
+
+  @Test
+  void readsJsonMessagesOfAnyTenant() throws IOException {
+    byte[] value = codecs.forTenant("tenant1").encode(ID, TIMESTAMP, "bob", "hello");
+
+    assertThat(new String(value, StandardCharsets.UTF_8)).startsWith("{");
+    MessageData decoded = codecs.decode(value);
+    assertThat(decoded.getId()).isEqualTo(ID);
+    assertThat(decoded.getTimestamp()).isEqualTo(localTime(TIMESTAMP));
+    assertThat(decoded.getCustomUserId()).isEqualTo("bob");
+    assertThat(decoded.getMessage()).isEqualTo("hello");
+  }
+
+  @Test
+  void readsBinaryMessagesWithoutId() throws IOException {
+    byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+    ByteBuffer value = ByteBuffer.allocate(2 + Long.BYTES + 2 + body.length);
+    value.put((byte) 0).put((byte) 1).putLong(TIMESTAMP);
+    value.put((byte) 0).put((byte) body.length).put(body);
+
+    MessageData decoded = codecs.decode(value.array());
+    assertThat(decoded.getId()).isNull();
+    assertThat(decoded.getTimestamp()).isEqualTo(localTime(TIMESTAMP));
+    assertThat(decoded.getMessage()).isEqualTo("hello");
+  }
+
+  @Test
+  void binaryIsSmallerThanJson() {
+    byte[] json = codecs.forTenant("tenant1").encode(ID, TIMESTAMP, "bob", "hello");
+    byte[] binary = codecs.forTenant("tenant2").encode(ID, TIMESTAMP, "bob", "hello");
+
+    assertThat(binary.length).isLessThan(json.length / 3);
+  }
+
+  @Test
+  void rejectsTruncatedBinaryMessages() {
+    byte[] value = codecs.forTenant("tenant2").encode(ID, TIMESTAMP, "alice", "hello");
+
+    assertThatThrownBy(() -> codecs.decode(Arrays.copyOf(value, value.length - 2)))
+      .isInstanceOf(IOException.class);
+  }
+
+  @Test
+  void compressesMessagesFromTheThreshold() throws IOException {
+    MessageCodec codec = codecs.forTenant("tenant3");
+    String large = "hello ".repeat(100);
+
+    byte[] small = codec.encode(ID, TIMESTAMP, "alice", "hello");
+    byte[] compressed = codec.encode(ID, TIMESTAMP, "alice", large);
+
+    assertThat(PayloadCompressor.isCompressed(small)).isFalse();
+    assertThat(PayloadCompressor.isCompressed(compressed)).isTrue();
+    assertThat(compressed.length).isLessThan(large.length() / 4);
+    assertThat(codecs.decode(small).getMessage()).isEqualTo("hello");
+    assertThat(codecs.decode(compressed).getMessage()).isEqualTo(large);
+  }
+
+  @Test
+  void rejectsCorruptCompressedMessages() {
+    byte[] value = codecs.forTenant("tenant3").encode(ID, TIMESTAMP, "alice", "x".repeat(500));
+    value[value.length / 2] ^= 0x55;
+
+    assertThatThrownBy(() -> codecs.decode(value)).isInstanceOf(IOException.class);
+  }
+
+  private static MessageCodecs codecs() {
+    CodecProperties properties = new CodecProperties();
+    properties.getTenants().put("tenant2", MessageFormat.BINARY);
+    properties.getTenants().put("tenant3", MessageFormat.BINARY);
+    CompressionProperties compressionProperties = new CompressionProperties();
+    compressionProperties.setThreshold(256);
+    compressionProperties.getTenants().put("tenant3", Compression.DEFLATE);
+    return new MessageCodecs(
+      properties,
+      compressionProperties,
+      new RedisConfig().objectMapper()
+    );
+  }
+
+  private static LocalDateTime localTime(long epochMillis) {
+    return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+  }
+}
@@ -0,0 +1,226 @@
+package com.example.websocketbroker.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.websocketbroker.codec.PayloadCompressor;
+import com.example.websocketbroker.metrics.TenantMetrics;
+import com.example.websocketbroker.stomp.StompFrame.MessageFrame;
+import com.example.websocketbroker.transport.Backoff;
+import com.example.websocketbroker.transport.ConnectAdmission;
+import com.example.websocketbroker.transport.EventLoopGroup;
+import com.example.websocketbroker.transport.OutboundQueue.OverflowPolicy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class BrokerConnectionTest {
+
+  private static final int MESSAGES = 64;
+  private static final int MESSAGE_BYTES = 256 * 1024;
+  private static final String CONNECTED = "CONNECTED\nversion:1.2\nheart-beat:0,0\n\n\0";
+  private static final Pattern MESSAGE_ID = Pattern.compile(
+    "^SEND\n.*?\n\nid:(\\d+):",
+    Pattern.DOTALL
+  );
+
+  private final EventLoopGroup eventLoopGroup = new EventLoopGroup();
+  private ServerSocket broker;
+  private BrokerConnection connection;
+
+  @AfterEach
+  void tearDown() throws IOException {
+    if (connection != null) connection.disconnect();
+    if (broker != null) broker.close();
+    eventLoopGroup.shutdown();
+  }
+
+  @Test
+  void resendsMessagesQueuedWhenTheChannelReconnects() throws Exception {
+    connect(MESSAGES);
+
+    Set<Integer> received = new HashSet<>();
+    try (Socket first = broker.accept()) {
+      InputStream in = new BufferedInputStream(first.getInputStream());
+      assertThat(readFrame(in)).startsWith("CONNECT\n");
+      write(first, CONNECTED);
+      awaitConnected();
+
+      // The broker doesn't read, so most messages stay queued.
+      sendMessages();
+      Thread.sleep(200);
+      assertThat(connection.queuedMessages()).isPositive();
+
+      write(first, "ERROR\nmessage:test\n\n\0");
+      String frame;
+      while ((frame = readFrame(in)) != null) {
+        messageId(frame, received);
+      }
+    }
+    assertThat(received).hasSizeLessThan(MESSAGES);
+
+    try (Socket second = broker.accept()) {
+      InputStream in = new BufferedInputStream(second.getInputStream());
+      assertThat(readFrame(in)).startsWith("CONNECT\n");
+      second.setSoTimeout(200);
+      assertThat(readFrameOrTimeout(in)).as("frame before CONNECTED").isNull();
+
+      second.setSoTimeout(10000);
+      write(second, CONNECTED);
+      readAll(in, received);
+    }
+    assertThat(connection.outboxSize()).isZero();
+  }
+
+  @Test
+  void retriesReplayedMessagesTheFullQueueRejects() throws Exception {
+    connect(1);
+
+    Set<Integer> received = new HashSet<>();
+    try (Socket socket = broker.accept()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      assertThat(readFrame(in)).startsWith("CONNECT\n");
+      // Not connected yet, so the messages are kept in the outbox.
+      sendMessages();
+      assertThat(connection.outboxSize()).isEqualTo(MESSAGES);
+
+      // The broker doesn't read, so the replay soon finds the queue full.
+      write(socket, CONNECTED);
+      Thread.sleep(300);
+      assertThat(connection.outboxSize()).isPositive();
+
+      socket.setSoTimeout(10000);
+      readAll(in, received);
+    }
+    assertThat(connection.outboxSize()).isZero();
+  }
+
+  private void connect(int queueCapacity) throws IOException {
+    broker = new ServerSocket();
+    // Keeps the socket buffers small, so the sends pile up in the queue.
+    broker.setReceiveBufferSize(8 * 1024);
+    broker.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    eventLoopGroup.init();
+    connection =
+      connection((InetSocketAddress) broker.getLocalSocketAddress(), queueCapacity);
+    connection.connect();
+  }
+
+  private void sendMessages() {
+    String padding = "x".repeat(MESSAGE_BYTES);
+    for (int i = 0; i < MESSAGES; i++) {
+      String message = "id:" + i + ":" + padding;
+      assertThat(connection.sendMessage(Destination.of("chat"), message, "user1", 0))
+        .isTrue();
+    }
+  }
+
+  private static void readAll(InputStream in, Set<Integer> received)
+    throws IOException {
+    while (received.size() < MESSAGES) {
+      String frame = readFrame(in);
+      assertThat(frame).isNotNull();
+      messageId(frame, received);
+    }
+  }
+
+  private BrokerConnection connection(InetSocketAddress address, int queueCapacity) {
+    BrokerConnectionSettings settings = new BrokerConnectionSettings(
+      address,
+      queueCapacity,
+      OverflowPolicy.FAIL,
+      0,
+      64 * 1024,
+      new Backoff(50, 100),
+      100,
+      1000,
+      MESSAGES,
+      new Backoff(10, 50),
+      0,
+      0
+    );
+    return new BrokerConnection(
+      "tenant1",
+      settings,
+      1,
+      eventLoopGroup,
+      new ConnectAdmission(4),
+      new TenantMetrics(new SimpleMeterRegistry(), "tenant1"),
+      PayloadCompressor.NONE,
+      new BrokerSubscriber() {
+        @Override
+        public Collection<Destination> topics() {
+          return List.of();
+        }
+
+        @Override
+        public void onMessage(Destination destination, MessageFrame frame) {}
+      },
+      Thread.ofPlatform().daemon().factory()
+    );
+  }
+
+  private void awaitConnected() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!connection.isConnected() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(connection.isConnected()).isTrue();
+  }
+
+  private static void write(Socket socket, String frame) throws IOException {
+    socket.getOutputStream().write(frame.getBytes(StandardCharsets.UTF_8));
+    socket.getOutputStream().flush();
+  }
+
+  private static void messageId(String frame, Set<Integer> received) {
+    if (frame.startsWith("DISCONNECT")) return;
+    Matcher matcher = MESSAGE_ID.matcher(frame);
+    assertThat(matcher.find()).as("SEND frame").isTrue();
+    received.add(Integer.parseInt(matcher.group(1)));
+  }
+
+  private static String readFrameOrTimeout(InputStream in) throws IOException {
+    try {
+      return readFrame(in);
+    } catch (SocketTimeoutException e) {
+      return null;
+    }
+  }
+
+  // Reads up to the next NUL, skipping heart-beats; null on a closed or
+  // reset socket, which drops the incomplete frame.
+  private static String readFrame(InputStream in) throws IOException {
+    ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    while (true) {
+      int b;
+      try {
+        b = in.read();
+      } catch (SocketTimeoutException e) {
+        throw e;
+      } catch (IOException e) {
+        return null;
+      }
+      if (b == -1) return null;
+      if (b == 0) return frame.toString(StandardCharsets.UTF_8);
+      if (b == '\n' && frame.size() == 0) continue;
+      frame.write(b);
+    }
+  }
+}
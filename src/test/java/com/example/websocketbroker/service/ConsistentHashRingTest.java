@@ -0,0 +1,51 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+
+  private static final int TENANTS = 10000;
+
+  @Test
+  void spreadsKeysEvenly() {
+    ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c"), 160);
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < TENANTS; i++) {
+      counts.merge(ring.nodeFor("tenant" + i), 1, Integer::sum);
+    }
+
+    assertThat(counts).hasSize(3);
+    counts.values().forEach(count -> assertThat(count).isBetween(2800, 3900));
+  }
+
+  @Test
+  void onlyMovesKeysToAnAddedNode() {
+    ConsistentHashRing before = new ConsistentHashRing(List.of("a", "b", "c"), 160);
+    ConsistentHashRing after = new ConsistentHashRing(List.of("a", "b", "c", "d"), 160);
+
+    int moved = 0;
+    for (int i = 0; i < TENANTS; i++) {
+      String node = after.nodeFor("tenant" + i);
+      if (!node.equals(before.nodeFor("tenant" + i))) {
+        assertThat(node).isEqualTo("d");
+        moved++;
+      }
+    }
+    assertThat(moved).isBetween(1800, 3200);
+  }
+
+  @Test
+  void assignsKeysIndependentlyOfNodeOrder() {
+    ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c"), 160);
+    ConsistentHashRing reordered = new ConsistentHashRing(List.of("c", "a", "b"), 160);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(reordered.nodeFor("tenant" + i)).isEqualTo(ring.nodeFor("tenant" + i));
+    }
+  }
+}
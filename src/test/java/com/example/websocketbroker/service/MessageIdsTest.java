@@ -0,0 +1,40 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class MessageIdsTest {
+
+  private final MessageIds messageIds = new MessageIds();
+
+  @Test
+  void increasesPerTopicWithinAMillisecond() {
+    long first = messageIds.next("tenant1", "chat");
+    long second = messageIds.next("tenant1", "chat");
+    long third = messageIds.next("tenant1", "chat");
+
+    assertThat(second).isGreaterThan(first);
+    assertThat(third).isGreaterThan(second);
+  }
+
+  @Test
+  void followsTheClock() {
+    long before = System.currentTimeMillis();
+    long id = messageIds.next("tenant1", "news");
+    long after = System.currentTimeMillis();
+
+    assertThat(id / MessageIds.IDS_PER_MILLI).isBetween(before, after + 1);
+  }
+
+  @Test
+  void keepsTopicsApart() {
+    for (int i = 0; i < 5000; i++) {
+      messageIds.next("tenant1", "chat");
+    }
+    long now = System.currentTimeMillis();
+
+    assertThat(messageIds.next("tenant2", "chat") / MessageIds.IDS_PER_MILLI)
+      .isLessThanOrEqualTo(now + 1);
+  }
+}
@@ -0,0 +1,262 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.example.websocketbroker.codec.MessageCodecs;
+import com.example.websocketbroker.config.CodecProperties;
+import com.example.websocketbroker.config.CompressionProperties;
+import com.example.websocketbroker.config.RedisConfig;
+import com.example.websocketbroker.config.RedisShardProperties;
+import com.example.websocketbroker.config.RetentionProperties;
+import com.example.websocketbroker.service.MessageRetention.Retention;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisKeyCommands;
+import org.springframework.data.redis.connection.RedisListCommands;
+import org.springframework.data.redis.connection.RedisScriptingCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+class MessageRetentionTest {
+
+  private static final String KEY = "messages:tenant1:chat";
+  private static final long NOW = System.currentTimeMillis();
+  private static final long OLD = NOW - Duration.ofDays(8).toMillis();
+
+  private final Map<String, List<byte[]>> lists = new HashMap<>();
+  private final Map<String, Long> ttls = new HashMap<>();
+  private final RetentionProperties properties = new RetentionProperties();
+  private final MessageCodecs codecs = new MessageCodecs(
+    new CodecProperties(),
+    new CompressionProperties(),
+    new RedisConfig().objectMapper()
+  );
+  private final StringRedisTemplate template = template();
+  private Runnable beforeNextTrim = () -> {};
+
+  @Test
+  void trimsListsToTheMaximumCountOnWrite() throws IOException {
+    properties.getDefaults().setMaxCount(3L);
+    MessageRetention retention = retention();
+    push(KEY, NOW, 5);
+
+    write(retention, KEY, retention.retentionFor("tenant1", "chat"));
+
+    assertThat(messages(KEY)).containsExactly("2", "3", "4");
+    assertThat(ttls).doesNotContainKey(KEY);
+  }
+
+  @Test
+  void resolvesTheNarrowestConfiguredLimits() {
+    properties.getDefaults().setMaxCount(100L);
+    properties.getDefaults().setMaxAge(Duration.ofDays(7));
+    RetentionProperties.Limits chat = new RetentionProperties.Limits();
+    chat.setMaxCount(10L);
+    properties.getTenants().put("tenant1", Map.of("chat", chat));
+    MessageRetention retention = retention();
+
+    assertThat(retention.retentionFor("tenant1", "chat"))
+      .isEqualTo(new Retention(10, Duration.ofDays(7)));
+    assertThat(retention.retentionFor("tenant1", "news"))
+      .isEqualTo(new Retention(100, Duration.ofDays(7)));
+  }
+
+  @Test
+  void sweepsExpiredMessagesFromTheHead() throws IOException {
+    properties.getDefaults().setMaxAge(Duration.ofDays(7));
+    MessageRetention retention = retention();
+    push(KEY, OLD, 150);
+    push(KEY, NOW, 2);
+
+    write(retention, KEY, retention.retentionFor("tenant1", "chat"));
+    retention.sweep();
+
+    assertThat(messages(KEY)).containsExactly("0", "1");
+    assertThat(ttls).containsEntry(KEY, Duration.ofDays(7).toSeconds());
+  }
+
+  @Test
+  void rereadsTheHeadIfAWriteTrimmedItMeanwhile() throws IOException {
+    properties.getDefaults().setMaxAge(Duration.ofDays(7));
+    MessageRetention retention = retention();
+    push(KEY, OLD, 2);
+    push(KEY, NOW, 2);
+    write(retention, KEY, retention.retentionFor("tenant1", "chat"));
+
+    // A write trims the oldest message between the read and the trim.
+    beforeNextTrim = () -> lists.get(KEY).removeFirst();
+    retention.sweep();
+
+    assertThat(messages(KEY)).containsExactly("0", "1");
+  }
+
+  @Test
+  void migratesExistingListsOnAllNodes() throws IOException {
+    properties.setMigrateExisting(true);
+    properties.getDefaults().setMaxCount(3L);
+    properties.getDefaults().setMaxAge(Duration.ofDays(7));
+    MessageRetention retention = retention();
+    push(KEY, OLD, 2);
+    push(KEY, NOW, 4);
+    push("messages:tenant2:news", OLD, 1);
+    push("messages:invalid", OLD, 1);
+
+    retention.migrateExisting();
+
+    assertThat(messages(KEY)).containsExactly("1", "2", "3");
+    assertThat(lists.get("messages:tenant2:news")).isEmpty();
+    assertThat(lists.get("messages:invalid")).hasSize(1);
+    assertThat(ttls).containsOnlyKeys(KEY, "messages:tenant2:news");
+  }
+
+  @Test
+  void skipsMigrationUnlessEnabled() throws IOException {
+    properties.getDefaults().setMaxCount(3L);
+    MessageRetention retention = retention();
+    push(KEY, NOW, 5);
+
+    retention.migrateExisting();
+
+    assertThat(lists.get(KEY)).hasSize(5);
+  }
+
+  private MessageRetention retention() {
+    RedisShards redisShards = new RedisShards(new RedisShardProperties(), template);
+    redisShards.init();
+    return new MessageRetention(properties, redisShards, codecs);
+  }
+
+  // Stands in for Redis with the in-memory lists. The trim script is
+  // emulated by comparing the head of the list with the values passed.
+  @SuppressWarnings("unchecked")
+  private StringRedisTemplate template() {
+    RedisConnection connection = mock(RedisConnection.class);
+    when(connection.listCommands())
+      .thenReturn(mock(RedisListCommands.class, this::listCommand));
+    when(connection.keyCommands())
+      .thenReturn(mock(RedisKeyCommands.class, this::keyCommand));
+    when(connection.scriptingCommands())
+      .thenReturn(mock(RedisScriptingCommands.class, this::trimHead));
+
+    StringRedisTemplate template = mock(StringRedisTemplate.class);
+    when(template.execute(any(RedisCallback.class)))
+      .thenAnswer(invocation ->
+        invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection)
+      );
+    when(template.executePipelined(any(RedisCallback.class)))
+      .thenAnswer(invocation -> {
+        invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection);
+        return List.of();
+      });
+    when(template.scan(any(ScanOptions.class)))
+      .thenAnswer(invocation -> cursor(List.copyOf(lists.keySet()).iterator()));
+    return template;
+  }
+
+  private Object listCommand(InvocationOnMock invocation) {
+    List<byte[]> list = list(invocation.getArgument(0));
+    int size = list.size();
+    int start = index(invocation.<Long>getArgument(1), size);
+    int end = Math.min(index(invocation.<Long>getArgument(2), size), size - 1);
+    switch (invocation.getMethod().getName()) {
+      case "lRange" -> {
+        return start > end ? List.of() : List.copyOf(list.subList(start, end + 1));
+      }
+      case "lTrim" -> {
+        List<byte[]> kept = start > end
+          ? List.of()
+          : List.copyOf(list.subList(start, end + 1));
+        list.clear();
+        list.addAll(kept);
+        return null;
+      }
+      default -> throw new UnsupportedOperationException(invocation.getMethod().getName());
+    }
+  }
+
+  private Object keyCommand(InvocationOnMock invocation) {
+    if (!invocation.getMethod().getName().equals("expire")) {
+      throw new UnsupportedOperationException(invocation.getMethod().getName());
+    }
+    ttls.put(key(invocation.getArgument(0)), invocation.<Long>getArgument(1));
+    return true;
+  }
+
+  private Object trimHead(InvocationOnMock invocation) {
+    beforeNextTrim.run();
+    beforeNextTrim = () -> {};
+
+    Object[] arguments = invocation.getArguments();
+    List<byte[]> list = list((byte[]) arguments[3]);
+    int count = arguments.length - 4;
+    if (list.size() < count) return 0L;
+    for (int i = 0; i < count; i++) {
+      if (!Arrays.equals(list.get(i), (byte[]) arguments[i + 4])) return 0L;
+    }
+    list.subList(0, count).clear();
+    return (long) count;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Cursor<String> cursor(Iterator<String> keys) {
+    Cursor<String> cursor = mock(Cursor.class);
+    when(cursor.hasNext()).thenAnswer(invocation -> keys.hasNext());
+    when(cursor.next()).thenAnswer(invocation -> keys.next());
+    return cursor;
+  }
+
+  private void write(MessageRetention retention, String key, Retention limits) {
+    template.executePipelined(
+      (RedisCallback<Object>) connection -> {
+        retention.applyOnWrite(connection, key, limits);
+        return null;
+      }
+    );
+  }
+
+  private void push(String key, long timestamp, int count) {
+    List<byte[]> list = lists.computeIfAbsent(key, k -> new ArrayList<>());
+    for (int i = 0; i < count; i++) {
+      list.add(
+        codecs
+          .forTenant("tenant1")
+          .encode(timestamp * 1000 + i, timestamp, null, String.valueOf(i))
+      );
+    }
+  }
+
+  private List<String> messages(String key) throws IOException {
+    List<String> messages = new ArrayList<>();
+    for (byte[] value : lists.get(key)) {
+      messages.add(codecs.decode(value).getMessage());
+    }
+    return messages;
+  }
+
+  private List<byte[]> list(byte[] key) {
+    return lists.computeIfAbsent(key(key), k -> new ArrayList<>());
+  }
+
+  private static String key(byte[] key) {
+    return new String(key, StandardCharsets.UTF_8);
+  }
+
+  private static int index(long index, int size) {
+    return (int) Math.max(index < 0 ? size + index : index, 0);
+  }
+}
@@ -0,0 +1,85 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.websocketbroker.config.RateLimitProperties;
+import com.example.websocketbroker.config.RateLimitProperties.Limit;
+import com.example.websocketbroker.config.RateLimitProperties.Limits;
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final RateLimiter rateLimiter = new RateLimiter(
+    properties(),
+    new MessagingMetrics(registry, 100)
+  );
+
+  @Test
+  void limitsEachUserOfATenant() {
+    assertThat(rateLimiter.tryAcquire("tenant1", "alice")).isTrue();
+    assertThat(rateLimiter.tryAcquire("tenant1", "alice")).isTrue();
+    assertThat(rateLimiter.tryAcquire("tenant1", "alice")).isFalse();
+    assertThat(rateLimiter.tryAcquire("tenant1", "bob")).isTrue();
+
+    assertThat(rejected("tenant1", "user")).isEqualTo(1.0);
+  }
+
+  @Test
+  void limitsAllUsersOfATenantTogether() {
+    assertThat(rateLimiter.tryAcquire("tenant1", "alice")).isTrue();
+    assertThat(rateLimiter.tryAcquire("tenant1", "bob")).isTrue();
+    assertThat(rateLimiter.tryAcquire("tenant1", "carol")).isTrue();
+    assertThat(rateLimiter.tryAcquire("tenant1", "dave")).isFalse();
+
+    assertThat(rejected("tenant1", "tenant")).isEqualTo(1.0);
+  }
+
+  @Test
+  void doesNotChargeUsersForMessagesTheTenantRejects() {
+    assertThat(rateLimiter.tryAcquire("tenant1", "alice")).isTrue();
+    assertThat(rateLimiter.tryAcquire("tenant1", "bob")).isTrue();
+    assertThat(rateLimiter.tryAcquire("tenant1", "carol")).isTrue();
+    for (int i = 0; i < 3; i++) {
+      assertThat(rateLimiter.tryAcquire("tenant1", "dave")).isFalse();
+    }
+
+    assertThat(rejected("tenant1", "tenant")).isEqualTo(3.0);
+    assertThat(rejected("tenant1", "user")).isZero();
+  }
+
+  @Test
+  void appliesTenantOverrides() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(rateLimiter.tryAcquire("tenant2", "user" + i)).isTrue();
+    }
+  }
+
+  private double rejected(String tenant, String scope) {
+    return registry
+      .get("messaging.rate.limited")
+      .tag("tenant", tenant)
+      .tag("scope", scope)
+      .counter()
+      .count();
+  }
+
+  private static RateLimitProperties properties() {
+    RateLimitProperties properties = new RateLimitProperties();
+    properties.getDefaults().setTenant(limit(1, 3));
+    properties.getDefaults().setUser(limit(1, 2));
+    Limits unlimited = new Limits();
+    unlimited.setTenant(limit(0, 0));
+    properties.getTenants().put("tenant2", unlimited);
+    return properties;
+  }
+
+  private static Limit limit(double rate, int burst) {
+    Limit limit = new Limit();
+    limit.setRate(rate);
+    limit.setBurst(burst);
+    return limit;
+  }
+}
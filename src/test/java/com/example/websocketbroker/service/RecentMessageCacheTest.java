@@ -0,0 +1,77 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RecentMessageCacheTest {
+
+  private final MessagingMetrics metrics = new MessagingMetrics(
+    new SimpleMeterRegistry(),
+    100
+  );
+
+  @Test
+  void servesMessagesAfterAnId() {
+    RecentMessageCache cache = new RecentMessageCache(4, 1 << 20, metrics);
+    for (long id = 1; id <= 3; id++) {
+      cache.add("tenant1", "chat", id, value(id));
+    }
+
+    List<byte[]> values = cache.valuesAfter("tenant1", "chat", 1, Duration.ZERO);
+
+    assertThat(values).hasSize(2);
+    assertThat(values.get(0)[0]).isEqualTo((byte) 2);
+    assertThat(values.get(1)[0]).isEqualTo((byte) 3);
+  }
+
+  @Test
+  void missesOnceOlderMessagesWereOverwritten() {
+    RecentMessageCache cache = new RecentMessageCache(4, 1 << 20, metrics);
+    for (long id = 1; id <= 6; id++) {
+      cache.add("tenant1", "chat", id, value(id));
+    }
+
+    assertThat(cache.valuesAfter("tenant1", "chat", 1, Duration.ZERO)).isNull();
+    assertThat(cache.valuesAfter("tenant1", "chat", 2, Duration.ZERO)).hasSize(4);
+    assertThat(cache.valuesAfter("tenant1", "news", 2, Duration.ZERO)).isNull();
+  }
+
+  @Test
+  void dropsLeastRecentlyUsedTopicsOverTheLimit() {
+    RecentMessageCache cache = new RecentMessageCache(4, 2000, metrics);
+    for (long id = 1; id <= 4; id++) {
+      cache.add("tenant1", "chat", id, new byte[100]);
+      cache.add("tenant2", "chat", id, new byte[100]);
+    }
+    cache.valuesAfter("tenant1", "chat", 1, Duration.ZERO);
+
+    cache.add("tenant3", "chat", 1, new byte[600]);
+
+    assertThat(cache.valuesAfter("tenant1", "chat", 1, Duration.ZERO)).isNotNull();
+    assertThat(cache.valuesAfter("tenant2", "chat", 1, Duration.ZERO)).isNull();
+    assertThat(cache.size()).isLessThanOrEqualTo(2000L);
+  }
+
+  @Test
+  void missesOnceTheOldestMessageExpired() {
+    RecentMessageCache cache = new RecentMessageCache(4, 1 << 20, metrics);
+    long now = System.currentTimeMillis() * MessageIds.IDS_PER_MILLI;
+    long hourAgo = now - Duration.ofHours(1).toMillis() * MessageIds.IDS_PER_MILLI;
+    cache.add("tenant1", "chat", hourAgo, value(1));
+    cache.add("tenant1", "chat", now, value(2));
+
+    assertThat(cache.valuesAfter("tenant1", "chat", hourAgo, Duration.ofDays(1)))
+      .hasSize(1);
+    assertThat(cache.valuesAfter("tenant1", "chat", hourAgo, Duration.ofMinutes(30)))
+      .isNull();
+  }
+
+  private static byte[] value(long id) {
+    return new byte[] { (byte) id };
+  }
+}
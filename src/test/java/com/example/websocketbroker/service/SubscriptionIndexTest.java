@@ -0,0 +1,126 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.websocketbroker.config.TopicProperties;
+import com.example.websocketbroker.metrics.MessagingMetrics;
+import com.example.websocketbroker.service.SubscriptionIndex.Presence;
+import com.example.websocketbroker.service.SubscriptionIndex.Subscriber;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SubscriptionIndexTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final SubscriptionIndex index = new SubscriptionIndex(
+    new TopicRegistry(new TopicProperties()),
+    new MessagingMetrics(meterRegistry, 100)
+  );
+  private final List<String> changes = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    index.addListener(changes::add);
+  }
+
+  @Test
+  void indexesSubscriptionsByTenantAndTopic() {
+    index.subscribe("s1", "tenant1", null, "sub-0", "/topic/chat");
+    index.subscribe("s2", "tenant2", null, "sub-0", "/topic/chat");
+
+    assertThat(index.subscribers("tenant1", "chat"))
+      .containsExactly(new Subscriber("s1", "sub-0"));
+    assertThat(index.subscribers("tenant1", "news")).isEmpty();
+    assertThat(index.subscribedTopics("tenant2")).containsExactly("chat");
+  }
+
+  @Test
+  void ignoresUnknownTopicsAndOtherDestinations() {
+    assertThat(index.subscribe("s1", "tenant1", null, "sub-0", "/topic/sports")).isFalse();
+    assertThat(index.subscribe("s1", "tenant1", null, "sub-1", "/queue/chat")).isFalse();
+    assertThat(index.subscribe("s1", null, null, "sub-2", "/topic/chat")).isFalse();
+
+    assertThat(index.hasSubscribers("tenant1")).isFalse();
+    assertThat(changes).isEmpty();
+  }
+
+  @Test
+  void reportsOnlyFirstAndLastSubscriberOfATopic() {
+    index.subscribe("s1", "tenant1", null, "sub-0", "/topic/chat");
+    index.subscribe("s2", "tenant1", null, "sub-0", "/topic/chat");
+    assertThat(changes).containsExactly("tenant1");
+
+    index.unsubscribe("s1", "sub-0");
+    assertThat(changes).containsExactly("tenant1");
+
+    index.unsubscribe("s2", "sub-0");
+    assertThat(changes).containsExactly("tenant1", "tenant1");
+    assertThat(index.hasSubscribers("tenant1")).isFalse();
+  }
+
+  @Test
+  void removesAllSubscriptionsOfAClosedSession() {
+    index.subscribe("s1", "tenant1", null, "sub-0", "/topic/chat");
+    index.subscribe("s1", "tenant1", null, "sub-1", "/topic/news");
+    index.subscribe("s2", "tenant1", null, "sub-0", "/topic/news");
+
+    index.removeSession("s1");
+
+    assertThat(index.subscribedTopics("tenant1")).containsExactly("news");
+    assertThat(index.subscribers("tenant1", "news"))
+      .containsExactly(new Subscriber("s2", "sub-0"));
+  }
+
+  @Test
+  void countsSessionsAndSubscriptionsPerTenant() {
+    index.connect("s1", "tenant1", null);
+    index.connect("s2", "tenant1", null);
+    index.connect("s3", "tenant2", null);
+    index.subscribe("s1", "tenant1", null, "sub-0", "/topic/chat");
+    index.subscribe("s2", "tenant1", null, "sub-0", "/topic/chat");
+    index.subscribe("s2", "tenant1", null, "sub-1", "/topic/news");
+
+    assertThat(index.sessionCount("tenant1")).isEqualTo(2);
+    assertThat(index.presence("tenant1"))
+      .isEqualTo(new Presence(2, Map.of("chat", 2, "news", 1)));
+    assertThat(index.presence("tenant3")).isEqualTo(new Presence(0, Map.of()));
+    assertThat(
+      meterRegistry.get("messaging.sessions").tag("tenant", "tenant1").gauge().value()
+    )
+      .isEqualTo(2.0);
+    assertThat(
+      meterRegistry
+        .get("messaging.subscriptions")
+        .tag("tenant", "tenant1")
+        .tag("topic", "chat")
+        .gauge()
+        .value()
+    )
+      .isEqualTo(2.0);
+  }
+
+  @Test
+  void countsSessionsOnlyOnce() {
+    index.connect("s1", "tenant1", null);
+    index.connect("s1", "tenant1", null);
+    index.subscribe("s1", "tenant1", null, "sub-0", "/topic/chat");
+    index.subscribe("s2", "tenant1", null, "sub-0", "/topic/chat");
+
+    assertThat(index.sessionCount("tenant1")).isEqualTo(2);
+
+    index.removeSession("s1");
+    index.removeSession("s1");
+    assertThat(index.presence("tenant1")).isEqualTo(new Presence(1, Map.of("chat", 1)));
+
+    index.removeSession("s2");
+    assertThat(index.sessionCount("tenant1")).isZero();
+    assertThat(
+      meterRegistry.get("messaging.sessions").tag("tenant", "tenant1").gauge().value()
+    )
+      .isZero();
+  }
+}
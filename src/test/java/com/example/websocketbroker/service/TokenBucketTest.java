@@ -0,0 +1,67 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+  @Test
+  void allowsABurstThenRefillsAtTheRate() {
+    TokenBucket bucket = new TokenBucket(10, 3);
+    long now = System.nanoTime();
+
+    assertThat(bucket.tryAcquire(now)).isTrue();
+    assertThat(bucket.tryAcquire(now)).isTrue();
+    assertThat(bucket.tryAcquire(now)).isTrue();
+    assertThat(bucket.tryAcquire(now)).isFalse();
+
+    long later = now + TimeUnit.MILLISECONDS.toNanos(100);
+    assertThat(bucket.tryAcquire(later)).isTrue();
+    assertThat(bucket.tryAcquire(later)).isFalse();
+  }
+
+  @Test
+  void takesReleasedTokensAgain() {
+    TokenBucket bucket = new TokenBucket(10, 1);
+    long now = System.nanoTime();
+
+    assertThat(bucket.tryAcquire(now)).isTrue();
+    assertThat(bucket.tryAcquire(now)).isFalse();
+    bucket.release();
+    assertThat(bucket.tryAcquire(now)).isTrue();
+    assertThat(bucket.tryAcquire(now)).isFalse();
+  }
+
+  @Test
+  void neverHoldsMoreThanTheBurst() {
+    TokenBucket bucket = new TokenBucket(10, 2);
+    long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+
+    assertThat(bucket.tryAcquire(later)).isTrue();
+    assertThat(bucket.tryAcquire(later)).isTrue();
+    assertThat(bucket.tryAcquire(later)).isFalse();
+  }
+
+  @Test
+  void grantsExactlyTheBurstToConcurrentCallers() throws Exception {
+    TokenBucket bucket = new TokenBucket(0.001, 1000);
+    AtomicInteger granted = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] =
+        Thread.ofPlatform().start(() -> {
+          for (int j = 0; j < 500; j++) {
+            if (bucket.tryAcquire()) granted.incrementAndGet();
+          }
+        });
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(granted.get()).isEqualTo(1000);
+  }
+}
@@ -0,0 +1,61 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.example.websocketbroker.config.TopicProperties;
+import com.example.websocketbroker.model.Destination;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TopicRegistryTest {
+
+  private final TopicRegistry registry = registry();
+
+  @Test
+  void resolvesConfiguredTopicsPerTenant() {
+    assertThat(registry.resolve("tenant1", "alert")).isNotNull();
+    assertThat(registry.resolve("tenant2", "alert")).isNull();
+    assertThat(registry.resolve("tenant2", "chat")).isNotNull();
+    assertThat(registry.resolve(null, "chat")).isNull();
+  }
+
+  @Test
+  void sharesPreResolvedDestinationsAcrossTenants() {
+    Destination destination = registry.resolve("tenant1", "chat");
+
+    assertThat(registry.resolve("tenant2", "chat")).isSameAs(destination);
+    assertThat(destination.destination()).isEqualTo("/topic/chat");
+    assertThat(destination.subscriptionId()).isEqualTo("topic-chat");
+    assertThat(new String(destination.sendHeaders(), StandardCharsets.UTF_8))
+      .isEqualTo("SEND\ndestination:/topic/chat\n");
+  }
+
+  @Test
+  void replacesTopicsAndNotifiesListeners() {
+    List<String> changed = new ArrayList<>();
+    registry.addListener(changed::add);
+
+    registry.setTopics("tenant1", List.of("chat", "sports"));
+
+    assertThat(changed).containsExactly("tenant1");
+    assertThat(registry.resolve("tenant1", "news")).isNull();
+    assertThat(registry.resolve("tenant1", "sports")).isNotNull();
+    assertThat(registry.destinations("tenant1")).hasSize(2);
+  }
+
+  @Test
+  void rejectsInvalidTopicNames() {
+    assertThatThrownBy(() -> registry.setTopics("tenant1", List.of("a/b")))
+      .isInstanceOf(IllegalArgumentException.class);
+    assertThat(registry.resolve("tenant1", "news")).isNotNull();
+  }
+
+  private static TopicRegistry registry() {
+    TopicProperties properties = new TopicProperties();
+    properties.getTenants().put("tenant2", List.of("news", "chat"));
+    return new TopicRegistry(properties);
+  }
+}
@@ -0,0 +1,161 @@
+package com.example.websocketbroker.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+class WriteBehindQueueTest {
+
+  private final BlockingQueue<List<Integer>> batches = new LinkedBlockingQueue<>();
+
+  @Test
+  void flushesFullBatchesWithoutWaitingForTheInterval() throws Exception {
+    WriteBehindQueue<Integer> queue = queue(10, 3, 2000, batch ->
+      batches.add(List.copyOf(batch))
+    );
+    for (int i = 1; i <= 3; i++) {
+      queue.offer(i);
+    }
+
+    assertThat(batches.poll(1, TimeUnit.SECONDS)).containsExactly(1, 2, 3);
+    queue.shutdown(5000);
+  }
+
+  @Test
+  void flushesPartialBatchesAfterTheInterval() throws Exception {
+    WriteBehindQueue<Integer> queue = queue(10, 100, 50, batch ->
+      batches.add(List.copyOf(batch))
+    );
+
+    queue.offer(1);
+    queue.offer(2);
+
+    assertThat(nextBatch()).containsExactly(1, 2);
+    queue.shutdown(5000);
+  }
+
+  @Test
+  void rejectsItemsWhenFull() {
+    CountDownLatch release = new CountDownLatch(1);
+    WriteBehindQueue<Integer> queue = queue(2, 1, 2000, batch -> await(release));
+
+    // The writer takes the first item and blocks on it.
+    queue.offer(0);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (queue.size() > 0 && System.nanoTime() < deadline) {
+      Thread.onSpinWait();
+    }
+
+    assertThat(queue.offer(1)).isTrue();
+    assertThat(queue.offer(2)).isTrue();
+    assertThat(queue.offer(3)).isFalse();
+    release.countDown();
+    queue.shutdown(5000);
+  }
+
+  @Test
+  void waitsForRoomWhenFull() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> flushed = new CopyOnWriteArrayList<>();
+    WriteBehindQueue<Integer> queue = queue(
+      1,
+      1,
+      2000,
+      batch -> {
+        await(release);
+        flushed.addAll(batch);
+      }
+    );
+
+    // The writer takes the first item and blocks on it.
+    queue.offer(0);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (queue.size() > 0 && System.nanoTime() < deadline) {
+      Thread.onSpinWait();
+    }
+    queue.offer(1);
+
+    assertThat(queue.offer(2, 50)).isFalse();
+    CompletableFuture<Boolean> offered = CompletableFuture.supplyAsync(() ->
+      queue.offer(2, 5000)
+    );
+    Thread.sleep(50);
+    assertThat(offered).isNotDone();
+
+    release.countDown();
+    assertThat(offered.get(5, TimeUnit.SECONDS)).isTrue();
+    queue.shutdown(5000);
+    assertThat(flushed).containsExactly(0, 1, 2);
+  }
+
+  @Test
+  void drainsBufferedItemsOnShutdown() throws Exception {
+    List<Integer> flushed = new ArrayList<>();
+    WriteBehindQueue<Integer> queue = queue(100, 10, 100, flushed::addAll);
+    for (int i = 0; i < 25; i++) {
+      queue.offer(i);
+    }
+
+    queue.shutdown(5000);
+
+    assertThat(flushed).hasSize(25);
+    assertThat(queue.offer(25)).isFalse();
+  }
+
+  @Test
+  void keepsFlushingAfterAFailedBatch() throws Exception {
+    WriteBehindQueue<Integer> queue = queue(
+      10,
+      1,
+      2000,
+      batch -> {
+        if (batch.contains(1)) {
+          throw new IllegalStateException("Redis unavailable");
+        }
+        batches.add(List.copyOf(batch));
+      }
+    );
+
+    queue.offer(1);
+    queue.offer(2);
+
+    assertThat(nextBatch()).containsExactly(2);
+    queue.shutdown(5000);
+  }
+
+  private static WriteBehindQueue<Integer> queue(
+    int capacity,
+    int batchSize,
+    long flushIntervalMillis,
+    Consumer<List<Integer>> flusher
+  ) {
+    return new WriteBehindQueue<>(
+      capacity,
+      batchSize,
+      flushIntervalMillis,
+      flusher,
+      Thread.ofPlatform().daemon().factory()
+    );
+  }
+
+  private List<Integer> nextBatch() throws InterruptedException {
+    return batches.poll(5, TimeUnit.SECONDS);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.example.websocketbroker.stomp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class StompFrameDecoderTest {
+
+  private final StompFrameDecoder decoder = new StompFrameDecoder();
+  private final List<StompFrame> frames = new ArrayList<>();
+
+  @Test
+  void decodesConnectedFrame() throws Exception {
+    decode("CONNECTED\nversion:1.2\nheart-beat:10000,10000\n\n\u0000");
+
+    assertThat(frames)
+      .containsExactly(new StompFrame.ConnectedFrame("1.2", "10000,10000"));
+  }
+
+  @Test
+  void parsesHeartBeatIntervals() {
+    StompFrame.ConnectedFrame frame = new StompFrame.ConnectedFrame("1.2", "0,5000");
+
+    assertThat(frame.heartbeatSendMillis()).isZero();
+    assertThat(frame.heartbeatReceiveMillis()).isEqualTo(5000L);
+    assertThat(new StompFrame.ConnectedFrame("1.2", null).heartbeatReceiveMillis())
+      .isZero();
+  }
+
+  @Test
+  void decodesCoalescedFramesFromOneRead() throws Exception {
+    decode(
+      "MESSAGE\ndestination:/topic/chat\nsubscription:1\nmessage-id:m1\ncustom-user-id:alice\npersisted-id:42\n\nhello\u0000" +
+      "\n" +
+      "RECEIPT\nreceipt-id:r1\n\n\u0000" +
+      "MESSAGE\ndestination:/topic/news\nsubscription:2\nmessage-id:m2\n\nworld\u0000"
+    );
+
+    assertThat(frames).hasSize(3);
+    assertThat(message(0).destination()).isEqualTo("/topic/chat");
+    assertThat(message(0).customUserId()).isEqualTo("alice");
+    assertThat(message(0).persistedId()).isEqualTo("42");
+    assertThat(message(0).bodyAsString()).isEqualTo("hello");
+    assertThat(frames.get(1)).isEqualTo(new StompFrame.ReceiptFrame("r1"));
+    assertThat(message(2).destination()).isEqualTo("/topic/news");
+    assertThat(message(2).persistedId()).isNull();
+    assertThat(message(2).bodyAsString()).isEqualTo("world");
+  }
+
+  @Test
+  void decodesFrameFragmentedIntoSingleBytes() throws Exception {
+    byte[] frame = utf8(
+      "MESSAGE\r\ndestination:/topic/chat\r\nsubscription:1\r\n\r\nGrüße, 世界\u0000"
+    );
+    List<String> bodies = new ArrayList<>();
+
+    for (byte b : frame) {
+      decoder.decode(
+        ByteBuffer.wrap(new byte[] { b }),
+        decoded -> bodies.add(((StompFrame.MessageFrame) decoded).bodyAsString())
+      );
+    }
+
+    assertThat(bodies).containsExactly("Grüße, 世界");
+  }
+
+  @Test
+  void usesContentLengthForBodiesContainingNul() throws Exception {
+    List<byte[]> bodies = new ArrayList<>();
+    byte[] frame = utf8(
+      "MESSAGE\ndestination:/topic/chat\ncontent-length:5\n\na\u0000b\u0000c\u0000"
+    );
+
+    decoder.decode(ByteBuffer.wrap(frame, 0, 30), decoded -> bodies.add(body(decoded)));
+    decoder.decode(
+      ByteBuffer.wrap(frame, 30, frame.length - 30),
+      decoded -> bodies.add(body(decoded))
+    );
+
+    assertThat(bodies).containsExactly(utf8("a\u0000b\u0000c"));
+  }
+
+  @Test
+  void growsBufferForFramesLargerThanInitialCapacity() throws Exception {
+    StompFrameDecoder smallDecoder = new StompFrameDecoder(16, 1024);
+    String body = "x".repeat(500);
+
+    smallDecoder.decode(
+      ByteBuffer.wrap(utf8("MESSAGE\ndestination:/topic/chat\n\n" + body + "\u0000")),
+      frame -> frames.add(detach(frame))
+    );
+
+    assertThat(message(0).bodyAsString()).isEqualTo(body);
+  }
+
+  @Test
+  void unescapesHeaderValues() throws Exception {
+    decode("ERROR\nmessage:bad\\cframe\\nhere\n\ndetails\u0000");
+
+    StompFrame.ErrorFrame error = (StompFrame.ErrorFrame) frames.get(0);
+    assertThat(error.message()).isEqualTo("bad:frame\nhere");
+    assertThat(error.bodyAsString()).isEqualTo("details");
+  }
+
+  @Test
+  void ignoresHeartbeatsAndUnknownCommands() throws Exception {
+    decode("\n\r\n\nUNKNOWN\nfoo:bar\n\nbody\u0000\nRECEIPT\nreceipt-id:r2\n\n\u0000\n");
+
+    assertThat(frames).containsExactly(new StompFrame.ReceiptFrame("r2"));
+  }
+
+  @Test
+  void rejectsFramesExceedingMaximumSize() {
+    StompFrameDecoder smallDecoder = new StompFrameDecoder(16, 64);
+
+    assertThatThrownBy(() ->
+        smallDecoder.decode(
+          ByteBuffer.wrap(utf8("MESSAGE\n\n" + "x".repeat(100))),
+          frames::add
+        )
+      )
+      .isInstanceOf(StompDecodingException.class);
+  }
+
+  @Test
+  void discardsBufferedBytesOnReset() throws Exception {
+    decode("MESSAGE\ndestination:/topic/chat\n\npartial");
+    decoder.reset();
+    decode("RECEIPT\nreceipt-id:r3\n\n\u0000");
+
+    assertThat(frames).containsExactly(new StompFrame.ReceiptFrame("r3"));
+  }
+
+  private void decode(String input) throws StompDecodingException {
+    decoder.decode(ByteBuffer.wrap(utf8(input)), frame -> frames.add(detach(frame)));
+  }
+
+  // Bodies are only valid inside the callback, so keep copies for asserting.
+  private static StompFrame detach(StompFrame frame) {
+    return switch (frame) {
+      case StompFrame.MessageFrame message -> new StompFrame.MessageFrame(
+        message.destination(),
+        message.subscription(),
+        message.messageId(),
+        message.customUserId(),
+        message.persistedId(),
+        message.contentEncoding(),
+        ByteBuffer.wrap(body(message))
+      );
+      case StompFrame.ErrorFrame error -> new StompFrame.ErrorFrame(
+        error.message(),
+        ByteBuffer.wrap(body(error))
+      );
+      default -> frame;
+    };
+  }
+
+  private StompFrame.MessageFrame message(int index) {
+    return (StompFrame.MessageFrame) frames.get(index);
+  }
+
+  private static byte[] body(StompFrame frame) {
+    ByteBuffer body = switch (frame) {
+      case StompFrame.MessageFrame message -> message.body();
+      case StompFrame.ErrorFrame error -> error.body();
+      default -> ByteBuffer.allocate(0);
+    };
+    byte[] bytes = new byte[body.remaining()];
+    body.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static byte[] utf8(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,109 @@
+package com.example.websocketbroker.stomp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class StompFrameEncoderTest {
+
+  private final StompFrameEncoder encoder = new StompFrameEncoder(16);
+
+  @Test
+  void encodesSendFrameWithContentLength() {
+    encoder.encodeSend(
+      StompFrameEncoder.sendHeaders("/topic/chat"),
+      "alice",
+      0,
+      "Grüße\u0000😀"
+    );
+
+    assertThat(encoded())
+      .isEqualTo(
+        "SEND\ndestination:/topic/chat\ncustom-user-id:alice\ncontent-length:12\n\nGrüße\u0000😀\u0000"
+      );
+  }
+
+  @Test
+  void escapesHeaderValues() {
+    encoder.encodeSend(
+      StompFrameEncoder.sendHeaders("/topic/chat"),
+      "evil\nreceipt:x",
+      0,
+      ""
+    );
+
+    assertThat(encoded())
+      .isEqualTo(
+        "SEND\ndestination:/topic/chat\ncustom-user-id:evil\\nreceipt\\cx\ncontent-length:0\n\n\u0000"
+      );
+  }
+
+  @Test
+  void encodesCompressedSendFrameWithContentEncoding() {
+    encoder.encodeSend(
+      StompFrameEncoder.sendHeaders("/topic/chat"),
+      null,
+      0,
+      "deflate",
+      "zip".getBytes(StandardCharsets.US_ASCII)
+    );
+
+    assertThat(encoded())
+      .isEqualTo(
+        "SEND\ndestination:/topic/chat\ncontent-encoding:deflate\ncontent-length:3\n\nzip\u0000"
+      );
+  }
+
+  @Test
+  void encodesPersistedId() {
+    encoder.encodeSend(
+      StompFrameEncoder.sendHeaders("/topic/chat"),
+      "alice",
+      1_700_000_000_123_007L,
+      "hi"
+    );
+
+    assertThat(encoded())
+      .isEqualTo(
+        "SEND\ndestination:/topic/chat\ncustom-user-id:alice\npersisted-id:1700000000123007\ncontent-length:2\n\nhi\u0000"
+      );
+  }
+
+  @Test
+  void reusesBufferAfterClear() {
+    encoder.encodeHeartbeat();
+    encoder.encodeDisconnect();
+    assertThat(encoded()).isEqualTo("\nDISCONNECT\n\n\u0000");
+
+    encoder.clear();
+    encoder.encodeSubscribe("1", "/topic/news");
+    assertThat(encoded())
+      .isEqualTo("SUBSCRIBE\nid:1\ndestination:/topic/news\nack:auto\n\n\u0000");
+  }
+
+  @Test
+  void encodesConnectFrameWithHeartBeat() {
+    encoder.encodeConnect("tenant1", "guest", "secret", 10000, 20000);
+
+    assertThat(encoded())
+      .isEqualTo(
+        "CONNECT\naccept-version:1.2\nhost:tenant1\nlogin:guest\npasscode:secret\nheart-beat:10000,20000\n\n\u0000"
+      );
+  }
+
+  @Test
+  void encodesUnsubscribeFrame() {
+    encoder.encodeUnsubscribe("topic-news");
+
+    assertThat(encoded()).isEqualTo("UNSUBSCRIBE\nid:topic-news\n\n\u0000");
+  }
+
+  private String encoded() {
+    ByteBuffer buffer = encoder.flip();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,26 @@
+package com.example.websocketbroker.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class BackoffTest {
+
+  private final Backoff backoff = new Backoff(1000, 30000);
+
+  @Test
+  void doublesTheCapPerAttemptWithJitterInItsUpperHalf() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(backoff.delayMillis(0)).isBetween(500, 1000);
+      assertThat(backoff.delayMillis(3)).isBetween(4000, 8000);
+    }
+  }
+
+  @Test
+  void staysWithinTheMaximum() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(backoff.delayMillis(10)).isBetween(15000, 30000);
+      assertThat(backoff.delayMillis(Integer.MAX_VALUE)).isBetween(15000, 30000);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.example.websocketbroker.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.websocketbroker.transport.CircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+  @Test
+  void opensAfterConsecutiveFailures() {
+    CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+
+    breaker.recordFailure();
+    breaker.recordFailure();
+    assertThat(breaker.state()).isEqualTo(State.CLOSED);
+    assertThat(breaker.attemptDelayMillis()).isEqualTo(0L);
+
+    breaker.recordFailure();
+    assertThat(breaker.state()).isEqualTo(State.OPEN);
+    assertThat(breaker.attemptDelayMillis()).isGreaterThan(0);
+  }
+
+  @Test
+  void successResetsTheFailureCount() {
+    CircuitBreaker breaker = new CircuitBreaker(2, 60000);
+
+    breaker.recordFailure();
+    breaker.recordSuccess();
+    breaker.recordFailure();
+
+    assertThat(breaker.state()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  void letsOneProbeThroughOnceTheOpenDurationHasPassed() {
+    CircuitBreaker breaker = new CircuitBreaker(1, 0);
+    breaker.recordFailure();
+
+    assertThat(breaker.attemptDelayMillis()).isEqualTo(0L);
+    assertThat(breaker.state()).isEqualTo(State.HALF_OPEN);
+    assertThat(breaker.attemptDelayMillis()).isGreaterThan(0);
+
+    breaker.recordSuccess();
+    assertThat(breaker.state()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  void failedProbeOpensTheCircuitAgain() {
+    CircuitBreaker breaker = new CircuitBreaker(5, 0);
+    for (int i = 0; i < 5; i++) {
+      breaker.recordFailure();
+    }
+    breaker.attemptDelayMillis();
+
+    breaker.recordFailure();
+
+    assertThat(breaker.state()).isEqualTo(State.OPEN);
+  }
+}
@@ -0,0 +1,86 @@
+package com.example.websocketbroker.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class HashedTimerWheelTest {
+
+  private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final HashedTimerWheel wheel = new HashedTimerWheel(100, 8, 0);
+  private final List<String> ran = new ArrayList<>();
+
+  @Test
+  void runsTasksAtTheirTickButNeverEarly() {
+    wheel.add(task("a", 150));
+    wheel.add(task("b", 300));
+
+    expire(TICK);
+    assertThat(ran).isEmpty();
+    expire(2 * TICK);
+    assertThat(ran).containsExactly("a");
+    expire(3 * TICK);
+    assertThat(ran).containsExactly("a", "b");
+    assertThat(wheel.size()).isZero();
+  }
+
+  @Test
+  void waitsFullTurnsForDeadlinesBeyondTheWheel() {
+    // 8 buckets of 100 ms, so 1250 ms shares its bucket with 450 ms.
+    wheel.add(task("late", 1250));
+    wheel.add(task("early", 450));
+
+    expire(5 * TICK);
+    assertThat(ran).containsExactly("early");
+    expire(12 * TICK);
+    assertThat(ran).containsExactly("early");
+    expire(13 * TICK);
+    assertThat(ran).containsExactly("early", "late");
+  }
+
+  @Test
+  void dropsCancelledTasks() {
+    ScheduledTask cancelled = task("cancelled", 100);
+    wheel.add(cancelled);
+    wheel.add(task("kept", 100));
+    cancelled.cancel();
+
+    expire(TICK);
+    assertThat(ran).containsExactly("kept");
+    assertThat(wheel.size()).isZero();
+  }
+
+  @Test
+  void runsOverdueTasksOnTheNextTick() {
+    expire(10 * TICK);
+    wheel.add(task("overdue", 50));
+
+    assertThat(wheel.nanosUntilNextTick(10 * TICK)).isZero();
+    expire(10 * TICK);
+    assertThat(ran).containsExactly("overdue");
+  }
+
+  @Test
+  void reportsTheTimeUntilTheNextTick() {
+    assertThat(wheel.nanosUntilNextTick(0)).isEqualTo(-1L);
+
+    wheel.add(task("a", 1000));
+    expire(TICK / 4);
+    assertThat(wheel.nanosUntilNextTick(TICK / 2)).isEqualTo(TICK / 2);
+  }
+
+  private ScheduledTask task(String name, long deadlineMillis) {
+    return new ScheduledTask(
+      () -> ran.add(name),
+      TimeUnit.MILLISECONDS.toNanos(deadlineMillis)
+    );
+  }
+
+  private void expire(long nowNanos) {
+    wheel.expire(nowNanos, ScheduledTask::run);
+  }
+}
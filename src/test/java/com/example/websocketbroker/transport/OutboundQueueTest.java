@@ -0,0 +1,65 @@
+package com.example.websocketbroker.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.websocketbroker.transport.OutboundQueue.OverflowPolicy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class OutboundQueueTest {
+
+  @Test
+  void failRejectsFramesWhenFull() {
+    OutboundQueue<String> queue = new OutboundQueue<>(2, OverflowPolicy.FAIL, 1000);
+
+    assertThat(queue.offer("a")).isTrue();
+    assertThat(queue.offer("b")).isTrue();
+    assertThat(queue.offer("c")).isFalse();
+
+    assertThat(queue.size()).isEqualTo(2);
+    assertThat(queue.poll()).isEqualTo("a");
+  }
+
+  @Test
+  void dropOldestMakesRoomForNewFrames() {
+    OutboundQueue<String> queue = new OutboundQueue<>(2, OverflowPolicy.DROP_OLDEST, 1000);
+
+    queue.offer("a");
+    queue.offer("b");
+    assertThat(queue.offer("c")).isTrue();
+
+    assertThat(queue.poll()).isEqualTo("b");
+    assertThat(queue.poll()).isEqualTo("c");
+    assertThat(queue.poll()).isNull();
+  }
+
+  @Test
+  void blockRejectsFramesAfterTheTimeout() {
+    OutboundQueue<String> queue = new OutboundQueue<>(1, OverflowPolicy.BLOCK, 50);
+    queue.offer("a");
+
+    long start = System.nanoTime();
+    assertThat(queue.offer("b")).isFalse();
+
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+      .isGreaterThanOrEqualTo(40L);
+    assertThat(queue.size()).isEqualTo(1);
+  }
+
+  @Test
+  void blockWaitsForSpace() throws Exception {
+    OutboundQueue<String> queue = new OutboundQueue<>(1, OverflowPolicy.BLOCK, 5000);
+    queue.offer("a");
+
+    CompletableFuture<Boolean> offered = CompletableFuture.supplyAsync(() ->
+      queue.offer("b")
+    );
+    Thread.sleep(50);
+    assertThat(offered).isNotDone();
+
+    assertThat(queue.poll()).isEqualTo("a");
+    assertThat(offered.get(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(queue.poll()).isEqualTo("b");
+  }
+}
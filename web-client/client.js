@@ -1,5 +1,9 @@
 const connections = {};
 const userIds = {};
+// Last persisted-id seen per tenant and topic, kept across reconnects.
+const lastSeenIds = {};
+// Persisted-ids remembered per subscription to skip replayed duplicates.
+const maxSeenIds = 2000;
 
 function connect(tenant) {
   if (connections[tenant]) return;
@@ -36,14 +40,46 @@ function connect(tenant) {
         updateStatus(tenant, true);
 
         ["news", "alert", "chat"].forEach((topic) => {
-          client.subscribe(`/topic/${topic}`, (message) => {
-            displayMessage(
-              tenant,
-              topic,
-              message.body,
-              message.headers["custom-user-id"]
-            );
-          });
+          const key = `${tenant}/${topic}`;
+          const resumeFrom = lastSeenIds[key];
+          const seenIds = new Set();
+          const subscribeHeaders =
+            resumeFrom !== undefined ? { "last-seen-id": resumeFrom } : {};
+          client.subscribe(
+            `/topic/${topic}`,
+            (message) => {
+              const id = message.headers["persisted-id"];
+              if (id !== undefined) {
+                // Skip what was already shown before the reconnect. With the
+                // RELAY fan-out, live messages can arrive before the replayed
+                // ones, so duplicates are found by id rather than by order.
+                if (
+                  (resumeFrom !== undefined &&
+                    BigInt(id) <= BigInt(resumeFrom)) ||
+                  seenIds.has(id)
+                ) {
+                  return;
+                }
+                seenIds.add(id);
+                if (seenIds.size > maxSeenIds) {
+                  seenIds.delete(seenIds.values().next().value);
+                }
+                if (
+                  lastSeenIds[key] === undefined ||
+                  BigInt(id) > BigInt(lastSeenIds[key])
+                ) {
+                  lastSeenIds[key] = id;
+                }
+              }
+              displayMessage(
+                tenant,
+                topic,
+                message.body,
+                message.headers["custom-user-id"]
+              );
+            },
+            subscribeHeaders
+          );
         });
       },
       (error) =>